@@ -0,0 +1,95 @@
+const cluster = require('cluster');
+const os = require('os');
+const path = require('path');
+require ('dotenv').config ({path: '../.env'});
+require('dotenv').config();
+const logger = require('./utils/logger');
+const { relayBusMessages, announceWorkerExit } = require('./utils/clusterBus');
+
+// Number of server processes; defaults to one per core
+const WORKER_COUNT = parseInt(process.env.CLUSTER_WORKERS, 10) ||
+  (os.availableParallelism ? os.availableParallelism() : os.cpus().length);
+// How long a retiring worker may take to finish its running generation jobs
+const SHUTDOWN_TIMEOUT_MS = parseInt(process.env.CLUSTER_SHUTDOWN_TIMEOUT_MS, 10) || 120000;
+// Workers that die faster than this after starting are restarted with a growing delay
+const MIN_UPTIME_MS = 10000;
+
+cluster.setupPrimary({ exec: path.join(__dirname, 'server.js') });
+
+let restartDelayMs = 0;
+let shuttingDown = false;
+let rolling = false;
+
+const fork = () => {
+  const worker = cluster.fork({
+    CLUSTER_WORKER_COUNT: String(WORKER_COUNT),
+    // Share the cores between the server processes instead of one thread pool per core each
+    WORKER_POOL_SIZE: process.env.WORKER_POOL_SIZE || String(Math.max(1, Math.floor(os.cpus().length / WORKER_COUNT) - 1))
+  });
+  worker.startedAt = Date.now();
+  return worker;
+};
+
+// Ask a worker to stop accepting connections and exit once its jobs are done
+const retire = (worker) => new Promise((resolve) => {
+  worker.retiring = true;
+  const timer = setTimeout(() => worker.kill('SIGKILL'), SHUTDOWN_TIMEOUT_MS);
+  worker.once('exit', () => {
+    clearTimeout(timer);
+    resolve();
+  });
+  worker.send({ type: 'shutdown' });
+});
+
+// Replace the workers one at a time, waiting for each replacement to listen before the old
+// worker is retired, so there is always capacity to serve requests
+const rollingRestart = async () => {
+  if (rolling || shuttingDown) return;
+  rolling = true;
+  logger.info('Rolling restart started');
+  try {
+    for (const worker of Object.values(cluster.workers)) {
+      if (!worker || worker.retiring) continue;
+      const replacement = fork();
+      await new Promise((resolve, reject) => {
+        replacement.once('listening', resolve);
+        replacement.once('exit', () => reject(new Error('Replacement worker exited before listening')));
+      });
+      await retire(worker);
+    }
+    logger.info('Rolling restart finished');
+  } catch (error) {
+    logger.error('Rolling restart aborted', error);
+  } finally {
+    rolling = false;
+  }
+};
+
+const shutdown = async (signal) => {
+  if (shuttingDown) return;
+  shuttingDown = true;
+  logger.info(`Received ${signal}, stopping workers`);
+  await Promise.all(Object.values(cluster.workers).map(retire));
+  process.exit(0);
+};
+
+cluster.on('message', relayBusMessages(() => cluster.workers));
+
+cluster.on('exit', (worker, code, signal) => {
+  // Also after retiring: a worker killed at the shutdown timeout leaves unfinished jobs behind
+  announceWorkerExit(() => cluster.workers, worker.process.pid);
+  if (worker.retiring || shuttingDown) return;
+
+  const uptime = Date.now() - worker.startedAt;
+  restartDelayMs = uptime < MIN_UPTIME_MS ? Math.min(Math.max(restartDelayMs * 2, 1000), 60000) : 0;
+  logger.error(`Worker ${worker.process.pid} died, restarting`, { code, signal, delayMs: restartDelayMs });
+  setTimeout(fork, restartDelayMs);
+});
+
+process.on('SIGUSR2', rollingRestart);
+process.on('SIGHUP', rollingRestart);
+process.on('SIGTERM', () => shutdown('SIGTERM'));
+process.on('SIGINT', () => shutdown('SIGINT'));
+
+logger.info(`Starting ${WORKER_COUNT} server workers`, { primaryPid: process.pid });
+for (let i = 0; i < WORKER_COUNT; i++) fork();
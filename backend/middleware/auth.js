@@ -1,5 +1,13 @@
 const jwt = require('jsonwebtoken');
 const User = require('../models/User');
+const userCache = require('../services/userCache');
+
+// Look a user up through the cache. Every request gets its own document built from the cached
+// data, so routes can modify and save req.user as before.
+const findUser = async (userId) => {
+  const data = await userCache.get(userId, () => User.findById(userId).select('-password').lean());
+  return data ? User.hydrate(data, { password: 0 }) : null;
+};
 
 const auth = async (req, res, next) => {
   try {
@@ -17,7 +25,7 @@ const auth = async (req, res, next) => {
     const decoded = jwt.verify(token, process.env.JWT_SECRET || 'your-secret-key');
     
     // Find user
-    const user = await User.findById(decoded.userId).select('-password');
+    const user = await findUser(decoded.userId);
     
     if (!user) {
       return res.status(401).json({ 
@@ -52,7 +60,7 @@ const optionalAuth = async (req, res, next) => {
     
     if (token) {
       const decoded = jwt.verify(token, process.env.JWT_SECRET || 'your-secret-key');
-      const user = await User.findById(decoded.userId).select('-password');
+      const user = await findUser(decoded.userId);
       
       if (user && user.isActive) {
         req.user = user;
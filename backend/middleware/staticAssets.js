@@ -0,0 +1,101 @@
+const path = require('path');
+const fs = require('fs-extra');
+const express = require('express');
+const logger = require('../utils/logger');
+const { precompress } = require('../scripts/precompressBuild');
+
+// Hashed build output: a changed file gets a new name, so it can be cached forever
+const IMMUTABLE = 'public, max-age=31536000, immutable';
+// Everything else (index.html, manifest, favicon) is revalidated so a deploy shows up at once
+const REVALIDATE = 'no-cache';
+
+// Precompressed copies written by scripts/precompressBuild.js, best first
+const ENCODINGS = [
+  { encoding: 'br', extension: '.br' },
+  { encoding: 'gzip', extension: '.gz' }
+];
+
+// Relative paths of the files in the build, found once at startup; the build does not change
+// while the server runs
+const listFiles = (dir, prefix = '') => {
+  const files = new Set();
+  if (!fs.existsSync(dir)) return files;
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const relative = `${prefix}/${entry.name}`;
+    if (entry.isDirectory()) listFiles(path.join(dir, entry.name), relative).forEach(file => files.add(file));
+    else if (entry.isFile()) files.add(relative);
+  }
+  return files;
+};
+
+// Serve the frontend build with a cache policy per file and, when the client accepts it, the
+// brotli or gzip copy of a file instead of the file itself. The SPA fallback returns index.html
+// under the same rules. Files without a precompressed copy are left to the compression middleware.
+// precompressMissing() writes the copies a build made without `npm run build` lacks.
+const staticAssets = (buildDir) => {
+  const files = listFiles(buildDir);
+
+  const precompressMissing = async () => {
+    try {
+      const count = await precompress(buildDir);
+      const current = listFiles(buildDir);
+      current.forEach(file => files.add(file));
+      if (count > 0) logger.info('Precompressed frontend build', { files: count });
+    } catch (error) {
+      logger.warn('Precompressing the frontend build failed; serving it uncompressed', { error: error.message });
+    }
+  };
+  const staticDir = path.join(buildDir, 'static') + path.sep;
+
+  // Point req.url at the best precompressed copy of a file and describe the original
+  const negotiate = (req, res, relativePath) => {
+    const variants = ENCODINGS.filter(({ extension }) => files.has(relativePath + extension));
+    if (variants.length === 0) return;
+    res.setHeader('Vary', 'Accept-Encoding');
+    const accepted = req.acceptsEncodings(...variants.map(({ encoding }) => encoding), 'identity');
+    const variant = variants.find(({ encoding }) => encoding === accepted);
+    if (!variant) return;
+
+    // express.static keeps a Content-Type that is already set, so the copy is typed as the original
+    res.type(path.extname(relativePath));
+    res.setHeader('Content-Encoding', variant.encoding);
+    req.url = relativePath + variant.extension + (req.url.includes('?') ? req.url.slice(req.url.indexOf('?')) : '');
+  };
+
+  const serveStatic = express.static(buildDir, {
+    // Directory requests resolve to index.html here, where the encoding was already chosen
+    index: false,
+    // Copies of index.html are served through the SPA fallback
+    redirect: false,
+    setHeaders: (res, filePath) => {
+      res.setHeader('Cache-Control', filePath.startsWith(staticDir) ? IMMUTABLE : REVALIDATE);
+    }
+  });
+
+  const assets = (req, res, next) => {
+    if (req.method !== 'GET' && req.method !== 'HEAD') return next();
+    let relativePath;
+    try {
+      relativePath = decodeURIComponent(req.path);
+    } catch (error) {
+      return next();
+    }
+    if (relativePath.endsWith('/')) relativePath += 'index.html';
+    if (!files.has(relativePath)) return next();
+    negotiate(req, res, relativePath);
+    serveStatic(req, res, next);
+  };
+
+  // Client-side routes get the app shell
+  const fallback = (req, res, next) => {
+    if (req.method !== 'GET' && req.method !== 'HEAD') return next();
+    if (!files.has('/index.html')) return next();
+    req.url = '/index.html';
+    negotiate(req, res, '/index.html');
+    serveStatic(req, res, next);
+  };
+
+  return { assets, fallback, precompressMissing };
+};
+
+module.exports = staticAssets;
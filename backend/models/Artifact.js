@@ -0,0 +1,43 @@
+const mongoose = require('mongoose');
+
+// One generated file in the output directory
+const artifactSchema = new mongoose.Schema({
+  filename: {
+    type: String,
+    required: true,
+    unique: true
+  },
+  type: {
+    type: String,
+    enum: ['method', 'test', 'combined', 'unknown'],
+    required: true
+  },
+  owner: {
+    type: mongoose.Schema.Types.ObjectId,
+    ref: 'User',
+    default: null // Files from before the index existed have no owner
+  },
+  // Timestamp shared by the files saved together for one generation
+  generationId: {
+    type: String,
+    default: null
+  },
+  size: {
+    type: Number,
+    default: 0
+  },
+  createdAt: {
+    type: Date,
+    default: Date.now
+  }
+});
+
+// Listing is newest first with _id as tie breaker, optionally filtered by owner and/or type
+artifactSchema.index({ createdAt: -1, _id: -1 });
+artifactSchema.index({ owner: 1, createdAt: -1, _id: -1 });
+artifactSchema.index({ type: 1, createdAt: -1, _id: -1 });
+artifactSchema.index({ owner: 1, type: 1, createdAt: -1, _id: -1 });
+
+const Artifact = mongoose.model('Artifact', artifactSchema);
+
+module.exports = Artifact;
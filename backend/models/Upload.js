@@ -0,0 +1,41 @@
+const mongoose = require('mongoose');
+
+// A user's handle on an uploaded file. The content itself is stored once per SHA-256 hash
+// in uploads/blobs, however many users upload it.
+const uploadSchema = new mongoose.Schema({
+  owner: {
+    type: mongoose.Schema.Types.ObjectId,
+    ref: 'User',
+    default: null // Anonymous uploads, e.g. from the Excel preview
+  },
+  hash: {
+    type: String,
+    required: true,
+    match: /^[0-9a-f]{64}$/
+  },
+  originalName: {
+    type: String,
+    required: true
+  },
+  size: {
+    type: Number,
+    default: 0
+  },
+  createdAt: {
+    type: Date,
+    default: Date.now
+  },
+  // Uploading or linking the same file again refreshes the handle instead of adding one
+  lastUsedAt: {
+    type: Date,
+    default: Date.now
+  }
+});
+
+uploadSchema.index({ owner: 1, hash: 1, originalName: 1 }, { unique: true });
+uploadSchema.index({ hash: 1 });
+uploadSchema.index({ owner: 1, lastUsedAt: -1 });
+
+const Upload = mongoose.model('Upload', uploadSchema);
+
+module.exports = Upload;
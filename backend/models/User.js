@@ -1,5 +1,6 @@
 const mongoose = require('mongoose');
-const bcrypt = require('bcryptjs');
+const passwordHasher = require('../services/passwordHasher');
+const userCache = require('../services/userCache');
 
 const userSchema = new mongoose.Schema({
   username: {
@@ -76,7 +77,7 @@ userSchema.pre('save', async function(next) {
   
   try {
     // Hash password with cost of 12
-    const hashedPassword = await bcrypt.hash(this.password, 12);
+    const hashedPassword = await passwordHasher.hash(this.password, 12);
     this.password = hashedPassword;
     next();
   } catch (error) {
@@ -90,9 +91,17 @@ userSchema.pre('save', function(next) {
   next();
 });
 
+// Drop the cached copy used by the auth middleware whenever a user changes
+userSchema.post('save', function(doc) {
+  userCache.invalidate(doc._id);
+});
+userSchema.post(['findOneAndUpdate', 'findOneAndDelete'], function(doc) {
+  if (doc) userCache.invalidate(doc._id);
+});
+
 // Instance method to check password
 userSchema.methods.comparePassword = async function(candidatePassword) {
-  return await bcrypt.compare(candidatePassword, this.password);
+  return await passwordHasher.compare(candidatePassword, this.password);
 };
 
 // Instance method to get public profile
@@ -6,12 +6,14 @@ const path = require('path');
 const fs = require('fs-extra');
 const User = require('../models/User');
 const { auth } = require('../middleware/auth');
+const ProfileThumbnails = require('../services/profileThumbnails');
 
 const router = express.Router();
 
 // Ensure profile pictures directory exists
 const profilePicturesDir = path.join(__dirname, '../uploads/profile-pictures');
 fs.ensureDirSync(profilePicturesDir);
+const thumbnails = new ProfileThumbnails(profilePicturesDir);
 
 // Multer configuration for profile pictures
 const profilePictureStorage = multer.diskStorage({
@@ -138,6 +140,15 @@ router.post('/register', [
       });
     }
 
+    // Too many passwords waiting to be hashed
+    if (error.code === 'POOL_QUEUE_FULL') {
+      res.setHeader('Retry-After', '1');
+      return res.status(503).json({
+        success: false,
+        message: 'Too many sign-ups right now, please try again'
+      });
+    }
+
     // Handle duplicate key error
     if (error.code === 11000) {
       const field = Object.keys(error.keyPattern)[0];
@@ -222,6 +233,13 @@ router.post('/login', [
 
   } catch (error) {
     console.error('Login error:', error);
+    if (error.code === 'POOL_QUEUE_FULL') {
+      res.setHeader('Retry-After', '1');
+      return res.status(503).json({
+        success: false,
+        message: 'Too many logins right now, please try again'
+      });
+    }
     res.status(500).json({
       success: false,
       message: 'Server error during login'
@@ -381,6 +399,7 @@ router.post('/upload-profile-picture', auth, (req, res) => {
         const oldPicturePath = path.join(profilePicturesDir, user.profilePicture);
         try {
           await fs.remove(oldPicturePath);
+          await thumbnails.remove(user.profilePicture);
         } catch (deleteErr) {
           console.warn('Failed to delete old profile picture:', deleteErr);
         }
@@ -391,12 +410,17 @@ router.post('/upload-profile-picture', auth, (req, res) => {
       user.profilePictureOriginalName = req.file.originalname;
       await user.save();
 
+      // Thumbnails are made after responding; a request that arrives first waits for them
+      thumbnails.schedule(req.file.filename);
+
       res.json({
         success: true,
         message: 'Profile picture uploaded successfully',
         data: {
           profilePicture: req.file.filename,
-          profilePictureUrl: `/api/auth/profile-picture/${req.file.filename}`
+          profilePictureUrl: `/api/auth/profile-picture/${req.file.filename}`,
+          thumbnailUrls: Object.fromEntries(ProfileThumbnails.SIZES.map(size =>
+            [size, `/api/auth/profile-picture/${req.file.filename}?size=${size}`]))
         }
       });
 
@@ -411,15 +435,15 @@ router.post('/upload-profile-picture', auth, (req, res) => {
 });
 
 // @route   GET /api/auth/profile-picture/:filename
-// @desc    Get profile picture
+// @desc    Get profile picture; ?size=64 or ?size=256 returns a square WebP thumbnail
 // @access  Public (but could be made private if needed)
-router.get('/profile-picture/:filename', (req, res) => {
+router.get('/profile-picture/:filename', async (req, res) => {
   try {
-    const filename = req.params.filename;
-    const filePath = path.join(profilePicturesDir, filename);
+    const filename = path.basename(req.params.filename);
+    let filePath = path.join(profilePicturesDir, filename);
 
     // Check if file exists
-    if (!fs.existsSync(filePath)) {
+    if (!(await fs.pathExists(filePath))) {
       return res.status(404).json({
         success: false,
         message: 'Profile picture not found'
@@ -435,13 +459,41 @@ router.get('/profile-picture/:filename', (req, res) => {
       '.gif': 'image/gif',
       '.webp': 'image/webp'
     };
+    let mimeType = mimeTypes[ext] || 'image/jpeg';
 
-    const mimeType = mimeTypes[ext] || 'image/jpeg';
+    const size = parseInt(req.query.size, 10);
+    let cacheControl = 'public, max-age=31536000, immutable';
+    if (req.query.size !== undefined) {
+      if (!thumbnails.isSize(size)) {
+        return res.status(400).json({
+          success: false,
+          message: `size must be one of ${ProfileThumbnails.SIZES.join(', ')}`
+        });
+      }
+      try {
+        filePath = await thumbnails.resolve(filename, size);
+        mimeType = 'image/webp';
+      } catch (thumbnailErr) {
+        // An image sharp cannot read is still served as uploaded, but only cached briefly so
+        // the thumbnail replaces it once it can be generated
+        console.warn('Profile picture thumbnail unavailable:', thumbnailErr.message);
+        cacheControl = 'public, max-age=60';
+      }
+    }
+
+    // Picture and thumbnail files are written once under a unique name, so they can be
+    // cached forever and validated by size and modification time
+    const stats = await fs.stat(filePath);
     res.setHeader('Content-Type', mimeType);
-    res.setHeader('Cache-Control', 'public, max-age=31536000'); // Cache for 1 year
+    res.setHeader('Cache-Control', cacheControl);
+    res.setHeader('ETag', `"${stats.size.toString(16)}-${stats.mtimeMs.toString(16)}"`);
+    res.setHeader('Last-Modified', stats.mtime.toUTCString());
+    if (req.fresh) {
+      return res.status(304).end();
+    }
 
     // Send file
-    res.sendFile(filePath);
+    res.sendFile(filePath, { etag: false, lastModified: false, cacheControl: false });
 
   } catch (error) {
     console.error('Profile picture serve error:', error);
@@ -470,6 +522,7 @@ router.delete('/profile-picture', auth, async (req, res) => {
     const filePath = path.join(profilePicturesDir, user.profilePicture);
     try {
       await fs.remove(filePath);
+      await thumbnails.remove(user.profilePicture);
     } catch (deleteErr) {
       console.warn('Failed to delete profile picture file:', deleteErr);
     }
@@ -0,0 +1,83 @@
+// Writes brotli (.br) and gzip (.gz) copies next to the compressible files of the frontend
+// build, so the server can send them without compressing on every request. Copies that are
+// newer than their file are kept, so running it again only compresses what changed.
+// `npm run build` runs it after building the frontend, and the server runs it at startup for a
+// build made some other way; an optional argument overrides the build directory.
+const path = require('path');
+const zlib = require('zlib');
+const { promisify } = require('util');
+const fs = require('fs-extra');
+
+const brotli = promisify(zlib.brotliCompress);
+const gzip = promisify(zlib.gzip);
+
+const COMPRESSIBLE = new Set(['.html', '.js', '.css', '.json', '.map', '.svg', '.txt', '.ico']);
+// Smaller files gain nothing worth an extra lookup
+const MIN_SIZE = 1024;
+
+const walk = async (dir) => {
+  const files = [];
+  for (const entry of await fs.readdir(dir, { withFileTypes: true })) {
+    const entryPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) files.push(...await walk(entryPath));
+    else if (entry.isFile()) files.push(entryPath);
+  }
+  return files;
+};
+
+const isFresh = async (copy, mtimeMs) => {
+  const stats = await fs.stat(copy).catch(() => null);
+  return Boolean(stats) && stats.mtimeMs >= mtimeMs;
+};
+
+// Write through a temporary file so a server never sends a partly written copy
+const writeCopy = async (target, content) => {
+  const tmpPath = `${target}.${process.pid}.tmp`;
+  try {
+    await fs.writeFile(tmpPath, content);
+    await fs.rename(tmpPath, target);
+  } catch (error) {
+    await fs.remove(tmpPath).catch(() => {});
+    throw error;
+  }
+};
+
+const precompress = async (buildDir) => {
+  let count = 0;
+  if (!(await fs.pathExists(buildDir))) return count;
+  for (const file of await walk(buildDir)) {
+    if (!COMPRESSIBLE.has(path.extname(file).toLowerCase())) continue;
+    const stats = await fs.stat(file);
+    if (stats.size < MIN_SIZE) continue;
+    if (await isFresh(`${file}.br`, stats.mtimeMs) && await isFresh(`${file}.gz`, stats.mtimeMs)) continue;
+    const content = await fs.readFile(file);
+
+    // Build output is compressed once, so both use their best (slowest) setting
+    const [br, gz] = await Promise.all([
+      brotli(content, {
+        params: {
+          [zlib.constants.BROTLI_PARAM_QUALITY]: zlib.constants.BROTLI_MAX_QUALITY,
+          [zlib.constants.BROTLI_PARAM_SIZE_HINT]: content.length
+        }
+      }),
+      gzip(content, { level: zlib.constants.Z_BEST_COMPRESSION })
+    ]);
+    // A copy that is not smaller would only cost bytes and a lookup
+    if (br.length < content.length) await writeCopy(`${file}.br`, br);
+    if (gz.length < content.length) await writeCopy(`${file}.gz`, gz);
+    count++;
+  }
+  return count;
+};
+
+if (require.main === module) {
+  const buildDir = path.resolve(process.argv[2] || path.join(__dirname, '../../frontend/build'));
+  precompress(buildDir)
+    .then(count => console.log(`Precompressed ${count} files in ${buildDir}`))
+    .catch((error) => {
+      console.error('Precompression failed:', error.message);
+      process.exit(1);
+    });
+}
+
+module.exports = { precompress };
@@ -1,13 +1,49 @@
 const express = require('express');
 const cors = require('cors');
+const compression = require('compression');
+const zlib = require('zlib');
 const multer = require('multer');
 const path = require('path');
+const crypto = require('crypto');
 const fs = require('fs-extra');
-const axios = require('axios');
-const XLSX = require('xlsx');
 const mongoose = require('mongoose');
+const { pipeline } = require('stream');
+// Load environment variables before the services below read their configuration
 require ('dotenv').config ({path: '../.env'});
 require('dotenv').config();
+const logger = require('./utils/logger');
+const generationJobs = require('./services/generationJobs');
+const { splitGeneratedContent, GeneratedFileSplitter } = require('./services/generatedOutput');
+const generationCache = require('./services/generationCache');
+const { estimateTokens, shardScenarios } = require('./services/scenarioSharding');
+const { mapWithConcurrency } = require('./utils/concurrency');
+const deploymentPool = require('./services/deploymentPool');
+const { azureClient, getHttpClientStats } = require('./services/httpClients');
+const {
+  normalizeBaseUrl,
+  testrailGet,
+  getTestrailCase,
+  extractCaseFields,
+  parseTestrailData,
+  streamTestrailCases,
+  combineTestrailCases,
+  invalidTestrailIdField,
+  invalidTestrailIdMessage,
+  requireTestrailId
+} = require('./services/testrail');
+const testrailCaseCache = require('./services/testrailCaseCache');
+const workbookCache = require('./services/workbookCache');
+const pipelinePool = require('./services/workerPool');
+const artifactIndex = require('./services/artifactIndex');
+const latestArtifacts = require('./services/latestArtifacts');
+const ArtifactStore = require('./services/artifactStore');
+const RetentionService = require('./services/retention');
+const UploadStore = require('./services/uploadStore');
+const userCache = require('./services/userCache');
+const passwordHasher = require('./services/passwordHasher');
+const staticAssets = require('./middleware/staticAssets');
+const { selectByteRange, UNSATISFIABLE } = require('./utils/byteRange');
+const metrics = require('./services/metrics');
 
 const app = express();
 const PORT = process.env.PORT || 3001;
@@ -35,6 +71,22 @@ app.use(cors({
   origin: "https://restasuredscriptgenerator.onrender.com" || 'http://localhost:3000',
   credentials: true
 }));
+// Compress responses (brotli when accepted, otherwise gzip), chiefly the large JSON of
+// /api/generate-script. Responses that are already encoded, such as gzip-stored downloads and
+// precompressed frontend files, pass through unchanged.
+app.use(compression({
+  threshold: parseInt(process.env.COMPRESSION_THRESHOLD_BYTES, 10) || 1024,
+  level: parseInt(process.env.COMPRESSION_GZIP_LEVEL, 10) || 6,
+  // Quality 11 costs far more CPU than it saves on the wire for per-request compression
+  brotli: { params: { [zlib.constants.BROTLI_PARAM_QUALITY]: parseInt(process.env.COMPRESSION_BROTLI_QUALITY, 10) || 4 } },
+  filter: (req, res) => {
+    // Event streams must reach the client as each event is written
+    if (String(res.getHeader('Content-Type') || '').startsWith('text/event-stream')) return false;
+    // Byte ranges refer to the unencoded body
+    if (res.getHeader('Content-Range')) return false;
+    return compression.filter(req, res);
+  }
+}));
 app.use(express.json());
 app.use(express.urlencoded({ extended: true }));
 
@@ -43,33 +95,46 @@ app.use('/api/auth', require('./routes/auth'));
 
 // Import authentication middleware
 const { auth, optionalAuth } = require('./middleware/auth');
-app.use(express.static(path.join(__dirname, '../frontend/build')));
-app.get('*', (req, res) => {
-  res.sendFile(path.join(__dirname, '../frontend', 'build', 'index.html'));
-});
 
 // Create uploads and output directories
 const uploadsDir = path.join(__dirname, 'uploads');
 const outputDir = path.join(__dirname, 'output');
 fs.ensureDirSync(uploadsDir);
 fs.ensureDirSync(outputDir);
-
-// Multer configuration for file uploads
-const storage = multer.diskStorage({
-  destination: (req, file, cb) => {
-    cb(null, uploadsDir);
-  },
-  filename: (req, file, cb) => {
-    const timestamp = new Date().toISOString().replace(/:/g, '-');
-    cb(null, `${timestamp}-${file.originalname}`);
+const artifactStore = new ArtifactStore(outputDir);
+const uploadStore = new UploadStore(uploadsDir);
+
+// Compress files stored by older versions and index files written while the server was down or
+// before the artifact index existed.
+// Without a persisted pointer file the latest-artifact pointers are rebuilt from the index.
+const hasLatestPointers = latestArtifacts.load(outputDir) > 0;
+const retention = new RetentionService({
+  store: artifactStore,
+  uploads: uploadStore,
+  index: artifactIndex,
+  latest: latestArtifacts,
+  jobs: generationJobs
+});
+mongoose.connection.once('open', async () => {
+  try {
+    await artifactStore.compressLegacyFiles();
+    await artifactIndex.reconcile(artifactStore);
+    if (!hasLatestPointers) {
+      (await artifactIndex.latestByOwnerAndType()).forEach(artifact => latestArtifacts.record(artifact));
+    }
+  } catch (error) {
+    logger.error('Artifact index reconcile failed', error);
   }
+  // Retention works from the index, so it starts once the index is complete
+  retention.start();
 });
 
+// Multer configuration for file uploads; files are stored once per content hash
+const allowedUploadTypes = /\.(xlsx|xls|java)$/i;
 const upload = multer({ 
-  storage: storage,
+  storage: uploadStore.storage(),
   fileFilter: (req, file, cb) => {
-    const allowedTypes = /\.(xlsx|xls|java)$/i;
-    if (allowedTypes.test(file.originalname)) {
+    if (allowedUploadTypes.test(file.originalname)) {
       cb(null, true);
     } else {
       cb(new Error('Invalid file type. Only Excel and Java files are allowed.'));
@@ -77,30 +142,18 @@ const upload = multer({
   }
 });
 
-// Enhanced logging utility (inspired by Streamlit version)
-const logger = {
-  info: (message, data = null) => {
-    const timestamp = new Date().toISOString();
-    console.log(`[${timestamp}] INFO: ${message}`);
-    if (data) console.log('Data:', JSON.stringify(data, null, 2));
-  },
-  error: (message, error = null) => {
-    const timestamp = new Date().toISOString();
-    console.error(`[${timestamp}] ERROR: ${message}`);
-    if (error) {
-      console.error('Error details:', error.message);
-      if (error.stack) console.error('Stack:', error.stack);
+// Validation utility for environment variables
+const validateEnvironmentConfig = () => {
+  // A deployment pool replaces the single endpoint variables
+  if (process.env.AZURE_OPENAI_DEPLOYMENTS) {
+    if (deploymentPool.size === 0) {
+      logger.error('AZURE_OPENAI_DEPLOYMENTS is set but no valid deployment could be loaded');
+      return { valid: false, missingVars: ['AZURE_OPENAI_DEPLOYMENTS'] };
     }
-  },
-  warn: (message, data = null) => {
-    const timestamp = new Date().toISOString();
-    console.warn(`[${timestamp}] WARN: ${message}`);
-    if (data) console.warn('Data:', JSON.stringify(data, null, 2));
+    logger.info(`Environment configuration validation passed (${deploymentPool.size} Azure OpenAI deployments)`);
+    return { valid: true, missingVars: [] };
   }
-};
 
-// Validation utility for environment variables
-const validateEnvironmentConfig = () => {
   const requiredVars = [
     'AZURE_OPENAI_ENDPOINT',
     'OPENAI_MODEL',
@@ -120,37 +173,23 @@ const validateEnvironmentConfig = () => {
 };
 
 // Utility functions
-const testTestrailConnection = async (username, apikey, testCaseId, testrailBaseUrl) => {
+// Checks the credentials against one case, or against the project for bulk ingestion
+const testTestrailConnection = async (username, apikey, testCaseId, testrailBaseUrl, projectId) => {
   try {
-    // Validate and normalize the URL
-    if (!testrailBaseUrl) {
-      throw new Error('TestRail base URL is required');
-    }
-    
-    // Ensure the URL doesn't end with a slash
-    const normalizedUrl = testrailBaseUrl.replace(/\/+$/, '');
-    
-    // Validate URL format
-    try {
-      new URL(normalizedUrl);
-    } catch (urlError) {
-      throw new Error(`Invalid TestRail URL format: ${normalizedUrl}`);
-    }
+    const normalizedUrl = normalizeBaseUrl(testrailBaseUrl);
 
     console.log('Testing TestRail connection:', {
       url: normalizedUrl,
       username,
-      testCaseId
+      testCaseId,
+      projectId
     });
 
-    const response = await axios.get(
-      `${normalizedUrl}/index.php?/api/v2/get_case/${testCaseId}`,
-      {
-        auth: { username, password: apikey },
-        headers: { 'Content-Type': 'application/json' },
-        timeout: 10000
-      }
-    );
+    if (testCaseId) {
+      await getTestrailCase(normalizedUrl, testCaseId, { username, apikey });
+    } else {
+      await testrailGet(normalizedUrl, `get_project/${requireTestrailId(projectId, 'project ID')}`, { username, apikey });
+    }
     return { success: true, message: 'TestRail connection successful' };
   } catch (error) {
     console.error('TestRail connection error:', error);
@@ -158,8 +197,11 @@ const testTestrailConnection = async (username, apikey, testCaseId, testrailBase
       const status = error.response.status;
       if (status === 401) {
         return { success: false, message: 'TestRail authentication failed: Invalid username or API key' };
-      } else if (status === 404) {
-        return { success: false, message: `TestRail case ID ${testCaseId} not found` };
+      } else if (status === 404 || status === 400) {
+        return {
+          success: false,
+          message: testCaseId ? `TestRail case ID ${testCaseId} not found` : `TestRail project ID ${projectId} not found`
+        };
       } else {
         return { success: false, message: `TestRail HTTP error: ${status} - ${error.message}` };
       }
@@ -170,20 +212,7 @@ const testTestrailConnection = async (username, apikey, testCaseId, testrailBase
 
 const fetchTestrailCases = async (testCaseId, username, apikey, testrailBaseUrl) => {
   try {
-    // Validate and normalize the URL
-    if (!testrailBaseUrl) {
-      throw new Error('TestRail base URL is required');
-    }
-    
-    // Ensure the URL doesn't end with a slash
-    const normalizedUrl = testrailBaseUrl.replace(/\/+$/, '');
-    
-    // Validate URL format
-    try {
-      new URL(normalizedUrl);
-    } catch (urlError) {
-      throw new Error(`Invalid TestRail URL format: ${normalizedUrl}`);
-    }
+    const normalizedUrl = normalizeBaseUrl(testrailBaseUrl);
 
     console.log('Fetching TestRail case:', {
       url: normalizedUrl,
@@ -191,211 +220,107 @@ const fetchTestrailCases = async (testCaseId, username, apikey, testrailBaseUrl)
       testCaseId
     });
 
-    const response = await axios.get(
-      `${normalizedUrl}/index.php?/api/v2/get_case/${testCaseId}`,
-      {
-        auth: { username, password: apikey },
-        headers: { 'Content-Type': 'application/json' },
-        timeout: 10000
-      }
-    );
-
-    const data = response.data;
-    const customPreconds = data.custom_preconds || {};
-    const customStepsSeparated = data.custom_steps_separated || [];
-    const apiDetails = {
-      "Request Type": data.custom_case_api_request_type || "GET",
-      "Request Url": data.custom_case_request_url || "",
-      "Headers": data.custom_case_api_headers || {},
-      "Body": data.custom_case_api_request_body || ""
-    };
-
-    return { customPreconds, customStepsSeparated, apiDetails };
+    const data = await getTestrailCase(normalizedUrl, testCaseId, { username, apikey });
+    return extractCaseFields(data);
   } catch (error) {
     throw new Error(`Failed to fetch TestRail case: ${error.message}`);
   }
 };
 
-const parseTestrailData = (customPreconds, customStepsSeparated, apiDetails) => {
-  let preconds = customPreconds;
-  let steps = customStepsSeparated;
+// Completions above this size are split on the worker pool; the line-by-line fallback
+// splitter is slow on long outputs
+const WORKER_SPLIT_MIN_CHARS = 32 * 1024;
 
-  if (typeof preconds === 'string') {
-    try {
-      preconds = JSON.parse(preconds) || {};
-    } catch (e) {
-      preconds = {};
-    }
-  }
+const splitOffLoop = (content) => {
+  if (content.length < WORKER_SPLIT_MIN_CHARS) return splitGeneratedContent(content);
+  const bytes = new TextEncoder().encode(content);
+  return pipelinePool.run('splitGeneratedContent', { content: bytes }, { transferList: [bytes.buffer] });
+};
 
-  if (typeof steps === 'string') {
-    try {
-      steps = JSON.parse(steps) || [];
-    } catch (e) {
-      steps = [];
+// Read an Azure OpenAI chat/completions event stream, calling onContent for every content delta.
+// Resolves with the full completion text once the stream has finished.
+const readCompletionStream = (stream, onContent) => new Promise((resolve, reject) => {
+  let buffer = '';
+  let content = '';
+  let finished = false;
+
+  const handleLine = (line) => {
+    const trimmed = line.trim();
+    if (!trimmed.startsWith('data:')) return;
+
+    const data = trimmed.slice(5).trim();
+    if (data === '[DONE]') {
+      finished = true;
+      return;
     }
-  }
 
-  if (typeof apiDetails.Headers === 'string') {
-    try {
-      apiDetails.Headers = JSON.parse(apiDetails.Headers) || {};
-    } catch (e) {
-      apiDetails.Headers = { "Content-Type": "application/json" };
+    const chunk = JSON.parse(data);
+    // Only sent by deployments that include usage in streamed responses
+    if (chunk.usage) metrics.recordTokenUsage(chunk.usage);
+    const delta = chunk.choices && chunk.choices[0] && chunk.choices[0].delta;
+    if (delta && delta.content) {
+      content += delta.content;
+      onContent(delta.content);
     }
-  }
-
-  const scenarios = steps.map((step, i) => ({
-    "Test Name": step.title || `Test_${i + 1}`,
-    "Steps": step.content || "No steps provided",
-    "Expected Result": step.expected || "No expected result"
-  }));
-
-  if (scenarios.length === 0) {
-    scenarios.push({
-      "Test Name": "Default Test",
-      "Steps": "Send request",
-      "Expected Result": "200 OK"
-    });
-  }
-
-  return { apiDetails, scenarios };
-};
+  };
 
-const parseExcel = (filePath) => {
-  try {
-    const workbook = XLSX.readFile(filePath);
-    
-    if (!workbook.SheetNames.includes('API_detail') || !workbook.SheetNames.includes('Test_scenarios')) {
-      throw new Error("Excel file missing required sheets: 'API_detail' and 'Test_scenarios'");
+  stream.on('data', (data) => {
+    buffer += data.toString('utf8');
+    const lines = buffer.split('\n');
+    buffer = lines.pop();
+    try {
+      lines.forEach(handleLine);
+    } catch (error) {
+      stream.destroy(error);
     }
-
-    const apiSheet = workbook.Sheets['API_detail'];
-    const apiData = XLSX.utils.sheet_to_json(apiSheet, { header: 1 });
-    
-    console.log('DEBUG: Raw Excel data from API_detail sheet:');
-    apiData.forEach((row, index) => {
-      if (index < 20) { // Log first 20 rows for debugging
-        console.log(`Row ${index}:`, row);
-      }
-    });
-    
-    const apiDetails = {
-      'Request Type': 'GET',
-      'Request Url': 'https://api.example.com',
-      'Headers': {},
-      'Body': null
-    };
-
-    // More flexible parsing logic
-    for (let i = 0; i < apiData.length; i++) {
-      const row = apiData[i];
-      if (!row || row.length === 0) continue;
-      
-      const label = row[0] ? row[0].toString().toLowerCase().trim() : '';
-      const value = row[1];
-      
-      console.log(`Processing row ${i}: label="${label}", value="${value}"`);
-      
-      // Parse different fields based on row labels
-      if (label.includes('request type') || label.includes('method') || label.includes('http method')) {
-        apiDetails['Request Type'] = value || 'GET';
-        console.log('Set Request Type:', apiDetails['Request Type']);
-      }
-      else if (label.includes('request url') || label.includes('url') || label.includes('endpoint')) {
-        apiDetails['Request Url'] = value || 'https://api.example.com';
-        console.log('Set Request Url:', apiDetails['Request Url']);
-      }
-      else if (label.includes('header') && value) {
-        // Header row format: "Header" | "HeaderName" | "HeaderValue"
-        const headerName = value;
-        const headerValue = row[2];
-        if (headerName && headerValue) {
-          apiDetails.Headers[headerName] = headerValue;
-          console.log(`Added header: ${headerName} = ${headerValue}`);
-        }
-      }
-      else if (label.includes('body') || label.includes('request body') || label.includes('payload')) {
-        apiDetails.Body = value || null;
-        console.log('Set Body:', apiDetails.Body);
-      }
-      // Also try to parse JSON body from multiple formats
-      else if (label.includes('json') || label.includes('data')) {
-        if (value && !apiDetails.Body) {
-          apiDetails.Body = value;
-          console.log('Set Body from JSON/data field:', apiDetails.Body);
-        }
-      }
+  });
+  stream.on('end', () => {
+    try {
+      if (buffer) handleLine(buffer);
+    } catch (error) {
+      return reject(error);
     }
-    
-    // Fallback parsing for older Excel format
-    if (!apiDetails.Body && apiData.length >= 3) {
-      // Try the old parsing logic as fallback
-      let headerRow = 2;
-      while (headerRow < apiData.length && apiData[headerRow] && apiData[headerRow][1]) {
-        const headerName = apiData[headerRow][1];
-        const headerValue = apiData[headerRow][2];
-        if (headerName && headerValue && !apiDetails.Headers[headerName]) {
-          apiDetails.Headers[headerName] = headerValue;
-        }
-        headerRow++;
-      }
-      
-      // Try to find body after headers
-      if (headerRow < apiData.length && apiData[headerRow] && apiData[headerRow][1]) {
-        apiDetails.Body = apiData[headerRow][1];
-        console.log('Set Body from fallback logic:', apiDetails.Body);
-      }
+    if (!finished) {
+      console.warn('Azure OpenAI stream ended without [DONE] marker');
     }
+    resolve(content);
+  });
+  stream.on('error', reject);
+});
 
-    console.log('DEBUG: Final API Details:', JSON.stringify(apiDetails, null, 2));
-    
-    // Add a sample body if none was found for testing
-    if (!apiDetails.Body) {
-      apiDetails.Body = '{"message": "Sample request body", "timestamp": "2025-01-01T00:00:00Z"}';
-      console.log('DEBUG: Added sample body since none was found');
-    }
+// Bump whenever the prompt below changes so cached generations from the old prompt are not reused
+const GENERATION_PROMPT_VERSION = 2;
 
-    const scenarioSheet = workbook.Sheets['Test_scenarios'];
-    const scenarioData = XLSX.utils.sheet_to_json(scenarioSheet, { header: 1 });
-    
-    const scenarios = scenarioData.slice(1).filter(row => row[0]).map(row => ({
-      'Test Name': row[0],
-      'Steps': row[1] || 'No steps provided',
-      'Expected Result': row[2] || 'No expected result'
-    }));
-
-    if (scenarios.length === 0) {
-      scenarios.push({
-        "Test Name": "Default Test",
-        "Steps": "Send GET request",
-        "Expected Result": "200 OK"
-      });
-    }
+// Send condensed template skeletons instead of the full templates unless disabled
+const TEMPLATE_SKELETON_ENABLED = process.env.TEMPLATE_SKELETON !== 'false';
 
-    return { apiDetails, scenarios };
-  } catch (error) {
-    throw new Error(`Failed to parse Excel file: ${error.message}`);
-  }
+// Sampling parameters for the generation completion; part of the generation cache key
+const COMPLETION_PARAMETERS = {
+  temperature: 0,
+  max_tokens: 4000, // Increased for comprehensive output
+  top_p: 1,
+  frequency_penalty: 0,
+  presence_penalty: 0
 };
 
-const generateRestAssuredTest = async (apiDetails, scenarios, methodFileContent, testFileContent) => {
+// Number of shard completions requested at the same time in sharded mode
+const SHARD_CONCURRENCY = parseInt(process.env.GENERATION_SHARD_CONCURRENCY, 10) || 4;
+
+// Single completion for a set of scenarios. options.stream switches to a token-streamed completion;
+// options.onPartial(section, delta) then receives the method/test file contents while they are being generated.
+const requestGeneration = async (apiDetails, scenarios, methodFileContent, testFileContent, options = {}) => {
+  const { stream = false, onPartial = null, templatesCondensed = false } = options;
+
   try {
     console.log('Starting test script generation...');
     console.log('API Details:', JSON.stringify(apiDetails, null, 2));
     console.log('Scenarios count:', scenarios.length);
 
     // Use axios for Azure OpenAI API calls (more reliable than OpenAI SDK for Azure)
-    const azureEndpoint = process.env.AZURE_OPENAI_ENDPOINT;
-    const deploymentName = process.env.OPENAI_MODEL;
-    const apiVersion = process.env.OPENAI_API_VERSION;
-    const apiKey = process.env.OPENAI_API_KEY;
-
-    if (!azureEndpoint || !deploymentName || !apiVersion || !apiKey) {
+    if (deploymentPool.size === 0) {
       throw new Error('Missing required Azure OpenAI configuration');
     }
 
-    const url = `${azureEndpoint}/openai/deployments/${deploymentName}/chat/completions?api-version=${apiVersion}`;
-
     // Enhanced prompt engineering based on Streamlit version
     console.log('Generating comprehensive Rest Assured test script...');
     
@@ -406,7 +331,9 @@ const generateRestAssuredTest = async (apiDetails, scenarios, methodFileContent,
         content: `You are a Java and Rest Assured expert. Generate valid and concise Rest Assured test scripts strictly following the conventions and patterns outlined in these files:
 1. Methods: ${methodFileContent}
 2. Tests: ${testFileContent}
-
+${templatesCondensed ? `
+The files above are condensed: a "// ... N more similar lines" comment stands for more lines written like the ones before it, and a "{ /* same body pattern as X */ }" body means the method is written like method X. Do not copy these markers into the output.
+` : ''}
 Use the following API details and scenarios to create the script:
 - API Details: ${JSON.stringify(apiDetails)}
 - Scenarios: ${JSON.stringify(scenarios)}
@@ -439,77 +366,77 @@ Generate REST Assured methods and tests separately. Include all scenarios in one
       - Method name should have some meaning related to the test scenario.`
     });
 
-    const response = await axios.post(url, {
+    const requestBody = {
       messages: contextMessages,
-      temperature: 0,
-      max_tokens: 4000, // Increased for comprehensive output
-      top_p: 1,
-      frequency_penalty: 0,
-      presence_penalty: 0
-    }, {
+      ...COMPLETION_PARAMETERS
+    };
+    const requestConfig = (deployment) => ({
       headers: {
         'Content-Type': 'application/json',
-        'api-key': apiKey
+        'api-key': deployment.apiKey
       },
       timeout: 60000
     });
 
-    if (!response.data || !response.data.choices || !response.data.choices[0]) {
-      throw new Error('Invalid response from Azure OpenAI API');
-    }
-
-    const generatedContent = response.data.choices[0].message.content;
-
-    if (!generatedContent) {
-      throw new Error('Empty or invalid response from Azure OpenAI');
-    }
-
-    // Parse the response to separate method and test files
-    let generatedMethodFile = '';
-    let generatedTestFile = '';
-
-    // Look for the structured format markers
-    const methodMarker = '=== METHOD FILE ===';
-    const testMarker = '=== TEST FILE ===';
+    // Reserve prompt plus the maximum completion against the shared tokens-per-minute budget
+    const estimatedTokens = estimateTokens(JSON.stringify(contextMessages)) + COMPLETION_PARAMETERS.max_tokens;
+    let generatedContent;
+
+    if (stream) {
+      // The scheduler slot is held until the stream has been read completely
+      generatedContent = await deploymentPool.execute(async (deployment) => {
+        const endStream = metrics.streamTimer('azure-openai');
+        let response;
+        try {
+          response = await azureClient.post(deployment.url, { ...requestBody, stream: true }, {
+            ...requestConfig(deployment),
+            responseType: 'stream'
+          });
+        } catch (requestError) {
+          endStream('error');
+          throw requestError;
+        }
 
-    if (generatedContent.includes(methodMarker) && generatedContent.includes(testMarker)) {
-      // Parse structured response
-      const methodStart = generatedContent.indexOf(methodMarker) + methodMarker.length;
-      const testStart = generatedContent.indexOf(testMarker);
-      const testContentStart = testStart + testMarker.length;
+        const splitter = new GeneratedFileSplitter();
+        let forwarded = false;
+        const forward = (parts) => {
+          if (!onPartial) return;
+          parts.forEach(part => onPartial(part.section, part.delta));
+          forwarded = forwarded || parts.length > 0;
+        };
 
-      generatedMethodFile = generatedContent.substring(methodStart, testStart).trim();
-      generatedTestFile = generatedContent.substring(testContentStart).trim();
-    } else {
-      // Fallback: try to split by common Java patterns
-      const lines = generatedContent.split('\n');
-      let currentSection = 'method';
-      let methodLines = [];
-      let testLines = [];
-
-      for (const line of lines) {
-        if (line.includes('@Test') || line.includes('public class') && line.includes('Test')) {
-          currentSection = 'test';
-        }
-        
-        if (currentSection === 'method') {
-          methodLines.push(line);
-        } else {
-          testLines.push(line);
+        try {
+          const content = await readCompletionStream(response.data, (delta) => forward(splitter.push(delta)));
+          endStream('success');
+          forward(splitter.flush());
+          return content;
+        } catch (streamError) {
+          endStream('error');
+          // Partial output already reached the client, so retrying elsewhere would duplicate it
+          if (forwarded) streamError.nonRetryable = true;
+          throw streamError;
         }
+      }, { estimatedTokens });
+    } else {
+      const response = await deploymentPool.execute(
+        (deployment) => azureClient.post(deployment.url, requestBody, requestConfig(deployment)),
+        { estimatedTokens }
+      );
+
+      if (!response.data || !response.data.choices || !response.data.choices[0]) {
+        throw new Error('Invalid response from Azure OpenAI API');
       }
 
-      generatedMethodFile = methodLines.join('\n').trim();
-      generatedTestFile = testLines.join('\n').trim();
+      generatedContent = response.data.choices[0].message.content;
+    }
 
-      // If we couldn't split properly, use the original approach
-      if (!generatedMethodFile || !generatedTestFile) {
-        console.warn('Could not parse structured response, using single file approach');
-        generatedMethodFile = generatedContent;
-        generatedTestFile = generatedContent;
-      }
+    if (!generatedContent) {
+      throw new Error('Empty or invalid response from Azure OpenAI');
     }
 
+    // Parse the response to separate method and test files
+    const { methodFile: generatedMethodFile, testFile: generatedTestFile } = await splitOffLoop(generatedContent);
+
     // Validate generated content
     if (!generatedMethodFile.trim() || !generatedTestFile.trim()) {
       throw new Error('Generated method or test file is empty');
@@ -527,50 +454,95 @@ Generate REST Assured methods and tests separately. Include all scenarios in one
     console.error('Error in generateRestAssuredTest:', error.message);
     if (error.response) {
       console.error('API Response Status:', error.response.status);
-      console.error('API Response Data:', JSON.stringify(error.response.data, null, 2));
+      // Streamed requests carry the error body as a stream, which cannot be serialized
+      if (error.response.data && typeof error.response.data.pipe !== 'function') {
+        console.error('API Response Data:', JSON.stringify(error.response.data, null, 2));
+      }
     }
     throw new Error(`Failed to generate test script: ${error.message}`);
   }
 };
 
+// Generate the method and test files. With options.sharded the scenarios are split into groups
+// sized by estimated output tokens, generated concurrently and merged into one method class and
+// one test class. Sharded generation does not forward partial output.
+const generateRestAssuredTest = async (apiDetails, scenarios, methodFileContent, testFileContent, options = {}) => {
+  const { sharded = false, shardConcurrency = SHARD_CONCURRENCY, onProgress = () => {}, ...completionOptions } = options;
+
+  const shards = sharded
+    ? shardScenarios(scenarios, { maxOutputTokens: COMPLETION_PARAMETERS.max_tokens })
+    : [scenarios];
+
+  if (shards.length <= 1) {
+    return requestGeneration(apiDetails, scenarios, methodFileContent, testFileContent, completionOptions);
+  }
+
+  console.log(`Generating ${scenarios.length} scenarios in ${shards.length} shards (concurrency ${shardConcurrency})`);
+  let completedShards = 0;
+  const outputs = await mapWithConcurrency(shards, shardConcurrency, async (group, index) => {
+    const output = await requestGeneration(apiDetails, group, methodFileContent, testFileContent, {
+      templatesCondensed: completionOptions.templatesCondensed
+    });
+    completedShards++;
+    onProgress(`Generated shard ${completedShards} of ${shards.length}`, {
+      shard: index + 1,
+      shards: shards.length,
+      scenariosCount: group.length
+    });
+    return output;
+  });
+
+  try {
+    return await pipelinePool.run('mergeShardOutputs', { outputs });
+  } catch (error) {
+    throw new Error(`Failed to generate test script: ${error.message}`);
+  }
+};
+
 // Utility function to get timestamped filename (from Streamlit version)
 const getTimestampedFilename = (prefix = 'Generated', suffix = '.java') => {
   const timestamp = new Date().toISOString().replace(/:/g, '-').replace(/\./g, '-');
   return `${prefix}_${timestamp}${suffix}`;
 };
 
-// Enhanced utility function to save generated files with better organization
-const saveGeneratedFiles = async (methodFile, testFile, outputDir) => {
+// Enhanced utility function to save generated files with better organization.
+// The combined file is not written; downloads assemble it from the method and test files.
+const saveGeneratedFiles = async (methodFile, testFile, store, owner = null) => {
   try {
     const timestamp = new Date().toISOString().replace(/:/g, '-').replace(/\./g, '-');
     const methodFilename = `GeneratedMethods_${timestamp}.java`;
     const testFilename = `GeneratedTests_${timestamp}.java`;
     const combinedFilename = `GeneratedCombined_${timestamp}.java`;
     
-    const methodOutputPath = path.join(outputDir, methodFilename);
-    const testOutputPath = path.join(outputDir, testFilename);
-    const combinedOutputPath = path.join(outputDir, combinedFilename);
-    
     // Save individual files
-    await fs.writeFile(methodOutputPath, methodFile, 'utf8');
-    await fs.writeFile(testOutputPath, testFile, 'utf8');
+    await store.write(methodFilename, methodFile);
+    await store.write(testFilename, testFile);
     
-    // Save combined file for convenience
-    const combinedContent = `// ======= METHOD FILE =======\n${methodFile}\n\n// ======= TEST FILE =======\n${testFile}`;
-    await fs.writeFile(combinedOutputPath, combinedContent, 'utf8');
+    // Listing reads the index only, so a failure here must not fail the generation
+    const createdAt = new Date();
+    const methodSize = Buffer.byteLength(methodFile, 'utf8');
+    const testSize = Buffer.byteLength(testFile, 'utf8');
+    await Promise.all([
+      [methodFilename, methodSize],
+      [testFilename, testSize],
+      [combinedFilename, store.combinedSize(methodSize, testSize)]
+    ].map(([filename, size]) =>
+      artifactIndex.record({ filename, owner, size, createdAt })
+    )).catch(error => logger.error('Failed to index generated files', error));
+    latestArtifacts.record({ owner, type: 'method', filename: methodFilename, createdAt });
+    latestArtifacts.record({ owner, type: 'test', filename: testFilename, createdAt });
+    latestArtifacts.record({ owner, type: 'combined', filename: combinedFilename, createdAt });
     
     console.log('Files saved successfully:');
-    console.log('- Method file:', methodOutputPath);
-    console.log('- Test file:', testOutputPath);
-    console.log('- Combined file:', combinedOutputPath);
+    console.log('- Method file:', store.resolve(methodFilename));
+    console.log('- Test file:', store.resolve(testFilename));
     
     return {
       methodFilename,
       testFilename,
       combinedFilename,
-      methodOutputPath,
-      testOutputPath,
-      combinedOutputPath
+      methodOutputPath: store.resolve(methodFilename),
+      testOutputPath: store.resolve(testFilename)
     };
   } catch (error) {
     console.error('Error saving files:', error.message);
@@ -609,10 +581,18 @@ const validateGenerateScriptRequest = (req, res, next) => {
   
   // Validate TestRail configuration
   if (dataSource === 'testrail') {
-    if (!testrailConfig || !testrailConfig.username || !testrailConfig.apikey || !testrailConfig.testCaseId) {
+    if (!testrailConfig || !testrailConfig.username || !testrailConfig.apikey ||
+        (!testrailConfig.testCaseId && !testrailConfig.projectId)) {
+      return res.status(400).json({
+        success: false,
+        message: 'TestRail configuration (username, apikey and testCaseId or projectId) is required when using TestRail data source'
+      });
+    }
+    const invalidField = invalidTestrailIdField(testrailConfig);
+    if (invalidField) {
       return res.status(400).json({
         success: false,
-        message: 'TestRail configuration (username, apikey, testCaseId) is required when using TestRail data source'
+        message: invalidTestrailIdMessage(invalidField)
       });
     }
   }
@@ -626,10 +606,55 @@ app.get('/api/health', (req, res) => {
   res.json({ status: 'OK', message: 'Server is running' });
 });
 
+// Compare two secrets in constant time; hashing first gives both the same length
+const secretsMatch = (given, expected) => crypto.timingSafeEqual(
+  crypto.createHash('sha256').update(String(given)).digest(),
+  crypto.createHash('sha256').update(String(expected)).digest()
+);
+
+// Prometheus metrics of all server processes. Scrapers send METRICS_TOKEN as a bearer token;
+// without METRICS_TOKEN the endpoint is disabled.
+app.get('/metrics', async (req, res) => {
+  if (!process.env.METRICS_TOKEN) {
+    return res.status(404).json({ success: false, message: 'Metrics are disabled; set METRICS_TOKEN to enable them' });
+  }
+  if (!secretsMatch(req.header('Authorization') || '', `Bearer ${process.env.METRICS_TOKEN}`)) {
+    return res.status(401).json({ success: false, message: 'Invalid metrics token' });
+  }
+  try {
+    res.setHeader('Content-Type', 'text/plain; version=0.0.4; charset=utf-8');
+    res.setHeader('Cache-Control', 'no-store');
+    res.send(await metrics.renderMetrics());
+  } catch (error) {
+    logger.error('Metrics error', error);
+    res.status(500).json({ success: false, message: error.message });
+  }
+});
+
+// Connection reuse and deployment health of the upstream clients
+app.get('/api/upstream-stats', auth, (req, res) => {
+  res.json({
+    httpClients: getHttpClientStats(),
+    testrailCaseCache: testrailCaseCache.getStats(),
+    workbookCache: workbookCache.getStats(),
+    workerPool: pipelinePool.getStats(),
+    azureDeployments: deploymentPool.getStats(),
+    retention: retention.getStats(),
+    uploads: uploadStore.getStats(),
+    userCache: userCache.getStats(),
+    passwordHasher: passwordHasher.getStats(),
+    generationJobs: generationJobs.getStats()
+  });
+});
+
 app.post('/api/test-testrail-connection', async (req, res) => {
   try {
-    const { username, apikey, testCaseId, testrailBaseUrl } = req.body;
-    const result = await testTestrailConnection(username, apikey, testCaseId, testrailBaseUrl);
+    const { username, apikey, testCaseId, testrailBaseUrl, projectId } = req.body;
+    const invalidField = invalidTestrailIdField({ testCaseId, projectId });
+    if (invalidField) {
+      return res.status(400).json({ success: false, message: invalidTestrailIdMessage(invalidField) });
+    }
+    const result = await testTestrailConnection(username, apikey, testCaseId, testrailBaseUrl, projectId);
     res.json(result);
   } catch (error) {
     res.status(500).json({ success: false, message: error.message });
@@ -638,20 +663,15 @@ app.post('/api/test-testrail-connection', async (req, res) => {
 
 app.post('/api/test-azure-openai', async (req, res) => {
   try {
-    const endpoint = process.env.AZURE_OPENAI_ENDPOINT;
-    const apiKey = process.env.OPENAI_API_KEY;
-    const deployment = process.env.OPENAI_MODEL;
-    const apiVersion = process.env.OPENAI_API_VERSION;
-
-    if (!endpoint || !apiKey || !deployment || !apiVersion) {
+    if (deploymentPool.size === 0) {
       return res.status(500).json({ 
         success: false, 
         message: 'Azure OpenAI configuration is missing. Please check environment variables.',
         missingVars: {
-          endpoint: !endpoint,
-          apiKey: !apiKey,
-          deployment: !deployment,
-          apiVersion: !apiVersion
+          endpoint: !process.env.AZURE_OPENAI_ENDPOINT,
+          apiKey: !process.env.OPENAI_API_KEY,
+          deployment: !process.env.OPENAI_MODEL,
+          apiVersion: !process.env.OPENAI_API_VERSION
         }
       });
     }
@@ -675,17 +695,22 @@ app.post('/api/test-azure-openai', async (req, res) => {
       presence_penalty: 0
     };
 
-    const response = await axios.post(
-      `${endpoint}/openai/deployments/${deployment}/chat/completions?api-version=${apiVersion}`,
-      testPrompt,
-      {
-        headers: {
-          'Content-Type': 'application/json',
-          'api-key': apiKey
-        },
-        timeout: 30000 // 30 seconds timeout
-      }
-    );
+    // Goes through the deployment pool, but reports throttling right away instead of retrying
+    let usedDeployment;
+    const response = await deploymentPool.execute((deployment) => {
+      usedDeployment = deployment;
+      return azureClient.post(
+        deployment.url,
+        testPrompt,
+        {
+          headers: {
+            'Content-Type': 'application/json',
+            'api-key': deployment.apiKey
+          },
+          timeout: 30000 // 30 seconds timeout
+        }
+      );
+    }, { estimatedTokens: 150, maxRetries: 0 });
 
     const aiResponse = response.data.choices[0].message.content.trim();
     
@@ -694,9 +719,11 @@ app.post('/api/test-azure-openai', async (req, res) => {
       message: 'Azure OpenAI connection test successful!',
       response: aiResponse,
       config: {
-        endpoint: endpoint.replace(/https?:\/\//, '').split('.')[0] + '.***', // Partially hide endpoint for security
-        deployment: deployment,
-        apiVersion: apiVersion,
+        endpoint: usedDeployment.endpoint.replace(/https?:\/\//, '').split('.')[0] + '.***', // Partially hide endpoint for security
+        deployment: usedDeployment.deployment,
+        deploymentName: usedDeployment.name,
+        apiVersion: usedDeployment.apiVersion,
+        poolSize: deploymentPool.size,
         timestamp: new Date().toISOString()
       },
       usage: response.data.usage || {}
@@ -740,14 +767,15 @@ app.post('/api/upload-files', auth, upload.fields([
   { name: 'excelFile', maxCount: 1 },
   { name: 'methodFile', maxCount: 1 },
   { name: 'testFile', maxCount: 1 }
-]), (req, res) => {
+]), async (req, res) => {
   try {
     const files = req.files;
     const uploadedFiles = {};
 
-    Object.keys(files).forEach(fieldname => {
-      uploadedFiles[fieldname] = files[fieldname][0].filename;
-    });
+    for (const fieldname of Object.keys(files)) {
+      const file = files[fieldname][0];
+      uploadedFiles[fieldname] = await uploadStore.link(file.hash, file.originalname, req.user._id, file.size);
+    }
 
     res.json({ success: true, files: uploadedFiles });
   } catch (error) {
@@ -755,23 +783,40 @@ app.post('/api/upload-files', auth, upload.fields([
   }
 });
 
-app.post('/api/preview-excel', upload.single('excelFile'), (req, res) => {
+// Reuse a file that is already stored, identified by the SHA-256 of its content, instead of
+// uploading it again. Responds with exists: false when the content is unknown.
+app.post('/api/uploads/link', auth, async (req, res) => {
+  try {
+    const { hash, originalName } = req.body;
+    if (typeof hash !== 'string' || !/^[0-9a-f]{64}$/.test(hash)) {
+      return res.status(400).json({ success: false, message: 'hash must be a hex SHA-256 digest' });
+    }
+    if (typeof originalName !== 'string' || !allowedUploadTypes.test(originalName)) {
+      return res.status(400).json({ success: false, message: 'Invalid file type. Only Excel and Java files are allowed.' });
+    }
+
+    const filename = await uploadStore.linkExisting(hash, originalName, req.user._id);
+    res.json({ success: true, exists: Boolean(filename), filename });
+  } catch (error) {
+    res.status(500).json({ success: false, message: error.message });
+  }
+});
+
+app.post('/api/preview-excel', optionalAuth, upload.single('excelFile'), async (req, res) => {
   try {
     let filePath;
     let fileName;
-    let shouldCleanup = false;
 
     if (req.file) {
-      // New file uploaded
+      // New file uploaded; the stored content may be shared, so it is left to retention
       filePath = req.file.path;
       fileName = req.file.originalname;
-      shouldCleanup = true;
     } else if (req.body.filename) {
-      // Use existing uploaded file
-      filePath = path.join(uploadsDir, req.body.filename);
+      // Use existing uploaded file; a handle must belong to the signed-in user
+      filePath = await uploadStore.resolveFor(req.body.filename, req.user && req.user._id);
       fileName = req.body.filename;
       
-      if (!fs.existsSync(filePath)) {
+      if (!filePath || !fs.existsSync(filePath)) {
         return res.status(404).json({ success: false, message: 'Uploaded Excel file not found' });
       }
     } else if (req.body.useDefault) {
@@ -793,10 +838,10 @@ app.post('/api/preview-excel', upload.single('excelFile'), (req, res) => {
       return res.status(400).json({ success: false, message: 'No Excel file provided' });
     }
 
-    const workbook = XLSX.readFile(filePath);
-    const sheetName = workbook.SheetNames[0];
-    const worksheet = workbook.Sheets[sheetName];
-    const jsonData = XLSX.utils.sheet_to_json(worksheet);
+    // Streams the first sheet and keeps only the rows shown in the preview
+    const { value: preview } = await workbookCache.get(filePath, 'preview', () =>
+      pipelinePool.run('previewExcel', { filePath, maxRows: 50 }));
+    const { sheetName, sheetCount, rows: jsonData, totalRows } = preview;
     
     // Get all available column headers for debugging
     const availableHeaders = jsonData.length > 0 ? Object.keys(jsonData[0]) : [];
@@ -824,19 +869,12 @@ app.post('/api/preview-excel', upload.single('excelFile'), (req, res) => {
       return testCase;
     });
     
-    // Clean up the temporary file if it was newly uploaded
-    if (shouldCleanup && req.file) {
-      fs.unlink(req.file.path, (err) => {
-        if (err) console.error('Error deleting temporary file:', err);
-      });
-    }
-    
     res.json({
       success: true,
-      testCases: testCases.slice(0, 50), // Limit to first 50 for preview
+      testCases: testCases, // Limited to the first 50 rows for preview
       summary: {
-        totalRows: jsonData.length,
-        sheets: workbook.SheetNames.length,
+        totalRows: totalRows,
+        sheets: sheetCount,
         fileName: fileName,
         availableHeaders: availableHeaders,
         sheetName: sheetName
@@ -862,6 +900,9 @@ app.post('/api/preview-testrail', async (req, res) => {
         message: 'Missing required TestRail configuration' 
       });
     }
+    if (invalidTestrailIdField({ testCaseId })) {
+      return res.status(400).json({ success: false, message: invalidTestrailIdMessage('testCaseId') });
+    }
 
     // Test connection first
     const connectionResult = await testTestrailConnection(username, apikey, testCaseId, testrailBaseUrl);
@@ -871,21 +912,8 @@ app.post('/api/preview-testrail', async (req, res) => {
     }
 
     // If connection successful, fetch test case details for preview
-    const normalizedUrl = testrailBaseUrl.replace(/\/$/, '');
-    const auth = Buffer.from(`${username}:${apikey}`).toString('base64');
-    
-    const testCaseResponse = await axios.get(
-      `${normalizedUrl}/index.php?/api/v2/get_case/${testCaseId}`,
-      {
-        headers: {
-          'Authorization': `Basic ${auth}`,
-          'Content-Type': 'application/json'
-        },
-        timeout: 10000
-      }
-    );
-
-    const testCase = testCaseResponse.data;
+    // Served from the case cache filled by the connection test above
+    const testCase = await getTestrailCase(testrailBaseUrl, testCaseId, { username, apikey });
     
     // Helper functions to get text values
     const getPriorityText = (priorityId) => {
@@ -1011,111 +1039,152 @@ app.post('/api/preview-testrail', async (req, res) => {
   }
 });
 
-app.post('/api/generate-script', auth, validateGenerateScriptRequest, async (req, res) => {
-  try {
-    logger.info('Generate script request received');
-    const { 
-      dataSource, 
-      files, 
-      testrailConfig,
-      useDefaultFiles 
-    } = req.body;
-
-    logger.info('Request data processed', { dataSource, useDefaultFiles, filesCount: Object.keys(files || {}).length });
-
-    let apiDetails, scenarios;
-    let methodFileContent, testFileContent;
-
-    // Validate required environment variables
-    const envValidation = validateEnvironmentConfig();
-    if (!envValidation.valid) {
-      throw new Error(`Missing Azure OpenAI configuration: ${envValidation.missingVars.join(', ')}`);
+// Full generation pipeline shared by the synchronous endpoint and background jobs.
+// reportProgress(stage, message, data) is called as each stage starts; with stream: true
+// reportPartial(section, delta) receives the generated files while they are being written.
+// owner is the ID of the user the saved files are indexed under.
+const executeGenerationPipeline = async (requestBody, { owner = null, reportProgress = () => {}, reportPartial = null } = {}) => {
+  const { 
+    dataSource, 
+    files, 
+    testrailConfig,
+    useDefaultFiles,
+    stream = false,
+    bypassCache = false,
+    sharded: requestedSharded,
+    shardConcurrency,
+    templateSkeleton = TEMPLATE_SKELETON_ENABLED
+  } = requestBody;
+
+  // A whole TestRail suite rarely fits one completion, so bulk ingestion is sharded by default
+  const bulkTestrail = dataSource === 'testrail' && Boolean(testrailConfig) && !testrailConfig.testCaseId;
+  const sharded = requestedSharded !== undefined ? Boolean(requestedSharded) : bulkTestrail;
+
+  logger.info('Request data processed', { dataSource, useDefaultFiles, filesCount: Object.keys(files || {}).length });
+
+  let apiDetails, scenarios;
+  let methodFileContent, testFileContent;
+
+  // Validate required environment variables
+  reportProgress('validate', 'Validating configuration');
+  const envValidation = validateEnvironmentConfig();
+  if (!envValidation.valid) {
+    throw new Error(`Missing Azure OpenAI configuration: ${envValidation.missingVars.join(', ')}`);
+  }
+
+  if (useDefaultFiles) {
+    if (!process.env.DEFAULT_METHOD_PATH || !process.env.DEFAULT_TEST_PATH) {
+      throw new Error('Default file paths not configured in environment variables');
+    }
+    
+    if (dataSource === 'excel' && !process.env.DEFAULT_EXCEL_PATH) {
+      throw new Error('Default Excel path not configured in environment variables');
     }
+  }
 
+  // Read method and test files
+  reportProgress('read-templates', 'Reading method and test templates');
+  try {
     if (useDefaultFiles) {
-      if (!process.env.DEFAULT_METHOD_PATH || !process.env.DEFAULT_TEST_PATH) {
-        throw new Error('Default file paths not configured in environment variables');
+      logger.info('Reading default files');
+      const methodPath = path.resolve(__dirname, process.env.DEFAULT_METHOD_PATH);
+      const testPath = path.resolve(__dirname, process.env.DEFAULT_TEST_PATH);
+      
+      if (!(await fs.pathExists(methodPath))) {
+        throw new Error(`Default method file not found: ${methodPath}`);
+      }
+      if (!(await fs.pathExists(testPath))) {
+        throw new Error(`Default test file not found: ${testPath}`);
       }
       
-      if (dataSource === 'excel' && !process.env.DEFAULT_EXCEL_PATH) {
-        throw new Error('Default Excel path not configured in environment variables');
+      methodFileContent = await fs.readFile(methodPath, 'utf8');
+      testFileContent = await fs.readFile(testPath, 'utf8');
+    } else {
+      logger.info('Reading uploaded files');
+      if (!files.methodFile || !files.testFile) {
+        throw new Error('Method file and test file are required');
       }
-    }
-
-    // Read method and test files
-    try {
-      if (useDefaultFiles) {
-        logger.info('Reading default files');
-        const methodPath = path.resolve(__dirname, process.env.DEFAULT_METHOD_PATH);
-        const testPath = path.resolve(__dirname, process.env.DEFAULT_TEST_PATH);
-        
-        if (!fs.existsSync(methodPath)) {
-          throw new Error(`Default method file not found: ${methodPath}`);
-        }
-        if (!fs.existsSync(testPath)) {
-          throw new Error(`Default test file not found: ${testPath}`);
-        }
-        
-        methodFileContent = fs.readFileSync(methodPath, 'utf8');
-        testFileContent = fs.readFileSync(testPath, 'utf8');
-      } else {
-        logger.info('Reading uploaded files');
-        if (!files.methodFile || !files.testFile) {
-          throw new Error('Method file and test file are required');
-        }
-        
-        const methodPath = path.join(uploadsDir, files.methodFile);
-        const testPath = path.join(uploadsDir, files.testFile);
-        
-        if (!fs.existsSync(methodPath)) {
-          throw new Error(`Uploaded method file not found: ${methodPath}`);
-        }
-        if (!fs.existsSync(testPath)) {
-          throw new Error(`Uploaded test file not found: ${testPath}`);
-        }
-        
-        methodFileContent = fs.readFileSync(methodPath, 'utf8');
-        testFileContent = fs.readFileSync(testPath, 'utf8');
+      
+      // Handles only resolve for the user who uploaded them
+      const methodPath = await uploadStore.resolveFor(files.methodFile, owner);
+      const testPath = await uploadStore.resolveFor(files.testFile, owner);
+      
+      if (!methodPath || !(await fs.pathExists(methodPath))) {
+        throw new Error(`Uploaded method file not found: ${files.methodFile}`);
+      }
+      if (!testPath || !(await fs.pathExists(testPath))) {
+        throw new Error(`Uploaded test file not found: ${files.testFile}`);
       }
       
-      logger.info('Files read successfully', {
-        methodFileLength: methodFileContent.length,
-        testFileLength: testFileContent.length
-      });
-    } catch (fileError) {
-      logger.error('File reading error', fileError);
-      throw new Error(`Failed to read template files: ${fileError.message}`);
+      methodFileContent = await fs.readFile(methodPath, 'utf8');
+      testFileContent = await fs.readFile(testPath, 'utf8');
     }
+    
+    logger.info('Files read successfully', {
+      methodFileLength: methodFileContent.length,
+      testFileLength: testFileContent.length
+    });
+  } catch (fileError) {
+    logger.error('File reading error', fileError);
+    throw new Error(`Failed to read template files: ${fileError.message}`);
+  }
 
-    // Parse data based on source
-    try {
-      if (dataSource === 'excel') {
-        logger.info('Parsing Excel data');
-        const excelPath = useDefaultFiles ? 
-          path.resolve(__dirname, process.env.DEFAULT_EXCEL_PATH) : 
-          path.join(uploadsDir, files.excelFile);
-          
-        if (!fs.existsSync(excelPath)) {
-          throw new Error(`Excel file not found: ${excelPath}`);
-        }
-        
-        const result = parseExcel(excelPath);
-        apiDetails = result.apiDetails;
-        scenarios = result.scenarios;
-      } else if (dataSource === 'testrail') {
-        logger.info('Fetching TestRail data');
-        let { username, apikey, testCaseId, testrailBaseUrl } = testrailConfig;
-        
-        if (!username || !apikey || !testCaseId) {
-          throw new Error('TestRail configuration is incomplete');
-        }
-        
-        // Set default TestRail base URL if not provided
-        if (!testrailBaseUrl) {
-          testrailBaseUrl = process.env.TESTRAIL_URL || 'https://morningstar.testrail.net';
-          logger.info('Using default TestRail URL', { testrailBaseUrl });
-        }
+  // Reduce the templates to style skeletons to keep the prompt small
+  let promptMethodContent = methodFileContent;
+  let promptTestContent = testFileContent;
+  let templateStats = null;
+  if (templateSkeleton) {
+    const [methodSkeleton, testSkeleton] = await Promise.all([
+      pipelinePool.run('buildTemplateSkeleton', { source: methodFileContent }),
+      pipelinePool.run('buildTemplateSkeleton', { source: testFileContent })
+    ]);
+    promptMethodContent = methodSkeleton.skeleton;
+    promptTestContent = testSkeleton.skeleton;
+    templateStats = {
+      originalTokens: methodSkeleton.originalTokens + testSkeleton.originalTokens,
+      skeletonTokens: methodSkeleton.skeletonTokens + testSkeleton.skeletonTokens,
+      savedTokens: methodSkeleton.savedTokens + testSkeleton.savedTokens
+    };
+    logger.info('Template skeletons extracted', templateStats);
+    reportProgress('analyze-templates', `Condensed templates, saved about ${templateStats.savedTokens} prompt tokens`, templateStats);
+  }
+
+  // Parse data based on source
+  try {
+    if (dataSource === 'excel') {
+      reportProgress('parse-data', 'Parsing Excel workbook');
+      logger.info('Parsing Excel data');
+      const excelPath = useDefaultFiles ? 
+        path.resolve(__dirname, process.env.DEFAULT_EXCEL_PATH) : 
+        await uploadStore.resolveFor(files.excelFile, owner);
         
+      if (!excelPath || !(await fs.pathExists(excelPath))) {
+        throw new Error(`Excel file not found: ${useDefaultFiles ? excelPath : files.excelFile}`);
+      }
+      
+      const { value: result, cacheStatus: workbookCacheStatus } = await workbookCache.get(excelPath, 'scenarios', () =>
+        pipelinePool.run('parseExcel', { filePath: excelPath }, {
+          onProgress: ({ scenariosCount }) => reportProgress('parse-data', `Parsed ${scenariosCount} scenarios`, { scenariosCount })
+        }));
+      logger.info('Excel workbook loaded', { cacheStatus: workbookCacheStatus });
+      apiDetails = result.apiDetails;
+      scenarios = result.scenarios;
+    } else if (dataSource === 'testrail') {
+      logger.info('Fetching TestRail data');
+      let { username, apikey, testCaseId, projectId, suiteId, sectionId, testrailBaseUrl } = testrailConfig;
+      
+      if (!username || !apikey || (!testCaseId && !projectId)) {
+        throw new Error('TestRail configuration is incomplete');
+      }
+      
+      // Set default TestRail base URL if not provided
+      if (!testrailBaseUrl) {
+        testrailBaseUrl = process.env.TESTRAIL_URL || 'https://morningstar.testrail.net';
+        logger.info('Using default TestRail URL', { testrailBaseUrl });
+      }
+      
+      if (testCaseId) {
+        reportProgress('parse-data', 'Fetching TestRail test case');
         const testrailData = await fetchTestrailCases(testCaseId, username, apikey, testrailBaseUrl);
         const parsedData = parseTestrailData(
           testrailData.customPreconds, 
@@ -1125,51 +1194,127 @@ app.post('/api/generate-script', auth, validateGenerateScriptRequest, async (req
         apiDetails = parsedData.apiDetails;
         scenarios = parsedData.scenarios;
       } else {
-        throw new Error('Invalid data source specified');
+        // Bulk ingestion of a whole project, suite or section
+        reportProgress('parse-data', 'Fetching TestRail cases');
+        const cases = [];
+        const caseStream = streamTestrailCases(
+          { projectId, suiteId, sectionId, username, apikey, testrailBaseUrl },
+          { onPage: ({ fetched }) => reportProgress('parse-data', `Fetched ${fetched} TestRail cases`, { fetched }) }
+        );
+        for await (const testCase of caseStream) {
+          cases.push(testCase);
+        }
+        const combined = combineTestrailCases(cases);
+        apiDetails = combined.apiDetails;
+        scenarios = combined.scenarios;
+        logger.info('TestRail cases ingested', { projectId, suiteId, sectionId, cases: cases.length });
       }
-      
-      logger.info('Data parsed successfully', {
-        apiDetails: Object.keys(apiDetails),
-        scenariosCount: scenarios.length
-      });
-    } catch (parseError) {
-      logger.error('Data parsing error', parseError);
-      throw new Error(`Failed to parse data: ${parseError.message}`);
+    } else {
+      throw new Error('Invalid data source specified');
     }
+    
+    logger.info('Data parsed successfully', {
+      apiDetails: Object.keys(apiDetails),
+      scenariosCount: scenarios.length
+    });
+  } catch (parseError) {
+    logger.error('Data parsing error', parseError);
+    throw new Error(`Failed to parse data: ${parseError.message}`);
+  }
 
-    // Generate test script
-    logger.info('Generating test script');
-    const generatedFiles = await generateRestAssuredTest(apiDetails, scenarios, methodFileContent, testFileContent);
-
-    if (!generatedFiles || !generatedFiles.methodFile || !generatedFiles.testFile) {
-      throw new Error('Generated files are empty or invalid');
-    }
+  // Generate test script
+  reportProgress('generate', `Generating test script for ${scenarios.length} scenario(s)`, { scenariosCount: scenarios.length });
+  logger.info('Generating test script');
+  const cacheKey = generationCache.computeKey({
+    apiDetails,
+    scenarios,
+    methodFileContent,
+    testFileContent,
+    deployment: deploymentPool.getModelIdentity(),
+    promptVersion: GENERATION_PROMPT_VERSION,
+    parameters: { ...COMPLETION_PARAMETERS, sharded: Boolean(sharded), templateSkeleton: Boolean(templateSkeleton) }
+  });
+  const { result: generatedFiles, cacheStatus } = await generationCache.getOrGenerate(
+    cacheKey,
+    () => generateRestAssuredTest(apiDetails, scenarios, promptMethodContent, promptTestContent, {
+      templatesCondensed: Boolean(templateSkeleton),
+      stream: Boolean(stream),
+      onPartial: reportPartial,
+      sharded: Boolean(sharded),
+      shardConcurrency: Math.max(1, Math.min(parseInt(shardConcurrency, 10) || SHARD_CONCURRENCY, 16)),
+      onProgress: (message, data) => reportProgress('generate', message, data)
+    }),
+    { bypass: Boolean(bypassCache) }
+  );
+
+  // Results that did not come from our own stream are forwarded in one piece
+  if (reportPartial && (cacheStatus === 'hit' || cacheStatus === 'coalesced')) {
+    reportPartial('method', generatedFiles.methodFile);
+    reportPartial('test', generatedFiles.testFile);
+  }
+  reportProgress('generate', cacheStatus === 'hit' ? 'Reusing cached generation' : 'Generation finished', { cacheStatus });
 
-    // Save generated files using enhanced utility function
-    const savedFiles = await saveGeneratedFiles(generatedFiles.methodFile, generatedFiles.testFile, outputDir);
+  if (!generatedFiles || !generatedFiles.methodFile || !generatedFiles.testFile) {
+    throw new Error('Generated files are empty or invalid');
+  }
 
-    logger.info('Test script generation completed successfully', {
-      methodFileLength: generatedFiles.methodFile.length,
-      testFileLength: generatedFiles.testFile.length,
-      filesSaved: Object.keys(savedFiles)
-    });
+  // Save generated files using enhanced utility function (only once the stream has completed)
+  reportProgress('save', 'Saving generated files');
+  const savedFiles = await saveGeneratedFiles(generatedFiles.methodFile, generatedFiles.testFile, artifactStore, owner);
+
+  logger.info('Test script generation completed successfully', {
+    methodFileLength: generatedFiles.methodFile.length,
+    testFileLength: generatedFiles.testFile.length,
+    filesSaved: Object.keys(savedFiles)
+  });
+
+  return {
+    methodFile: generatedFiles.methodFile,
+    testFile: generatedFiles.testFile,
+    methodFilename: savedFiles.methodFilename,
+    testFilename: savedFiles.testFilename,
+    combinedFilename: savedFiles.combinedFilename,
+    apiDetails,
+    scenarios,
+    cacheStatus,
+    templateStats,
+    timestamp: new Date().toISOString(),
+    filesSaved: {
+      methodPath: savedFiles.methodOutputPath,
+      testPath: savedFiles.testOutputPath,
+      combinedUrl: `/api/download-combined/${savedFiles.combinedFilename}`
+    }
+  };
+};
 
-    res.json({
-      success: true,
-      methodFile: generatedFiles.methodFile,
-      testFile: generatedFiles.testFile,
-      methodFilename: savedFiles.methodFilename,
-      testFilename: savedFiles.testFilename,
-      combinedFilename: savedFiles.combinedFilename,
-      apiDetails,
-      scenarios,
-      timestamp: new Date().toISOString(),
-      filesSaved: {
-        methodPath: savedFiles.methodOutputPath,
-        testPath: savedFiles.testOutputPath,
-        combinedPath: savedFiles.combinedOutputPath
+// executeGenerationPipeline, timed per stage and as a whole for /metrics
+const runGenerationPipeline = async (requestBody, options = {}) => {
+  const { reportProgress = () => {} } = options;
+  const stages = metrics.stageTimer();
+  const stopTimer = metrics.generationSeconds.startTimer();
+  try {
+    const result = await executeGenerationPipeline(requestBody, {
+      ...options,
+      reportProgress: (stage, message, data) => {
+        stages.enter(stage);
+        reportProgress(stage, message, data);
       }
     });
+    stages.finish('success');
+    stopTimer({ outcome: 'success', cache: result.cacheStatus || 'none' });
+    return result;
+  } catch (error) {
+    stages.finish('error');
+    stopTimer({ outcome: 'error', cache: 'none' });
+    throw error;
+  }
+};
+
+app.post('/api/generate-script', auth, validateGenerateScriptRequest, async (req, res) => {
+  try {
+    logger.info('Generate script request received');
+    const result = await runGenerationPipeline(req.body, { owner: req.user._id });
+    res.json({ success: true, ...result });
   } catch (error) {
     logger.error('Generate script error', error);
     res.status(500).json({ 
@@ -1181,14 +1326,156 @@ app.post('/api/generate-script', auth, validateGenerateScriptRequest, async (req
   }
 });
 
-app.get('/api/download/:filename', (req, res) => {
+// Submit a generation job; the pipeline runs in the background and the job ID is returned right away
+app.post('/api/generation-jobs', auth, validateGenerateScriptRequest, (req, res) => {
   try {
-    const filename = req.params.filename;
-    const filePath = path.join(outputDir, filename);
-    
-    if (fs.existsSync(filePath)) {
-      res.download(filePath);
-    } else {
+    const requestBody = req.body;
+    const uploads = requestBody.useDefaultFiles ? [] : Object.values(requestBody.files || {}).filter(file => typeof file === 'string');
+    const job = generationJobs.submit(req.user._id, (reportProgress, reportPartial) =>
+      runGenerationPipeline(requestBody, { owner: req.user._id, reportProgress, reportPartial }), { uploads });
+
+    logger.info('Generation job submitted', { jobId: job.id, dataSource: requestBody.dataSource });
+
+    res.status(202).json({
+      success: true,
+      jobId: job.id,
+      status: job.status,
+      statusUrl: `/api/generation-jobs/${job.id}`,
+      eventsUrl: `/api/generation-jobs/${job.id}/events`
+    });
+  } catch (error) {
+    if (error.code === 'JOBS_QUEUE_FULL' || error.code === 'JOBS_OWNER_QUEUE_FULL') {
+      logger.warn('Generation job rejected', { code: error.code, owner: req.user._id.toString() });
+      res.setHeader('Retry-After', '30');
+      return res.status(error.code === 'JOBS_QUEUE_FULL' ? 503 : 429).json({ success: false, message: error.message, code: error.code });
+    }
+    logger.error('Generation job submit error', error);
+    res.status(500).json({ success: false, message: error.message });
+  }
+});
+
+// Look up a job owned by the current user, or send a 404
+const findOwnedJob = (req, res) => {
+  const job = generationJobs.get(req.params.jobId);
+  if (!job || job.owner !== req.user._id.toString()) {
+    res.status(404).json({ success: false, message: 'Generation job not found' });
+    return null;
+  }
+  return job;
+};
+
+// Poll the status of a generation job; ?after=<event id> adds the events since that one
+app.get('/api/generation-jobs/:jobId', auth, (req, res) => {
+  const job = findOwnedJob(req, res);
+  if (!job) return;
+
+  const afterEventId = req.query.after !== undefined ? parseInt(req.query.after, 10) || 0 : null;
+  res.json({
+    success: true,
+    ...generationJobs.toJSON(job, { includeEvents: req.query.events === 'true', afterEventId })
+  });
+});
+
+// Stream job progress as Server-Sent Events; already recorded events are replayed first
+app.get('/api/generation-jobs/:jobId/events', auth, (req, res) => {
+  const job = findOwnedJob(req, res);
+  if (!job) return;
+
+  res.writeHead(200, {
+    'Content-Type': 'text/event-stream',
+    'Cache-Control': 'no-cache',
+    'Connection': 'keep-alive',
+    'X-Accel-Buffering': 'no'
+  });
+
+  const lastEventId = parseInt(req.header('Last-Event-ID'), 10) || 0;
+  const sendEvent = (event) => {
+    const payload = event.type === 'completed'
+      ? { ...event, result: job.result }
+      : event;
+    res.write(`id: ${event.id}\nevent: ${event.type}\ndata: ${JSON.stringify(payload)}\n\n`);
+  };
+
+  job.events.filter(event => event.id > lastEventId).forEach(sendEvent);
+
+  if (generationJobs.isFinished(job)) {
+    return res.end();
+  }
+
+  const heartbeat = setInterval(() => res.write(': keep-alive\n\n'), 15000);
+  const unsubscribe = generationJobs.subscribe(job.id, (event) => {
+    sendEvent(event);
+    if (generationJobs.isFinished(job)) {
+      cleanup();
+      res.end();
+    }
+  });
+  const cleanup = () => {
+    clearInterval(heartbeat);
+    unsubscribe();
+  };
+
+  req.on('close', cleanup);
+});
+
+// Send a generated file as an attachment. Compressed files go out as stored when the client
+// accepts gzip and are decompressed otherwise; ETag, conditional GET and single byte ranges
+// apply to whichever encoding is sent.
+const sendArtifact = async (req, res, filename) => {
+  const location = await artifactStore.locate(filename);
+  if (!location) return false;
+
+  const encoding = artifactStore.canGzip(location) && req.acceptsEncodings('gzip', 'identity') === 'gzip'
+    ? 'gzip'
+    : 'identity';
+  const etag = artifactStore.etag(location, encoding);
+  const length = artifactStore.length(location, encoding);
+
+  res.setHeader('Content-Type', 'text/plain; charset=utf-8');
+  res.setHeader('Content-Disposition', `attachment; filename="${path.basename(filename)}"`);
+  res.setHeader('ETag', etag);
+  res.setHeader('Last-Modified', location.mtime.toUTCString());
+  res.setHeader('Vary', 'Accept-Encoding');
+  if (encoding === 'gzip') res.setHeader('Content-Encoding', 'gzip');
+  if (length !== null) res.setHeader('Accept-Ranges', 'bytes');
+
+  if (req.fresh) {
+    res.status(304).end();
+    return true;
+  }
+
+  // Ranges need a known length; If-Range falls back to the full file when it has changed
+  let range = null;
+  if (length !== null && req.headers.range) {
+    range = selectByteRange(req.range(length), { ifRange: req.headers['if-range'], etag });
+    if (range === UNSATISFIABLE) {
+      res.status(416).setHeader('Content-Range', `bytes */${length}`);
+      res.end();
+      return true;
+    }
+  }
+
+  if (range) {
+    res.status(206);
+    res.setHeader('Content-Range', `bytes ${range.start}-${range.end}/${length}`);
+    res.setHeader('Content-Length', range.end - range.start + 1);
+  } else if (length !== null) {
+    res.setHeader('Content-Length', length);
+  }
+  if (req.method === 'HEAD') {
+    res.end();
+    return true;
+  }
+
+  pipeline(artifactStore.createReadStream(location, { encoding, ...range }), res, (error) => {
+    if (error) logger.warn('Artifact download aborted', { filename, error: error.message });
+  });
+  return true;
+};
+
+app.get('/api/download/:filename', async (req, res) => {
+  try {
+    if (!(await sendArtifact(req, res, req.params.filename))) {
       res.status(404).json({ success: false, message: 'File not found' });
     }
   } catch (error) {
@@ -1196,36 +1483,22 @@ app.get('/api/download/:filename', (req, res) => {
   }
 });
 
-app.get('/api/download-combined/:filename', (req, res) => {
+// Download a combined file by name; any other name (e.g. "latest") resolves to the newest
+// combined file of the signed-in user, or of anyone when the request is anonymous
+app.get('/api/download-combined/:filename', optionalAuth, async (req, res) => {
   try {
     const filename = req.params.filename;
     
     // Support both timestamped and direct filenames
-    let filePath;
-    if (filename.includes('GeneratedCombined_')) {
-      filePath = path.join(outputDir, filename);
-    } else {
-      // If no specific combined file, look for the most recent one
-      const files = fs.readdirSync(outputDir).filter(f => f.startsWith('GeneratedCombined_') && f.endsWith('.java'));
-      if (files.length === 0) {
+    let resolvedName = path.basename(filename);
+    if (!resolvedName.includes('GeneratedCombined_')) {
+      resolvedName = (req.user && latestArtifacts.get('combined', req.user._id)) || latestArtifacts.get('combined');
+      if (!resolvedName) {
         return res.status(404).json({ success: false, message: 'No combined files found' });
       }
-      
-      // Sort by creation time (newest first)
-      files.sort((a, b) => {
-        const statA = fs.statSync(path.join(outputDir, a));
-        const statB = fs.statSync(path.join(outputDir, b));
-        return statB.mtime - statA.mtime;
-      });
-      
-      filePath = path.join(outputDir, files[0]);
     }
     
-    if (fs.existsSync(filePath)) {
-      res.setHeader('Content-Type', 'text/plain');
-      res.setHeader('Content-Disposition', `attachment; filename="${path.basename(filePath)}"`);
-      res.download(filePath);
-    } else {
+    if (!(await sendArtifact(req, res, resolvedName))) {
       res.status(404).json({ success: false, message: 'Combined file not found' });
     }
   } catch (error) {
@@ -1234,29 +1507,50 @@ app.get('/api/download-combined/:filename', (req, res) => {
   }
 });
 
-app.get('/api/list-generated-files', (req, res) => {
+// One page of generated files, newest first. Query parameters: type (method/test/combined),
+// owner ('me' or a user ID), from/to (ISO dates), limit and the cursor returned by the previous page.
+app.get('/api/list-generated-files', optionalAuth, async (req, res) => {
   try {
-    const files = fs.readdirSync(outputDir)
-      .filter(file => file.endsWith('.java'))
-      .map(file => {
-        const filePath = path.join(outputDir, file);
-        const stats = fs.statSync(filePath);
-        return {
-          filename: file,
-          size: stats.size,
-          created: stats.birthtime,
-          modified: stats.mtime,
-          type: file.includes('Methods') ? 'method' : 
-                file.includes('Tests') ? 'test' : 
-                file.includes('Combined') ? 'combined' : 'unknown'
-        };
-      })
-      .sort((a, b) => b.modified - a.modified); // Sort by modified date, newest first
+    const { type, owner, from, to, cursor, limit } = req.query;
+
+    let ownerFilter;
+    if (owner === 'me') {
+      if (!req.user) {
+        return res.status(401).json({ success: false, message: 'Sign in to list your own files' });
+      }
+      ownerFilter = req.user._id;
+    } else if (owner) {
+      if (!mongoose.Types.ObjectId.isValid(owner)) {
+        return res.status(400).json({ success: false, message: 'Invalid owner' });
+      }
+      ownerFilter = owner;
+    }
+
+    const fromDate = from ? new Date(from) : null;
+    const toDate = to ? new Date(to) : null;
+    if ((fromDate && isNaN(fromDate)) || (toDate && isNaN(toDate))) {
+      return res.status(400).json({ success: false, message: 'from and to must be dates' });
+    }
+
+    const parsedCursor = cursor ? artifactIndex.parseCursor(cursor) : null;
+    if (cursor && !parsedCursor) {
+      return res.status(400).json({ success: false, message: 'Invalid cursor' });
+    }
+
+    const { files, nextCursor } = await artifactIndex.list({
+      owner: ownerFilter,
+      type,
+      from: fromDate,
+      to: toDate,
+      cursor: parsedCursor,
+      limit
+    });
 
     res.json({
       success: true,
       files: files,
       totalFiles: files.length,
+      nextCursor,
       outputDirectory: outputDir
     });
   } catch (error) {
@@ -1265,6 +1559,13 @@ app.get('/api/list-generated-files', (req, res) => {
   }
 });
 
+// Serve the frontend build; registered after the API routes so the catch-all does not shadow them
+const frontendAssets = staticAssets(path.join(__dirname, '../frontend/build'));
+app.use(frontendAssets.assets);
+app.get('*', frontendAssets.fallback);
+// Files are served uncompressed or compressed per request until their copies exist
+frontendAssets.precompressMissing();
+
 // Validate environment configuration on startup
 const envValidationResult = validateEnvironmentConfig();
 if (!envValidationResult.valid) {
@@ -1272,7 +1573,7 @@ if (!envValidationResult.valid) {
   process.exit(1);
 }
 
-app.listen(PORT, () => {
+const server = app.listen(PORT, () => {
   logger.info(`Server is running on port ${PORT}`);
   
   // Validate environment configuration on startup
@@ -1303,3 +1604,28 @@ app.listen(PORT, () => {
     logger.error('Output directory not found', { outputDir });
   }
 });
+
+// Stop accepting connections and exit once this process has no generation jobs left.
+// cluster.js sends 'shutdown' to retire a worker during a rolling restart.
+let shuttingDown = false;
+const shutdownGracefully = () => {
+  if (shuttingDown) return;
+  shuttingDown = true;
+  logger.info('Shutting down once running generation jobs have finished');
+  server.close();
+  const exitWhenIdle = () => {
+    if (generationJobs.isIdle()) {
+      latestArtifacts.flush()
+        .catch(error => logger.error('Failed to persist latest artifact pointers', error))
+        .finally(() => process.exit(0));
+      return;
+    }
+    setTimeout(exitWhenIdle, 500);
+  };
+  exitWhenIdle();
+};
+
+process.on('message', (message) => {
+  if (message && message.type === 'shutdown') shutdownGracefully();
+});
+process.on('SIGTERM', shutdownGracefully);
@@ -0,0 +1,181 @@
+const mongoose = require('mongoose');
+const Artifact = require('../models/Artifact');
+const logger = require('../utils/logger');
+
+const DEFAULT_PAGE_SIZE = 50;
+const MAX_PAGE_SIZE = 500;
+const GENERATED_FILE = /^Generated(Methods|Tests|Combined)_(\d{4}-\d{2}-\d{2}T\d{2}-\d{2}-\d{2}-\d{3}Z)\.java$/;
+const TYPES = { Methods: 'method', Tests: 'test', Combined: 'combined' };
+
+// Type and generation timestamp encoded in a saved file name
+const describeFilename = (filename) => {
+  const match = GENERATED_FILE.exec(filename);
+  if (!match) {
+    return {
+      type: filename.includes('Methods') ? 'method' :
+            filename.includes('Tests') ? 'test' :
+            filename.includes('Combined') ? 'combined' : 'unknown',
+      generationId: null,
+      createdAt: null
+    };
+  }
+  const [, kind, generationId] = match;
+  // 2025-07-06T05-52-02-594Z -> 2025-07-06T05:52:02.594Z
+  const iso = generationId.replace(/T(\d{2})-(\d{2})-(\d{2})-(\d{3})Z$/, 'T$1:$2:$3.$4Z');
+  return { type: TYPES[kind], generationId, createdAt: new Date(iso) };
+};
+
+// Cursors are opaque to clients: the createdAt and _id of the last file of the previous page
+const encodeCursor = (artifact) =>
+  Buffer.from(JSON.stringify([artifact.createdAt.getTime(), artifact._id.toString()])).toString('base64url');
+
+// Returns null for anything that is not a cursor produced by encodeCursor
+const parseCursor = (cursor) => {
+  try {
+    const [time, id] = JSON.parse(Buffer.from(String(cursor), 'base64url').toString('utf8'));
+    if (!Number.isFinite(time) || !mongoose.Types.ObjectId.isValid(id)) return null;
+    return { createdAt: new Date(time), id: new mongoose.Types.ObjectId(id) };
+  } catch (error) {
+    return null;
+  }
+};
+
+// Catalog of the generated files in the output directory, kept in Mongo so listing never
+// touches the file system. saveGeneratedFiles records every file it writes; files written
+// before the index existed are picked up by reconcile() at startup.
+class ArtifactIndex {
+  async record({ filename, owner = null, size = 0, createdAt = new Date() }) {
+    const { type, generationId } = describeFilename(filename);
+    await Artifact.updateOne(
+      { filename },
+      { $set: { type, owner, generationId, size, createdAt } },
+      { upsert: true }
+    );
+  }
+
+  // One page of artifacts, newest first. Every filter combination is served by an index, so
+  // the cost depends on the page size and not on how many files have accumulated.
+  async list({ owner, type, from, to, cursor, limit = DEFAULT_PAGE_SIZE } = {}) {
+    const pageSize = Math.min(Math.max(parseInt(limit, 10) || DEFAULT_PAGE_SIZE, 1), MAX_PAGE_SIZE);
+    const query = {};
+    if (owner !== undefined) query.owner = owner;
+    if (type) query.type = type;
+    if (from || to) {
+      query.createdAt = {};
+      if (from) query.createdAt.$gte = from;
+      if (to) query.createdAt.$lte = to;
+    }
+    if (cursor) {
+      query.$or = [
+        { createdAt: { $lt: cursor.createdAt } },
+        { createdAt: cursor.createdAt, _id: { $lt: cursor.id } }
+      ];
+    }
+
+    // Fetch one extra document to know whether there is another page
+    const docs = await Artifact.find(query)
+      .sort({ createdAt: -1, _id: -1 })
+      .limit(pageSize + 1)
+      .lean();
+    const hasMore = docs.length > pageSize;
+    const page = hasMore ? docs.slice(0, pageSize) : docs;
+
+    return {
+      files: page.map(doc => ({
+        filename: doc.filename,
+        type: doc.type,
+        owner: doc.owner,
+        size: doc.size,
+        created: doc.createdAt,
+        modified: doc.createdAt
+      })),
+      nextCursor: hasMore ? encodeCursor(page[page.length - 1]) : null
+    };
+  }
+
+  // Every artifact, newest first, for background maintenance such as retention
+  async listAll() {
+    return Artifact.find({}, { filename: 1, owner: 1, type: 1, generationId: 1, createdAt: 1 })
+      .sort({ createdAt: -1, _id: -1 })
+      .lean();
+  }
+
+  async remove(filenames) {
+    if (filenames.length > 0) await Artifact.deleteMany({ filename: { $in: filenames } });
+  }
+
+  // Newest artifact for every owner and type; used to seed the latest-artifact pointers
+  async latestByOwnerAndType() {
+    return Artifact.aggregate([
+      { $sort: { createdAt: -1, _id: -1 } },
+      { $group: { _id: { owner: '$owner', type: '$type' }, filename: { $first: '$filename' }, createdAt: { $first: '$createdAt' } } }
+    ]).then(groups => groups.map(group => ({
+      owner: group._id.owner,
+      type: group._id.type,
+      filename: group.filename,
+      createdAt: group.createdAt
+    })));
+  }
+
+  // Bring the index in line with the artifact store: add files that are not indexed yet and
+  // drop entries whose files are gone. Runs once per start, off the request path.
+  async reconcile(store) {
+    const [filenames, indexed] = await Promise.all([
+      store.list(),
+      Artifact.find({}, { filename: 1 }).lean()
+    ]);
+    const onDisk = new Set(filenames);
+    const known = new Set(indexed.map(doc => doc.filename));
+
+    const files = new Map();
+    const docs = [];
+    const statFile = async (filename) => {
+      if (!files.has(filename)) files.set(filename, await store.locateFile(filename));
+      return files.get(filename);
+    };
+    for (const filename of [...onDisk].filter(file => !known.has(file))) {
+      const stats = await statFile(filename);
+      const { type, generationId, createdAt } = describeFilename(filename);
+      docs.push({ filename, type, generationId, size: stats.size, createdAt: createdAt || stats.mtime });
+    }
+
+    // Combined files are assembled on download, so they exist whenever both parts do
+    for (const filename of onDisk) {
+      const { type, generationId, createdAt } = describeFilename(filename);
+      if (type !== 'method') continue;
+      const combinedFilename = filename.replace('GeneratedMethods_', 'GeneratedCombined_');
+      const { testFilename } = store.combinedParts(combinedFilename);
+      if (!onDisk.has(testFilename) || onDisk.has(combinedFilename)) continue;
+      onDisk.add(combinedFilename);
+      if (known.has(combinedFilename)) continue;
+      const [methodStats, testStats] = await Promise.all([statFile(filename), statFile(testFilename)]);
+      docs.push({
+        filename: combinedFilename,
+        type: 'combined',
+        generationId,
+        size: store.combinedSize(methodStats.size, testStats.size),
+        createdAt
+      });
+    }
+    if (docs.length > 0) {
+      // Another cluster worker may be reconciling at the same time; duplicates are skipped
+      await Artifact.insertMany(docs, { ordered: false }).catch((error) => {
+        const duplicatesOnly = error.code === 11000 ||
+          (Array.isArray(error.writeErrors) && error.writeErrors.every(e => e.code === 11000));
+        if (!duplicatesOnly) throw error;
+      });
+    }
+
+    const removed = [...known].filter(file => !onDisk.has(file));
+    if (removed.length > 0) {
+      await Artifact.deleteMany({ filename: { $in: removed } });
+    }
+
+    logger.info('Artifact index reconciled', { added: docs.length, removed: removed.length, total: onDisk.size });
+  }
+}
+
+module.exports = new ArtifactIndex();
+module.exports.ArtifactIndex = ArtifactIndex;
+module.exports.parseCursor = parseCursor;
+module.exports.describeFilename = describeFilename;
@@ -0,0 +1,231 @@
+const path = require('path');
+const crypto = require('crypto');
+const fs = require('fs-extra');
+const zlib = require('zlib');
+const { promisify } = require('util');
+const { Readable, pipeline } = require('stream');
+const logger = require('../utils/logger');
+
+const gzip = promisify(zlib.gzip);
+
+const METHOD_HEADER = '// ======= METHOD FILE =======\n';
+const TEST_HEADER = '\n\n// ======= TEST FILE =======\n';
+const GZIP_SUFFIX = '.gz';
+// Generated Java repeats the same setup lines in every test, so the best level pays off;
+// files are compressed once and served many times
+const GZIP_LEVEL = parseInt(process.env.ARTIFACT_GZIP_LEVEL, 10) || zlib.constants.Z_BEST_COMPRESSION;
+// Combined downloads are compressed on the fly, where speed matters more than ratio
+const STREAM_GZIP_LEVEL = 1;
+
+// Uncompressed size from the gzip trailer (ISIZE, the last four bytes)
+const readGzipSize = async (filePath, storedSize) => {
+  const handle = await fs.promises.open(filePath, 'r');
+  try {
+    const { buffer } = await handle.read(Buffer.alloc(4), 0, 4, storedSize - 4);
+    return buffer.readUInt32LE(0);
+  } finally {
+    await handle.close();
+  }
+};
+
+// Pass through only the bytes start..end (inclusive) of a stream
+async function* sliceStream(stream, start, end) {
+  let position = 0;
+  for await (const chunk of stream) {
+    const chunkEnd = position + chunk.length;
+    if (chunkEnd > start) yield chunk.subarray(Math.max(start - position, 0), Math.min(end + 1 - position, chunk.length));
+    position = chunkEnd;
+    if (position > end) {
+      stream.destroy();
+      return;
+    }
+  }
+}
+
+// Pipe source into transform, passing errors on either side to the returned stream
+const chain = (source, transform) => {
+  pipeline(source, transform, (error) => {
+    if (error) transform.destroy(error);
+  });
+  return transform;
+};
+
+// Generated files in the output directory. Each generation stores its method and test file
+// once, gzip-compressed as <name>.gz; the combined file is not written but assembled from the
+// two parts while it is downloaded. Plain files saved by older versions are compressed by
+// compressLegacyFiles() and served as they are until then.
+class ArtifactStore {
+  constructor(dir) {
+    this.dir = dir;
+  }
+
+  // Only plain file names are accepted so a request can never reach outside the directory
+  resolve(filename) {
+    return path.join(this.dir, path.basename(filename));
+  }
+
+  // Store a file compressed. It is written to a temporary file and renamed into place, so a
+  // download or the retention sweep never sees a partly written file.
+  async write(filename, content) {
+    const compressed = await gzip(content, { level: GZIP_LEVEL });
+    const target = this.resolve(filename) + GZIP_SUFFIX;
+    const tmpPath = `${target}.${process.pid}-${crypto.randomUUID()}.tmp`;
+    try {
+      await fs.writeFile(tmpPath, compressed);
+      await fs.rename(tmpPath, target);
+    } catch (error) {
+      await fs.remove(tmpPath).catch(() => {});
+      throw error;
+    }
+    return compressed.length;
+  }
+
+  // Delete a stored file, compressed or not
+  async remove(filename) {
+    const filePath = this.resolve(filename);
+    await Promise.all([fs.remove(filePath + GZIP_SUFFIX), fs.remove(filePath)]);
+  }
+
+  // Names of the method and test files a combined file is assembled from, or null
+  combinedParts(combinedFilename) {
+    const name = path.basename(combinedFilename);
+    if (!name.startsWith('GeneratedCombined_')) return null;
+    return {
+      methodFilename: name.replace('GeneratedCombined_', 'GeneratedMethods_'),
+      testFilename: name.replace('GeneratedCombined_', 'GeneratedTests_')
+    };
+  }
+
+  // Byte size of a combined file assembled from parts of the given sizes
+  combinedSize(methodSize, testSize) {
+    return Buffer.byteLength(METHOD_HEADER) + methodSize + Buffer.byteLength(TEST_HEADER) + testSize;
+  }
+
+  // A stored file: its path, whether it is compressed, the stored and uncompressed sizes
+  async locateFile(filename) {
+    const filePath = this.resolve(filename);
+    const compressedStats = await fs.stat(filePath + GZIP_SUFFIX).catch(() => null);
+    if (compressedStats) {
+      return {
+        path: filePath + GZIP_SUFFIX,
+        gzip: true,
+        storedSize: compressedStats.size,
+        size: await readGzipSize(filePath + GZIP_SUFFIX, compressedStats.size),
+        mtime: compressedStats.mtime
+      };
+    }
+    const stats = await fs.stat(filePath).catch(() => null);
+    if (!stats || !stats.isFile()) return null;
+    return { path: filePath, gzip: false, storedSize: stats.size, size: stats.size, mtime: stats.mtime };
+  }
+
+  // Where to read a file from: { path } for a stored file, { parts } for an assembled combined
+  // file, or null when it does not exist. size is always the uncompressed size.
+  async locate(filename) {
+    const stored = await this.locateFile(filename);
+    if (stored) return stored;
+
+    const parts = this.combinedParts(filename);
+    if (!parts) return null;
+    const [method, test] = await Promise.all([
+      this.locateFile(parts.methodFilename),
+      this.locateFile(parts.testFilename)
+    ]);
+    if (!method || !test) return null;
+    return {
+      parts: [method, test],
+      gzip: false,
+      size: this.combinedSize(method.size, test.size),
+      mtime: method.mtime > test.mtime ? method.mtime : test.mtime
+    };
+  }
+
+  // Whether a located file can be sent gzip-encoded: it is stored compressed, or it is a
+  // combined file, which is compressed while it is assembled
+  canGzip(location) {
+    return location.gzip || Boolean(location.parts);
+  }
+
+  // Strong validator per file and encoding, derived from what is stored
+  etag(location, encoding) {
+    const files = location.parts || [location];
+    const tag = files.map(file => `${file.storedSize.toString(16)}-${file.mtime.getTime().toString(16)}`).join('.');
+    return `"${tag}${encoding === 'gzip' ? '-gz' : ''}"`;
+  }
+
+  // Length in bytes of the given encoding, or null when it is only known after streaming
+  length(location, encoding) {
+    if (encoding !== 'gzip') return location.size;
+    return location.parts ? null : location.storedSize;
+  }
+
+  // Uncompressed bytes of a stored file
+  openDecoded(file) {
+    const stream = fs.createReadStream(file.path);
+    return file.gzip ? chain(stream, zlib.createGunzip()) : stream;
+  }
+
+  // Readable stream of a located file in the given encoding ('gzip' or 'identity'),
+  // optionally limited to the byte range start..end of that encoding
+  createReadStream(location, { encoding = 'identity', start, end } = {}) {
+    const ranged = start !== undefined;
+
+    if (location.path) {
+      if (encoding === 'gzip' || !location.gzip) {
+        return fs.createReadStream(location.path, ranged ? { start, end } : {});
+      }
+      const decoded = this.openDecoded(location);
+      return ranged ? Readable.from(sliceStream(decoded, start, end)) : decoded;
+    }
+
+    const [method, test] = location.parts;
+    const openDecoded = (file) => this.openDecoded(file);
+    const assembled = Readable.from((async function* assemble() {
+      yield Buffer.from(METHOD_HEADER);
+      yield* openDecoded(method);
+      yield Buffer.from(TEST_HEADER);
+      yield* openDecoded(test);
+    })());
+    if (encoding === 'gzip') return chain(assembled, zlib.createGzip({ level: STREAM_GZIP_LEVEL }));
+    return ranged ? Readable.from(sliceStream(assembled, start, end)) : assembled;
+  }
+
+  // Compress generated files stored uncompressed by older versions, keeping their mtime.
+  // The compressed file is renamed into place before the original is removed, so a file is
+  // readable throughout; concurrent runs from several cluster workers are harmless.
+  async compressLegacyFiles() {
+    const filenames = (await fs.readdir(this.dir)).filter(file => file.endsWith('.java'));
+    let saved = 0;
+    for (const filename of filenames) {
+      const filePath = this.resolve(filename);
+      const tmpPath = `${filePath}.${process.pid}.tmp`;
+      try {
+        const [content, stats] = await Promise.all([fs.readFile(filePath), fs.stat(filePath)]);
+        const compressed = await gzip(content, { level: GZIP_LEVEL });
+        await fs.writeFile(tmpPath, compressed);
+        await fs.utimes(tmpPath, stats.atime, stats.mtime);
+        await fs.rename(tmpPath, filePath + GZIP_SUFFIX);
+        await fs.remove(filePath);
+        saved += stats.size - compressed.length;
+      } catch (error) {
+        await fs.remove(tmpPath).catch(() => {});
+        if (error.code !== 'ENOENT') logger.warn('Could not compress artifact', { filename, error: error.message });
+      }
+    }
+    if (filenames.length > 0) {
+      logger.info('Compressed stored artifacts', { files: filenames.length, bytesSaved: saved });
+    }
+  }
+
+  // Logical names (without .gz) of the stored files
+  async list() {
+    const filenames = await fs.readdir(this.dir);
+    return filenames
+      .filter(file => file.endsWith('.java') || file.endsWith('.java' + GZIP_SUFFIX))
+      .map(file => (file.endsWith(GZIP_SUFFIX) ? file.slice(0, -GZIP_SUFFIX.length) : file));
+  }
+}
+
+module.exports = ArtifactStore;
+module.exports.METHOD_HEADER = METHOD_HEADER;
+module.exports.TEST_HEADER = TEST_HEADER;
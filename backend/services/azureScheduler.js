@@ -0,0 +1,126 @@
+const TokenBucket = require('../utils/tokenBucket');
+const AdaptiveConcurrencyLimiter = require('../utils/adaptiveLimiter');
+const { sleep } = require('../utils/concurrency');
+const logger = require('../utils/logger');
+const clusterBus = require('../utils/clusterBus');
+
+// Quota of the Azure OpenAI deployment (requests and tokens per minute), split evenly
+// between the server processes in cluster mode. Unset means no client-side limit; only the
+// service's 429 responses and retry-after slow requests down.
+const quotaFromEnv = (value) => {
+  const quota = parseInt(value, 10);
+  return quota > 0 ? quota : Infinity;
+};
+const REQUESTS_PER_MINUTE = Math.max(1, Math.floor(quotaFromEnv(process.env.AZURE_OPENAI_RPM) / clusterBus.workerCount));
+const TOKENS_PER_MINUTE = Math.floor(quotaFromEnv(process.env.AZURE_OPENAI_TPM) / clusterBus.workerCount);
+const MAX_CONCURRENCY = parseInt(process.env.AZURE_OPENAI_MAX_CONCURRENCY, 10) || 16;
+const MAX_RETRIES = parseInt(process.env.AZURE_OPENAI_MAX_RETRIES, 10) || 4;
+const BASE_BACKOFF_MS = 1000;
+const MAX_BACKOFF_MS = 60000;
+
+const RETRYABLE_STATUSES = [429, 500, 502, 503, 504];
+
+// Delay requested by the service, in ms, from retry-after-ms or retry-after (seconds or HTTP date)
+const getRetryAfterMs = (headers = {}) => {
+  const retryAfterMs = parseFloat(headers['retry-after-ms']);
+  if (Number.isFinite(retryAfterMs)) return retryAfterMs;
+
+  const retryAfter = headers['retry-after'];
+  if (!retryAfter) return null;
+  const seconds = parseFloat(retryAfter);
+  if (Number.isFinite(seconds)) return seconds * 1000;
+  const date = Date.parse(retryAfter);
+  return Number.isFinite(date) ? Math.max(date - Date.now(), 0) : null;
+};
+
+// Shared scheduler for outbound Azure OpenAI chat/completions calls. Requests wait for both the
+// request and the token bucket, run under an AIMD concurrency limit and are retried with jittered
+// exponential backoff (or the service's retry-after) on 429 and 5xx responses.
+class AzureScheduler {
+  constructor({
+    requestsPerMinute = REQUESTS_PER_MINUTE,
+    tokensPerMinute = TOKENS_PER_MINUTE,
+    maxConcurrency = MAX_CONCURRENCY,
+    maxRetries = MAX_RETRIES,
+    name = 'default'
+  } = {}) {
+    this.name = name;
+    this.requestBucket = new TokenBucket({ capacity: requestsPerMinute, refillPerMinute: requestsPerMinute });
+    this.tokenBucket = new TokenBucket({ capacity: tokensPerMinute, refillPerMinute: tokensPerMinute });
+    this.limiter = new AdaptiveConcurrencyLimiter({
+      initial: Math.min(4, maxConcurrency),
+      max: maxConcurrency
+    });
+    this.maxRetries = maxRetries;
+    this.stats = { requests: 0, succeeded: 0, failed: 0, throttled: 0, retries: 0 };
+  }
+
+  // Run requestFn() under the limits. estimatedTokens is prompt plus max completion tokens.
+  // requestFn may resolve with an axios response; its usage is used to correct the token estimate.
+  async schedule(requestFn, { estimatedTokens = 1, maxRetries = this.maxRetries } = {}) {
+    this.stats.requests++;
+
+    for (let attempt = 0; ; attempt++) {
+      await this.requestBucket.take(1);
+      await this.tokenBucket.take(estimatedTokens);
+      await this.limiter.acquire();
+
+      const startedAt = Date.now();
+      let delayMs;
+      try {
+        const response = await requestFn();
+        const usage = response && response.data && response.data.usage;
+        if (usage && usage.total_tokens) {
+          this.tokenBucket.adjust(usage.total_tokens - estimatedTokens);
+        }
+        const completionTokens = usage && usage.completion_tokens;
+        this.limiter.onSuccess(completionTokens ? (Date.now() - startedAt) / completionTokens : null);
+        this.stats.succeeded++;
+        return response;
+      } catch (error) {
+        const status = error.response && error.response.status;
+        if (!RETRYABLE_STATUSES.includes(status) || attempt >= maxRetries) {
+          this.stats.failed++;
+          throw error;
+        }
+
+        const retryAfterMs = getRetryAfterMs(error.response.headers);
+        if (status === 429) {
+          this.stats.throttled++;
+          this.limiter.onThrottle();
+          if (retryAfterMs !== null) {
+            const resumeAt = Date.now() + retryAfterMs;
+            this.requestBucket.pauseUntil(resumeAt);
+            this.tokenBucket.pauseUntil(resumeAt);
+          }
+        }
+        // The failed attempt did not consume its token estimate
+        this.tokenBucket.adjust(-estimatedTokens);
+
+        const backoffMs = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS * 2 ** attempt);
+        delayMs = Math.max(retryAfterMs || 0, Math.random() * backoffMs);
+        this.stats.retries++;
+        logger.warn(`Azure OpenAI returned ${status}, retrying`, {
+          scheduler: this.name,
+          attempt: attempt + 1,
+          delayMs: Math.round(delayMs),
+          concurrencyLimit: this.limiter.getStats().limit
+        });
+      } finally {
+        this.limiter.release();
+      }
+      await sleep(delayMs);
+    }
+  }
+
+  getStats() {
+    return {
+      ...this.stats,
+      concurrency: this.limiter.getStats(),
+      requestBucket: this.requestBucket.getStats(),
+      tokenBucket: this.tokenBucket.getStats()
+    };
+  }
+}
+
+module.exports = { AzureScheduler, getRetryAfterMs };
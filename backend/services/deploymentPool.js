@@ -0,0 +1,217 @@
+const { AzureScheduler } = require('./azureScheduler');
+const logger = require('../utils/logger');
+const clusterBus = require('../utils/clusterBus');
+
+// Consecutive failures before a deployment is taken out of rotation
+const FAILURE_THRESHOLD = parseInt(process.env.AZURE_OPENAI_EJECT_AFTER_FAILURES, 10) || 3;
+// First ejection period; doubles for every further ejection in a row
+const BASE_EJECTION_MS = parseInt(process.env.AZURE_OPENAI_EJECTION_MS, 10) || 30000;
+const MAX_EJECTION_MS = 10 * 60 * 1000;
+
+const NETWORK_ERROR_CODES = ['ECONNRESET', 'ECONNREFUSED', 'ENOTFOUND', 'ETIMEDOUT', 'ECONNABORTED', 'EAI_AGAIN'];
+
+// Read the pool from AZURE_OPENAI_DEPLOYMENTS (JSON array) or fall back to the single
+// AZURE_OPENAI_ENDPOINT / OPENAI_MODEL / OPENAI_API_VERSION / OPENAI_API_KEY deployment
+const loadDeploymentConfig = (env = process.env) => {
+  if (env.AZURE_OPENAI_DEPLOYMENTS) {
+    let entries;
+    try {
+      entries = JSON.parse(env.AZURE_OPENAI_DEPLOYMENTS);
+    } catch (error) {
+      throw new Error(`AZURE_OPENAI_DEPLOYMENTS is not valid JSON: ${error.message}`);
+    }
+    if (!Array.isArray(entries) || entries.length === 0) {
+      throw new Error('AZURE_OPENAI_DEPLOYMENTS must be a non-empty array');
+    }
+
+    return entries.map((entry, index) => {
+      const config = {
+        name: entry.name || `deployment-${index + 1}`,
+        endpoint: entry.endpoint,
+        deployment: entry.deployment,
+        apiVersion: entry.apiVersion || env.OPENAI_API_VERSION,
+        apiKey: entry.apiKey || env.OPENAI_API_KEY,
+        weight: Number(entry.weight) > 0 ? Number(entry.weight) : 1,
+        requestsPerMinute: entry.rpm,
+        tokensPerMinute: entry.tpm,
+        maxConcurrency: entry.maxConcurrency
+      };
+      const missing = ['endpoint', 'deployment', 'apiVersion', 'apiKey'].filter(key => !config[key]);
+      if (missing.length > 0) {
+        throw new Error(`Deployment ${config.name} is missing: ${missing.join(', ')}`);
+      }
+      return config;
+    });
+  }
+
+  if (!env.AZURE_OPENAI_ENDPOINT || !env.OPENAI_MODEL || !env.OPENAI_API_VERSION || !env.OPENAI_API_KEY) {
+    return [];
+  }
+  return [{
+    name: 'default',
+    endpoint: env.AZURE_OPENAI_ENDPOINT,
+    deployment: env.OPENAI_MODEL,
+    apiVersion: env.OPENAI_API_VERSION,
+    apiKey: env.OPENAI_API_KEY,
+    weight: 1
+  }];
+};
+
+// Errors that say nothing about the request itself, so another deployment may succeed
+const isFailoverError = (error) => {
+  if (error.nonRetryable) return false;
+  const status = error.response && error.response.status;
+  return status === 429 || status >= 500 || NETWORK_ERROR_CODES.includes(error.code);
+};
+
+// Pool of Azure OpenAI deployments. Requests are routed to the healthy deployment with the
+// fewest outstanding requests relative to its weight; deployments that keep failing are
+// ejected for a growing period and get a single probe request once it has passed.
+class DeploymentPool {
+  constructor(configs) {
+    this.deployments = configs.map(config => ({
+      ...config,
+      url: `${config.endpoint.replace(/\/+$/, '')}/openai/deployments/${config.deployment}/chat/completions?api-version=${config.apiVersion}`,
+      scheduler: new AzureScheduler({
+        name: config.name,
+        // Per-deployment quotas are split between cluster workers like the default quota
+        ...(config.requestsPerMinute ? { requestsPerMinute: Math.max(1, Math.floor(config.requestsPerMinute / clusterBus.workerCount)) } : {}),
+        ...(config.tokensPerMinute ? { tokensPerMinute: Math.floor(config.tokensPerMinute / clusterBus.workerCount) } : {}),
+        ...(config.maxConcurrency ? { maxConcurrency: config.maxConcurrency } : {})
+      }),
+      outstanding: 0,
+      consecutiveFailures: 0,
+      ejections: 0,
+      ejectedUntil: 0,
+      probing: false,
+      stats: { requests: 0, failures: 0, failovers: 0 },
+      lastError: null
+    }));
+  }
+
+  get size() {
+    return this.deployments.length;
+  }
+
+  // Identity of the models behind the pool, independent of which deployment serves a request
+  getModelIdentity() {
+    return [...new Set(this.deployments.map(d => `${d.deployment}@${d.apiVersion}`))].sort().join(',');
+  }
+
+  isAvailable(deployment, now = Date.now()) {
+    return deployment.ejectedUntil <= now;
+  }
+
+  pick(excluded = new Set()) {
+    const now = Date.now();
+    const candidates = this.deployments.filter(d => !excluded.has(d) && this.isAvailable(d, now) && !d.probing);
+    // With everything ejected, still try the deployment that comes back first
+    const pool = candidates.length > 0
+      ? candidates
+      : this.deployments.filter(d => !excluded.has(d)).sort((a, b) => a.ejectedUntil - b.ejectedUntil).slice(0, 1);
+
+    let best = null;
+    pool.forEach(deployment => {
+      const score = (deployment.outstanding + 1) / deployment.weight;
+      if (!best || score < best.score) best = { deployment, score };
+    });
+    return best ? best.deployment : null;
+  }
+
+  recordSuccess(deployment) {
+    if (deployment.ejections > 0 || deployment.consecutiveFailures > 0) {
+      logger.info(`Azure OpenAI deployment ${deployment.name} is healthy again`);
+    }
+    deployment.consecutiveFailures = 0;
+    deployment.ejections = 0;
+    deployment.ejectedUntil = 0;
+  }
+
+  recordFailure(deployment, error) {
+    deployment.stats.failures++;
+    deployment.lastError = error.message;
+    // Throttling means the deployment is busy, not broken
+    if (error.response && error.response.status === 429) return;
+
+    // A failed probe after an ejection sends the deployment straight back out
+    deployment.consecutiveFailures++;
+    if (deployment.consecutiveFailures >= FAILURE_THRESHOLD || deployment.ejectedUntil > 0) {
+      deployment.ejections++;
+      const ejectionMs = Math.min(MAX_EJECTION_MS, BASE_EJECTION_MS * 2 ** (deployment.ejections - 1));
+      deployment.ejectedUntil = Date.now() + ejectionMs;
+      deployment.consecutiveFailures = 0;
+      logger.warn(`Ejecting Azure OpenAI deployment ${deployment.name}`, { ejectionMs, lastError: error.message });
+    }
+  }
+
+  // Run requestFn(deployment) on the best deployment, failing over to the others on
+  // throttling, server and network errors. Options are passed to the deployment's scheduler.
+  async execute(requestFn, { estimatedTokens = 1, maxRetries } = {}) {
+    if (this.deployments.length === 0) {
+      throw new Error('Missing required Azure OpenAI configuration');
+    }
+
+    const tried = new Set();
+    let lastError = null;
+    while (tried.size < this.deployments.length) {
+      const deployment = this.pick(tried);
+      if (!deployment) break;
+      tried.add(deployment);
+
+      const wasEjected = deployment.ejectedUntil > 0;
+      if (wasEjected) deployment.probing = true;
+      deployment.outstanding++;
+      deployment.stats.requests++;
+      try {
+        // With other deployments to fail over to, give up on a throttled one sooner
+        const retries = maxRetries !== undefined ? maxRetries
+          : this.deployments.length > 1 ? 1 : undefined;
+        const result = await deployment.scheduler.schedule(() => requestFn(deployment), {
+          estimatedTokens,
+          ...(retries !== undefined ? { maxRetries: retries } : {})
+        });
+        this.recordSuccess(deployment);
+        return result;
+      } catch (error) {
+        lastError = error;
+        if (!isFailoverError(error)) throw error;
+        this.recordFailure(deployment, error);
+        if (tried.size < this.deployments.length) {
+          deployment.stats.failovers++;
+          logger.warn(`Azure OpenAI deployment ${deployment.name} failed, failing over`, { error: error.message });
+        }
+      } finally {
+        deployment.outstanding--;
+        deployment.probing = false;
+      }
+    }
+    throw lastError;
+  }
+
+  getStats() {
+    const now = Date.now();
+    return this.deployments.map(d => ({
+      name: d.name,
+      deployment: d.deployment,
+      weight: d.weight,
+      healthy: this.isAvailable(d, now),
+      ejectedForMs: Math.max(d.ejectedUntil - now, 0),
+      outstanding: d.outstanding,
+      ...d.stats,
+      lastError: d.lastError,
+      scheduler: d.scheduler.getStats()
+    }));
+  }
+}
+
+let pool;
+try {
+  pool = new DeploymentPool(loadDeploymentConfig());
+} catch (error) {
+  logger.error('Invalid Azure OpenAI deployment configuration', error);
+  pool = new DeploymentPool([]);
+}
+
+module.exports = pool;
+module.exports.DeploymentPool = DeploymentPool;
+module.exports.loadDeploymentConfig = loadDeploymentConfig;
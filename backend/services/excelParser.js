@@ -0,0 +1,364 @@
+const path = require('path');
+const { ZipReader, ZipFormatError } = require('../utils/zipReader');
+const { scanElements, parseAttributes, decodeEntities } = require('../utils/xmlScanner');
+
+// Scenarios handed to onScenarios at a time while Test_scenarios is being read
+const SCENARIO_BATCH_SIZE = 100;
+
+const REQUIRED_SHEETS = ['API_detail', 'Test_scenarios'];
+
+// Concatenated <t> runs of a shared or inline string, without phonetic hints
+const readStringItem = (xml) => {
+  const withoutPhonetics = xml.replace(/<(?:[\w.-]+:)?rPh\b[\s\S]*?<\/(?:[\w.-]+:)?rPh>/g, '');
+  let text = '';
+  const pattern = /<(?:[\w.-]+:)?t(?:\s[^>]*)?>([\s\S]*?)<\/(?:[\w.-]+:)?t>/g;
+  let match;
+  while ((match = pattern.exec(withoutPhonetics)) !== null) text += match[1];
+  return decodeEntities(text).replace(/_x([0-9a-fA-F]{4})_/g, (escaped, code) => String.fromCharCode(parseInt(code, 16)));
+};
+
+const columnIndex = (reference) => {
+  const letters = /^[A-Z]+/i.exec(reference || '');
+  if (!letters) return -1;
+  let index = 0;
+  for (const letter of letters[0].toUpperCase()) index = index * 26 + letter.charCodeAt(0) - 64;
+  return index - 1;
+};
+
+const rowIndex = (reference) => {
+  const digits = /\d+$/.exec(reference || '');
+  return digits ? parseInt(digits[0], 10) : -1;
+};
+
+const cellValue = (attributes, body, sharedStrings) => {
+  const valueMatch = /<(?:[\w.-]+:)?v(?:\s[^>]*)?>([\s\S]*?)<\/(?:[\w.-]+:)?v>/.exec(body || '');
+  const raw = valueMatch ? decodeEntities(valueMatch[1]) : undefined;
+
+  switch (attributes.t) {
+    case 's':
+      return raw === undefined ? undefined : sharedStrings[parseInt(raw, 10)];
+    case 'inlineStr':
+      return readStringItem(body || '');
+    case 'b':
+      return raw === undefined ? undefined : raw === '1';
+    case 'str':
+    case 'e':
+    case 'd':
+      return raw;
+    default:
+      return raw === undefined || raw === '' ? undefined : Number(raw);
+  }
+};
+
+// Workbook opened for streaming: sheet names mapped to their part and the shared string table
+class StreamingWorkbook {
+  constructor(zip, sheets, sharedStringsPath) {
+    this.zip = zip;
+    this.sheets = sheets;
+    this.sharedStringsPath = sharedStringsPath;
+    this.sharedStrings = null;
+  }
+
+  static async open(filePath) {
+    const zip = await ZipReader.open(filePath);
+    if (!zip.has('xl/workbook.xml')) throw new ZipFormatError('Not an xlsx workbook');
+
+    const relationships = new Map();
+    let sharedStringsPath = 'xl/sharedStrings.xml';
+    if (zip.has('xl/_rels/workbook.xml.rels')) {
+      const rels = (await zip.readEntry('xl/_rels/workbook.xml.rels')).toString('utf8');
+      for (const match of rels.matchAll(/<(?:[\w.-]+:)?Relationship\b[^>]*>/g)) {
+        const attributes = parseAttributes(match[0]);
+        const target = attributes.Target.startsWith('/')
+          ? attributes.Target.substring(1)
+          : path.posix.join('xl', attributes.Target);
+        relationships.set(attributes.Id, target);
+        if (/\/sharedStrings$/.test(attributes.Type)) sharedStringsPath = target;
+      }
+    }
+
+    const sheets = new Map();
+    const workbookXml = (await zip.readEntry('xl/workbook.xml')).toString('utf8');
+    for (const match of workbookXml.matchAll(/<(?:[\w.-]+:)?sheet\b[^>]*>/g)) {
+      const attributes = parseAttributes(match[0]);
+      const relationAttribute = Object.keys(attributes).find(name => /^[\w.-]+:id$/.test(name));
+      const target = relationAttribute && relationships.get(attributes[relationAttribute]);
+      sheets.set(attributes.name, target || `xl/worksheets/sheet${sheets.size + 1}.xml`);
+    }
+
+    return new StreamingWorkbook(zip, sheets, sharedStringsPath);
+  }
+
+  get sheetNames() {
+    return [...this.sheets.keys()];
+  }
+
+  // The shared string table is needed for random access by index, so it is the one part
+  // kept in memory; it is read lazily and streamed item by item.
+  async loadSharedStrings() {
+    if (this.sharedStrings) return this.sharedStrings;
+    this.sharedStrings = [];
+    if (this.zip.has(this.sharedStringsPath)) {
+      for await (const item of scanElements(await this.zip.openEntryStream(this.sharedStringsPath), ['si'])) {
+        this.sharedStrings.push(readStringItem(item));
+      }
+    }
+    return this.sharedStrings;
+  }
+
+  // Rows of a sheet as value arrays, like XLSX.utils.sheet_to_json(sheet, { header: 1 }):
+  // indexes start at the sheet's first used column and missing rows come out empty.
+  async *rows(sheetName) {
+    const partPath = this.sheets.get(sheetName);
+    if (!partPath || !this.zip.has(partPath)) throw new Error(`Sheet not found: ${sheetName}`);
+    const sharedStrings = await this.loadSharedStrings();
+
+    let firstRow = null;
+    let firstColumn = 0;
+    let nextRow = null;
+    for await (const element of scanElements(await this.zip.openEntryStream(partPath), ['dimension', 'row'])) {
+      const attributes = parseAttributes(element);
+      if (!/^<(?:[\w.-]+:)?row\b/.test(element)) {
+        const start = (attributes.ref || '').split(':')[0];
+        firstRow = rowIndex(start) > 0 ? rowIndex(start) : null;
+        firstColumn = Math.max(columnIndex(start), 0);
+        continue;
+      }
+
+      const number = attributes.r ? parseInt(attributes.r, 10) : (nextRow || firstRow || 1);
+      if (firstRow === null) firstRow = number;
+      if (nextRow === null) nextRow = firstRow;
+      while (nextRow < number) {
+        yield [];
+        nextRow++;
+      }
+      nextRow = number + 1;
+
+      const row = [];
+      let column = firstColumn;
+      const cellPattern = /<(?:[\w.-]+:)?c\b([^>]*?)(?:\/>|>([\s\S]*?)<\/(?:[\w.-]+:)?c>)/g;
+      let match;
+      while ((match = cellPattern.exec(element)) !== null) {
+        const cellAttributes = parseAttributes(`<c${match[1]}>`);
+        const index = cellAttributes.r ? columnIndex(cellAttributes.r) : column;
+        column = index + 1;
+        const value = cellValue(cellAttributes, match[2], sharedStrings);
+        if (value !== undefined && index >= firstColumn) row[index - firstColumn] = value;
+      }
+      yield row;
+    }
+  }
+}
+
+// Fall back to SheetJS for legacy .xls files and anything the streaming reader cannot open.
+// Only the requested sheets are parsed.
+const readRowsWithSheetJs = (filePath, sheetNames) => {
+  const XLSX = require('xlsx');
+  const workbook = XLSX.readFile(filePath, sheetNames ? { sheets: sheetNames } : undefined);
+  return {
+    sheetNames: workbook.SheetNames,
+    async *rows(sheetName) {
+      const sheet = workbook.Sheets[sheetName];
+      if (!sheet) throw new Error(`Sheet not found: ${sheetName}`);
+      yield* XLSX.utils.sheet_to_json(sheet, { header: 1 });
+    }
+  };
+};
+
+const openWorkbook = async (filePath, sheetNames) => {
+  try {
+    return await StreamingWorkbook.open(filePath);
+  } catch (error) {
+    if (!(error instanceof ZipFormatError)) throw error;
+    return readRowsWithSheetJs(filePath, sheetNames);
+  }
+};
+
+const collectRows = async (rows) => {
+  const result = [];
+  for await (const row of rows) result.push(row);
+  return result;
+};
+
+const parseApiDetails = (apiData) => {
+  console.log('DEBUG: Raw Excel data from API_detail sheet:');
+  apiData.forEach((row, index) => {
+    if (index < 20) { // Log first 20 rows for debugging
+      console.log(`Row ${index}:`, row);
+    }
+  });
+
+  const apiDetails = {
+    'Request Type': 'GET',
+    'Request Url': 'https://api.example.com',
+    'Headers': {},
+    'Body': null
+  };
+
+  // More flexible parsing logic
+  for (let i = 0; i < apiData.length; i++) {
+    const row = apiData[i];
+    if (!row || row.length === 0) continue;
+
+    const label = row[0] ? row[0].toString().toLowerCase().trim() : '';
+    const value = row[1];
+
+    console.log(`Processing row ${i}: label="${label}", value="${value}"`);
+
+    // Parse different fields based on row labels
+    if (label.includes('request type') || label.includes('method') || label.includes('http method')) {
+      apiDetails['Request Type'] = value || 'GET';
+      console.log('Set Request Type:', apiDetails['Request Type']);
+    }
+    else if (label.includes('request url') || label.includes('url') || label.includes('endpoint')) {
+      apiDetails['Request Url'] = value || 'https://api.example.com';
+      console.log('Set Request Url:', apiDetails['Request Url']);
+    }
+    else if (label.includes('header') && value) {
+      // Header row format: "Header" | "HeaderName" | "HeaderValue"
+      const headerName = value;
+      const headerValue = row[2];
+      if (headerName && headerValue) {
+        apiDetails.Headers[headerName] = headerValue;
+        console.log(`Added header: ${headerName} = ${headerValue}`);
+      }
+    }
+    else if (label.includes('body') || label.includes('request body') || label.includes('payload')) {
+      apiDetails.Body = value || null;
+      console.log('Set Body:', apiDetails.Body);
+    }
+    // Also try to parse JSON body from multiple formats
+    else if (label.includes('json') || label.includes('data')) {
+      if (value && !apiDetails.Body) {
+        apiDetails.Body = value;
+        console.log('Set Body from JSON/data field:', apiDetails.Body);
+      }
+    }
+  }
+
+  // Fallback parsing for older Excel format
+  if (!apiDetails.Body && apiData.length >= 3) {
+    // Try the old parsing logic as fallback
+    let headerRow = 2;
+    while (headerRow < apiData.length && apiData[headerRow] && apiData[headerRow][1]) {
+      const headerName = apiData[headerRow][1];
+      const headerValue = apiData[headerRow][2];
+      if (headerName && headerValue && !apiDetails.Headers[headerName]) {
+        apiDetails.Headers[headerName] = headerValue;
+      }
+      headerRow++;
+    }
+
+    // Try to find body after headers
+    if (headerRow < apiData.length && apiData[headerRow] && apiData[headerRow][1]) {
+      apiDetails.Body = apiData[headerRow][1];
+      console.log('Set Body from fallback logic:', apiDetails.Body);
+    }
+  }
+
+  console.log('DEBUG: Final API Details:', JSON.stringify(apiDetails, null, 2));
+
+  // Add a sample body if none was found for testing
+  if (!apiDetails.Body) {
+    apiDetails.Body = '{"message": "Sample request body", "timestamp": "2025-01-01T00:00:00Z"}';
+    console.log('DEBUG: Added sample body since none was found');
+  }
+
+  return apiDetails;
+};
+
+// Stream scenario objects out of the Test_scenarios sheet, skipping the header row
+const streamScenarios = async function* (workbook) {
+  let header = true;
+  for await (const row of workbook.rows('Test_scenarios')) {
+    if (header) {
+      header = false;
+      continue;
+    }
+    if (!row[0]) continue;
+    yield {
+      'Test Name': row[0],
+      'Steps': row[1] || 'No steps provided',
+      'Expected Result': row[2] || 'No expected result'
+    };
+  }
+};
+
+// Read apiDetails and scenarios from a scenario workbook. Only API_detail and Test_scenarios
+// are read, row by row; onScenarios(batch, total) receives the scenarios as they are parsed.
+const parseExcel = async (filePath, { onScenarios = () => {} } = {}) => {
+  try {
+    const workbook = await openWorkbook(filePath, REQUIRED_SHEETS);
+
+    if (!REQUIRED_SHEETS.every(name => workbook.sheetNames.includes(name))) {
+      throw new Error("Excel file missing required sheets: 'API_detail' and 'Test_scenarios'");
+    }
+
+    const apiDetails = parseApiDetails(await collectRows(workbook.rows('API_detail')));
+
+    const scenarios = [];
+    let batch = [];
+    for await (const scenario of streamScenarios(workbook)) {
+      scenarios.push(scenario);
+      batch.push(scenario);
+      if (batch.length >= SCENARIO_BATCH_SIZE) {
+        onScenarios(batch, scenarios.length);
+        batch = [];
+      }
+    }
+    if (batch.length > 0) onScenarios(batch, scenarios.length);
+
+    if (scenarios.length === 0) {
+      scenarios.push({
+        "Test Name": "Default Test",
+        "Steps": "Send GET request",
+        "Expected Result": "200 OK"
+      });
+    }
+
+    return { apiDetails, scenarios };
+  } catch (error) {
+    throw new Error(`Failed to parse Excel file: ${error.message}`);
+  }
+};
+
+// Header names the way XLSX.utils.sheet_to_json names object keys
+const objectKeys = (headerRow) => {
+  const seen = new Map();
+  const keys = [];
+  for (let i = 0; i < headerRow.length; i++) {
+    const base = headerRow[i] === undefined ? '__EMPTY' : String(headerRow[i]);
+    const count = seen.get(base) || 0;
+    seen.set(base, count + 1);
+    keys.push(count === 0 ? base : `${base}_${count}`);
+  }
+  return keys;
+};
+
+// First sheet as row objects keyed by the header row. Only the first maxRows objects are
+// kept; the rest are counted.
+const readFirstSheetObjects = async (filePath, { maxRows = 50 } = {}) => {
+  const workbook = await openWorkbook(filePath);
+  const sheetName = workbook.sheetNames[0];
+  const rows = [];
+  let keys = null;
+  let totalRows = 0;
+
+  for await (const row of workbook.rows(sheetName)) {
+    if (!keys) {
+      keys = objectKeys(row);
+      continue;
+    }
+    const object = {};
+    row.forEach((value, index) => {
+      if (value !== undefined && index < keys.length) object[keys[index]] = value;
+    });
+    if (Object.keys(object).length === 0) continue;
+    totalRows++;
+    if (rows.length < maxRows) rows.push(object);
+  }
+
+  return { sheetName, sheetCount: workbook.sheetNames.length, rows, totalRows };
+};
+
+module.exports = { parseExcel, readFirstSheetObjects, openWorkbook };
@@ -0,0 +1,121 @@
+// Helpers for splitting a model completion into the method and test files
+
+const METHOD_MARKER = '=== METHOD FILE ===';
+const TEST_MARKER = '=== TEST FILE ===';
+
+// Split a complete response into method and test files
+const splitGeneratedContent = (generatedContent) => {
+  let generatedMethodFile = '';
+  let generatedTestFile = '';
+
+  if (generatedContent.includes(METHOD_MARKER) && generatedContent.includes(TEST_MARKER)) {
+    // Parse structured response
+    const methodStart = generatedContent.indexOf(METHOD_MARKER) + METHOD_MARKER.length;
+    const testStart = generatedContent.indexOf(TEST_MARKER);
+    const testContentStart = testStart + TEST_MARKER.length;
+
+    generatedMethodFile = generatedContent.substring(methodStart, testStart).trim();
+    generatedTestFile = generatedContent.substring(testContentStart).trim();
+  } else {
+    // Fallback: try to split by common Java patterns
+    const lines = generatedContent.split('\n');
+    let currentSection = 'method';
+    let methodLines = [];
+    let testLines = [];
+
+    for (const line of lines) {
+      if (line.includes('@Test') || line.includes('public class') && line.includes('Test')) {
+        currentSection = 'test';
+      }
+
+      if (currentSection === 'method') {
+        methodLines.push(line);
+      } else {
+        testLines.push(line);
+      }
+    }
+
+    generatedMethodFile = methodLines.join('\n').trim();
+    generatedTestFile = testLines.join('\n').trim();
+
+    // If we couldn't split properly, use the original approach
+    if (!generatedMethodFile || !generatedTestFile) {
+      console.warn('Could not parse structured response, using single file approach');
+      generatedMethodFile = generatedContent;
+      generatedTestFile = generatedContent;
+    }
+  }
+
+  return { methodFile: generatedMethodFile, testFile: generatedTestFile };
+};
+
+// Incremental splitter for streamed completions. Feed it content deltas as they arrive
+// and it returns the pieces that belong to the method or test file. Text that could be
+// the start of a marker is held back until the next delta decides it.
+class GeneratedFileSplitter {
+  constructor() {
+    this.section = null; // null until the method marker has been seen
+    this.pending = '';
+  }
+
+  push(delta) {
+    this.pending += delta;
+    const parts = [];
+
+    while (true) {
+      const marker = this.section === null ? METHOD_MARKER
+        : this.section === 'method' ? TEST_MARKER
+        : null;
+
+      if (!marker) {
+        this.emit(parts, this.pending);
+        this.pending = '';
+        break;
+      }
+
+      const markerIndex = this.pending.indexOf(marker);
+      if (markerIndex !== -1) {
+        this.emit(parts, this.pending.substring(0, markerIndex));
+        this.pending = this.pending.substring(markerIndex + marker.length).replace(/^\s*\n/, '');
+        this.section = this.section === null ? 'method' : 'test';
+        continue;
+      }
+
+      // Keep a possible partial marker at the end for the next delta
+      const holdBack = this.partialMarkerLength(marker);
+      this.emit(parts, this.pending.substring(0, this.pending.length - holdBack));
+      this.pending = this.pending.substring(this.pending.length - holdBack);
+      break;
+    }
+
+    return parts;
+  }
+
+  // Whatever is still held back once the stream has ended
+  flush() {
+    const parts = [];
+    this.emit(parts, this.pending);
+    this.pending = '';
+    return parts;
+  }
+
+  emit(parts, text) {
+    // Preamble before the method marker is not part of either file
+    if (!text || this.section === null) return;
+    parts.push({ section: this.section, delta: text });
+  }
+
+  partialMarkerLength(marker) {
+    for (let length = Math.min(marker.length - 1, this.pending.length); length > 0; length--) {
+      if (this.pending.endsWith(marker.substring(0, length))) return length;
+    }
+    return 0;
+  }
+}
+
+module.exports = {
+  METHOD_MARKER,
+  TEST_MARKER,
+  splitGeneratedContent,
+  GeneratedFileSplitter
+};
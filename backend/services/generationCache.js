@@ -0,0 +1,94 @@
+const crypto = require('crypto');
+const LruCache = require('../utils/lruCache');
+const logger = require('../utils/logger');
+
+// Generations run with temperature 0, so identical inputs produce interchangeable output
+const MAX_BYTES = parseInt(process.env.GENERATION_CACHE_MAX_BYTES, 10) || 50 * 1024 * 1024;
+const TTL_MS = parseInt(process.env.GENERATION_CACHE_TTL_MS, 10) || 24 * 60 * 60 * 1000;
+
+// JSON.stringify with sorted object keys so equal inputs always hash the same
+const stableStringify = (value) => {
+  if (Array.isArray(value)) {
+    return `[${value.map(stableStringify).join(',')}]`;
+  }
+  if (value && typeof value === 'object') {
+    return `{${Object.keys(value).sort().map(key => `${JSON.stringify(key)}:${stableStringify(value[key])}`).join(',')}}`;
+  }
+  return JSON.stringify(value === undefined ? null : value);
+};
+
+class GenerationCache {
+  constructor({ maxBytes = MAX_BYTES, ttlMs = TTL_MS } = {}) {
+    this.cache = new LruCache({
+      maxSize: maxBytes,
+      ttlMs,
+      sizeOf: (value) => Buffer.byteLength(value.methodFile, 'utf8') + Buffer.byteLength(value.testFile, 'utf8')
+    });
+    this.inFlight = new Map();
+    this.coalesced = 0;
+  }
+
+  // The cache is local to each cluster worker; copying every result to every worker over IPC
+  // would cost each of them the memory of all the others' generations
+  store(key, result) {
+    this.cache.set(key, result);
+  }
+
+  // Content address of a generation: inputs, templates, deployment and prompt/model parameters
+  computeKey({ apiDetails, scenarios, methodFileContent, testFileContent, deployment, promptVersion, parameters }) {
+    return crypto.createHash('sha256')
+      .update(stableStringify({ apiDetails, scenarios, deployment, promptVersion, parameters }))
+      .update('\0')
+      .update(methodFileContent)
+      .update('\0')
+      .update(testFileContent)
+      .digest('hex');
+  }
+
+  // Return the stored result for key, join an identical in-flight generation, or run generate().
+  // Resolves with { result, cacheStatus } where cacheStatus is hit, coalesced, miss or bypass.
+  async getOrGenerate(key, generate, { bypass = false } = {}) {
+    if (bypass) {
+      const result = await generate();
+      this.store(key, result);
+      return { result, cacheStatus: 'bypass' };
+    }
+
+    const cached = this.cache.get(key);
+    if (cached) {
+      logger.info('Generation cache hit', { key: key.substring(0, 12) });
+      return { result: cached, cacheStatus: 'hit' };
+    }
+
+    if (this.inFlight.has(key)) {
+      this.coalesced++;
+      logger.info('Joining in-flight generation', { key: key.substring(0, 12) });
+      const result = await this.inFlight.get(key);
+      return { result, cacheStatus: 'coalesced' };
+    }
+
+    const pending = Promise.resolve()
+      .then(generate)
+      .then((result) => {
+        this.store(key, result);
+        return result;
+      })
+      .finally(() => this.inFlight.delete(key));
+
+    this.inFlight.set(key, pending);
+    const result = await pending;
+    return { result, cacheStatus: 'miss' };
+  }
+
+  getStats() {
+    return {
+      ...this.cache.getStats(),
+      inFlight: this.inFlight.size,
+      coalesced: this.coalesced
+    };
+  }
+}
+
+module.exports = new GenerationCache();
+module.exports.GenerationCache = GenerationCache;
+module.exports.stableStringify = stableStringify;
@@ -0,0 +1,316 @@
+const { EventEmitter } = require('events');
+const crypto = require('crypto');
+const logger = require('../utils/logger');
+const clusterBus = require('../utils/clusterBus');
+
+// Finished jobs are kept around so clients can still poll for the result
+const JOB_TTL_MS = parseInt(process.env.GENERATION_JOB_TTL_MS, 10) || 60 * 60 * 1000;
+// Number of pipelines allowed to run at the same time, the rest wait in the queue
+const JOB_CONCURRENCY = parseInt(process.env.GENERATION_JOB_CONCURRENCY, 10) || 4;
+// Jobs allowed to wait for a slot, in total and per user; further submissions are refused
+// with code JOBS_QUEUE_FULL or JOBS_OWNER_QUEUE_FULL
+const MAX_QUEUE = parseInt(process.env.GENERATION_JOB_MAX_QUEUE, 10) || 100;
+const MAX_QUEUE_PER_OWNER = parseInt(process.env.GENERATION_JOB_MAX_QUEUE_PER_USER, 10) || 5;
+// Streamed file contents are batched into one event per section at most this often
+const PARTIAL_FLUSH_MS = 150;
+
+const TERMINAL_STATUSES = ['completed', 'failed'];
+
+class GenerationJobStore extends EventEmitter {
+  constructor({ ttlMs = JOB_TTL_MS, concurrency = JOB_CONCURRENCY, maxQueue = MAX_QUEUE, maxQueuePerOwner = MAX_QUEUE_PER_OWNER } = {}) {
+    super();
+    this.setMaxListeners(0);
+    this.jobs = new Map();
+    this.pendingPartials = new Map();
+    this.queue = [];
+    this.running = 0;
+    this.ttlMs = ttlMs;
+    this.concurrency = concurrency;
+    this.maxQueue = maxQueue;
+    this.maxQueuePerOwner = maxQueuePerOwner;
+    this.stats = { rejected: 0 };
+
+    this.cleanupTimer = setInterval(() => this.removeExpired(), Math.min(ttlMs, 5 * 60 * 1000));
+    this.cleanupTimer.unref();
+
+    // In cluster mode every worker keeps a replica of every job, so status polls and event
+    // streams work whichever worker serves them; only the submitting worker runs the pipeline
+    clusterBus.on('jobs', (message) => this.applyReplicated(message));
+    clusterBus.on('worker-exit', ({ pid }) => this.failOrphaned(pid));
+    clusterBus.publish('jobs', { op: 'sync-request' });
+  }
+
+  // Register a job and schedule its pipeline; returns immediately. uploads lists the uploaded
+  // files the pipeline reads, so they are not cleaned up while the job waits or runs.
+  // Throws when the queue, or the owner's share of it, is full.
+  submit(owner, run, { uploads = [] } = {}) {
+    const ownerId = owner ? owner.toString() : null;
+    const mustQueue = this.running >= this.concurrency;
+    if (mustQueue && this.queue.length >= this.maxQueue) {
+      throw this.rejection('Too many generation jobs are waiting, try again shortly', 'JOBS_QUEUE_FULL');
+    }
+    if (mustQueue && this.queue.filter(entry => entry.owner === ownerId).length >= this.maxQueuePerOwner) {
+      throw this.rejection(`At most ${this.maxQueuePerOwner} generation jobs can wait per user`, 'JOBS_OWNER_QUEUE_FULL');
+    }
+
+    const id = crypto.randomUUID();
+    const now = new Date().toISOString();
+    const job = {
+      id,
+      owner: ownerId,
+      uploads,
+      status: 'queued',
+      stage: null,
+      events: [],
+      result: null,
+      error: null,
+      createdAt: now,
+      updatedAt: now,
+      finishedAt: null,
+      worker: process.pid
+    };
+
+    this.jobs.set(id, job);
+    this.queue.push({ id, owner: ownerId, run });
+    this.record(job, { type: 'queued', message: 'Job queued' });
+    this.drain();
+    return job;
+  }
+
+  rejection(message, code) {
+    this.stats.rejected++;
+    const error = new Error(message);
+    error.code = code;
+    return error;
+  }
+
+  drain() {
+    while (this.running < this.concurrency && this.queue.length > 0) {
+      const { id, run } = this.queue.shift();
+      const job = this.jobs.get(id);
+      if (!job) continue;
+
+      this.running++;
+      job.status = 'running';
+      this.record(job, { type: 'started', message: 'Job started' });
+
+      const reportProgress = (stage, message, data) => this.progress(id, stage, message, data);
+      const reportPartial = (section, delta) => this.partial(id, section, delta);
+      Promise.resolve()
+        .then(() => run(reportProgress, reportPartial))
+        .then(result => this.complete(id, result))
+        .catch(error => this.fail(id, error))
+        .finally(() => {
+          this.running--;
+          this.drain();
+        });
+    }
+  }
+
+  progress(id, stage, message, data = null) {
+    const job = this.jobs.get(id);
+    if (!job || TERMINAL_STATUSES.includes(job.status)) return;
+    job.stage = stage;
+    this.record(job, { type: 'progress', stage, message, data });
+  }
+
+  // Buffer a piece of a streamed method/test file; flushed as a 'partial' event
+  partial(id, section, delta) {
+    const job = this.jobs.get(id);
+    if (!job || TERMINAL_STATUSES.includes(job.status) || !delta) return;
+
+    let pending = this.pendingPartials.get(id);
+    if (!pending) {
+      pending = { method: '', test: '', timer: null };
+      this.pendingPartials.set(id, pending);
+    }
+    pending[section] += delta;
+
+    if (!pending.timer) {
+      pending.timer = setTimeout(() => this.flushPartials(id), PARTIAL_FLUSH_MS);
+    }
+  }
+
+  flushPartials(id) {
+    const pending = this.pendingPartials.get(id);
+    const job = this.jobs.get(id);
+    if (!pending) return;
+
+    clearTimeout(pending.timer);
+    this.pendingPartials.delete(id);
+    if (!job) return;
+
+    ['method', 'test'].forEach(section => {
+      if (pending[section]) {
+        this.record(job, { type: 'partial', stage: 'generate', section, delta: pending[section] });
+      }
+    });
+  }
+
+  complete(id, result) {
+    const job = this.jobs.get(id);
+    if (!job) return;
+    this.flushPartials(id);
+    job.status = 'completed';
+    job.result = result;
+    job.finishedAt = new Date().toISOString();
+    this.record(job, { type: 'completed', message: 'Generation completed' });
+    logger.info('Generation job completed', { jobId: id });
+  }
+
+  fail(id, error) {
+    const job = this.jobs.get(id);
+    if (!job) return;
+    this.flushPartials(id);
+    job.status = 'failed';
+    job.error = error.message;
+    job.finishedAt = new Date().toISOString();
+    this.record(job, { type: 'failed', message: error.message });
+    logger.error(`Generation job ${id} failed`, error);
+  }
+
+  record(job, event) {
+    const entry = this.append(job, event);
+    clusterBus.publish('jobs', { op: 'event', state: this.replicatedState(job, entry), event: entry });
+  }
+
+  // Add an event to this worker's copy of a job and notify its subscribers
+  append(job, event) {
+    const entry = {
+      id: job.events.length + 1,
+      jobId: job.id,
+      timestamp: new Date().toISOString(),
+      ...event
+    };
+    job.events.push(entry);
+    job.updatedAt = entry.timestamp;
+    this.emit(`job:${job.id}`, entry, job);
+    return entry;
+  }
+
+  // The worker running these jobs exited before finishing them (a crash, or killed while
+  // retiring), so no finish event will come. Every worker fails its own replicas, which ends
+  // polls and event streams and lets the jobs expire like any other.
+  failOrphaned(pid) {
+    for (const job of this.jobs.values()) {
+      if (job.worker !== pid || this.isFinished(job)) continue;
+      job.status = 'failed';
+      job.error = 'The server process running this job stopped before it finished';
+      job.finishedAt = new Date().toISOString();
+      this.append(job, { type: 'failed', message: job.error });
+      logger.warn('Generation job lost with its worker', { jobId: job.id, worker: pid });
+    }
+  }
+
+  // Job fields sent to the other workers with an event. The event carries only its own delta,
+  // and the result goes out once, with the completed event, instead of with every update.
+  replicatedState(job, event) {
+    const { events, result, ...state } = job;
+    if (event.type === 'completed') state.result = result;
+    return state;
+  }
+
+  applyReplicated({ op, state, event, jobs }) {
+    if (op === 'sync-request') {
+      // A new worker joined; send it the jobs this worker runs
+      const owned = [...this.jobs.values()].filter(job => job.worker === process.pid);
+      if (owned.length > 0) clusterBus.publish('jobs', { op: 'snapshot', jobs: owned });
+      return;
+    }
+
+    if (op === 'snapshot') {
+      jobs.forEach(remote => {
+        const local = this.jobs.get(remote.id);
+        if (!local || local.events.length < remote.events.length) this.jobs.set(remote.id, remote);
+      });
+      return;
+    }
+
+    if (op === 'event') {
+      let job = this.jobs.get(state.id);
+      if (!job) {
+        job = { ...state, events: [] };
+        this.jobs.set(state.id, job);
+      }
+      // A job failed here after its worker exited stays failed
+      if (this.isFinished(job)) return;
+      Object.assign(job, state);
+      if (event.id > job.events.length) {
+        job.events.push(event);
+        this.emit(`job:${job.id}`, event, job);
+      }
+    }
+  }
+
+  // No pipelines running or waiting on this worker
+  isIdle() {
+    return this.running === 0 && this.queue.length === 0;
+  }
+
+  get(id) {
+    return this.jobs.get(id) || null;
+  }
+
+  // Files jobs still need: the uploads of unfinished jobs and the generated files of finished
+  // jobs whose result can still be fetched
+  referencedFiles() {
+    const uploads = new Set();
+    const outputs = new Set();
+    for (const job of this.jobs.values()) {
+      if (!this.isFinished(job)) {
+        (job.uploads || []).forEach(file => uploads.add(file));
+      } else if (job.result) {
+        [job.result.methodFilename, job.result.testFilename, job.result.combinedFilename]
+          .filter(Boolean)
+          .forEach(file => outputs.add(file));
+      }
+    }
+    return { uploads, outputs };
+  }
+
+  isFinished(job) {
+    return TERMINAL_STATUSES.includes(job.status);
+  }
+
+  // Listen for new events of a job; returns the unsubscribe function
+  subscribe(id, listener) {
+    const eventName = `job:${id}`;
+    this.on(eventName, listener);
+    return () => this.off(eventName, listener);
+  }
+
+  getStats() {
+    return { ...this.stats, running: this.running, queued: this.queue.length, maxQueue: this.maxQueue };
+  }
+
+  // Public view of a job, without the full event history unless asked for. afterEventId
+  // includes the events after that one, so a polling client sees every event once.
+  toJSON(job, { includeEvents = false, afterEventId = null } = {}) {
+    const view = {
+      jobId: job.id,
+      status: job.status,
+      stage: job.stage,
+      createdAt: job.createdAt,
+      updatedAt: job.updatedAt,
+      finishedAt: job.finishedAt,
+      lastEvent: job.events[job.events.length - 1] || null,
+      result: job.result,
+      error: job.error
+    };
+    if (includeEvents) view.events = job.events;
+    else if (afterEventId !== null) view.events = job.events.filter(event => event.id > afterEventId);
+    return view;
+  }
+
+  removeExpired() {
+    const cutoff = Date.now() - this.ttlMs;
+    for (const [id, job] of this.jobs) {
+      if (job.finishedAt && new Date(job.finishedAt).getTime() < cutoff) {
+        this.jobs.delete(id);
+      }
+    }
+  }
+}
+
+module.exports = new GenerationJobStore();
+module.exports.GenerationJobStore = GenerationJobStore;
@@ -0,0 +1,98 @@
+const http = require('http');
+const https = require('https');
+const axios = require('axios');
+const metrics = require('./metrics');
+
+// Idle sockets are closed after this long; kept below the usual load balancer idle timeout
+const FREE_SOCKET_TIMEOUT_MS = parseInt(process.env.HTTP_FREE_SOCKET_TIMEOUT_MS, 10) || 30000;
+
+const createAgents = ({ maxSockets, maxFreeSockets }) => {
+  const options = {
+    keepAlive: true,
+    keepAliveMsecs: 15000,
+    maxSockets,
+    maxFreeSockets,
+    timeout: FREE_SOCKET_TIMEOUT_MS,
+    scheduling: 'lifo'
+  };
+  return { httpAgent: new http.Agent(options), httpsAgent: new https.Agent(options) };
+};
+
+const countSockets = (sockets) =>
+  Object.values(sockets).reduce((total, list) => total + list.length, 0);
+
+// Seconds since the request interceptor stamped the request, or null when it was not stamped
+const elapsedSeconds = (config) =>
+  config && config.metadata ? Number(process.hrtime.bigint() - config.metadata.startedAt) / 1e9 : null;
+
+// axios instance for one upstream with its own keep-alive socket pool. Counts how many
+// requests went out on a reused connection and how many had to open a new one, and records
+// latency and status in the /metrics histograms.
+const createClient = (name, { maxSockets, maxFreeSockets, headers = {} }) => {
+  const agents = createAgents({ maxSockets, maxFreeSockets });
+  const client = axios.create({
+    ...agents,
+    decompress: true,
+    headers: { 'Accept-Encoding': 'gzip, deflate, br', ...headers }
+  });
+  const stats = { requests: 0, reusedConnections: 0, newConnections: 0, errors: 0 };
+
+  const recordConnection = (request) => {
+    if (!request || request.reusedSocket === undefined) return;
+    stats.requests++;
+    if (request.reusedSocket) stats.reusedConnections++;
+    else stats.newConnections++;
+  };
+
+  client.interceptors.request.use((config) => {
+    config.metadata = { startedAt: process.hrtime.bigint() };
+    return config;
+  });
+
+  client.interceptors.response.use(
+    (response) => {
+      recordConnection(response.request);
+      metrics.observeUpstream(name, response.status, elapsedSeconds(response.config));
+      // Streamed completions carry their usage in the stream, if at all
+      if (response.data && response.data.usage) metrics.recordTokenUsage(response.data.usage);
+      return response;
+    },
+    (error) => {
+      stats.errors++;
+      recordConnection(error.request);
+      const status = error.response ? error.response.status : error.code || 'error';
+      metrics.observeUpstream(name, status, elapsedSeconds(error.config));
+      return Promise.reject(error);
+    }
+  );
+
+  client.getStats = () => {
+    const agent = agents.httpsAgent;
+    return {
+      name,
+      ...stats,
+      reuseRatio: stats.requests > 0 ? stats.reusedConnections / stats.requests : 0,
+      activeSockets: countSockets(agent.sockets) + countSockets(agents.httpAgent.sockets),
+      freeSockets: countSockets(agent.freeSockets) + countSockets(agents.httpAgent.freeSockets),
+      queuedRequests: countSockets(agent.requests) + countSockets(agents.httpAgent.requests),
+      maxSockets
+    };
+  };
+  return client;
+};
+
+const azureClient = createClient('azure-openai', {
+  maxSockets: parseInt(process.env.AZURE_OPENAI_MAX_SOCKETS, 10) || 32,
+  maxFreeSockets: 16,
+  headers: { 'Content-Type': 'application/json' }
+});
+
+const testrailClient = createClient('testrail', {
+  maxSockets: parseInt(process.env.TESTRAIL_MAX_SOCKETS, 10) || 8,
+  maxFreeSockets: 4,
+  headers: { 'Content-Type': 'application/json' }
+});
+
+const getHttpClientStats = () => [azureClient.getStats(), testrailClient.getStats()];
+
+module.exports = { azureClient, testrailClient, getHttpClientStats };
@@ -0,0 +1,96 @@
+const path = require('path');
+const fs = require('fs-extra');
+const logger = require('../utils/logger');
+const clusterBus = require('../utils/clusterBus');
+
+const POINTERS_FILE = 'latest-artifacts.json';
+// Pointers for saves that happen in quick succession are written to disk together
+const PERSIST_DELAY_MS = 1000;
+// Key used for the newest artifact of a type regardless of its owner
+const ANY_OWNER = '*';
+
+// Newest generated file per owner and type, so "give me the latest combined file" is a map
+// lookup instead of a directory scan. Pointers are updated when files are saved, replicated
+// to the other cluster workers and persisted next to the files to survive restarts.
+class LatestArtifacts {
+  constructor() {
+    this.pointers = new Map();
+    this.filePath = null;
+    this.persistTimer = null;
+
+    clusterBus.on('latest-artifact', ({ owner, type, filename, createdAt }) =>
+      this.apply(owner, type, filename, createdAt));
+  }
+
+  // Load the persisted pointers; called once at startup with the output directory
+  load(outputDir) {
+    this.filePath = path.join(outputDir, POINTERS_FILE);
+    try {
+      const saved = fs.readJsonSync(this.filePath, { throws: false }) || {};
+      Object.entries(saved).forEach(([key, pointer]) => this.pointers.set(key, pointer));
+    } catch (error) {
+      logger.warn('Could not read latest artifact pointers', { error: error.message });
+    }
+    return this.pointers.size;
+  }
+
+  // Keep a pointer only when it is newer than the current one; saves can complete out of order
+  apply(owner, type, filename, createdAt) {
+    let changed = false;
+    [owner ? String(owner) : null, ANY_OWNER].filter(Boolean).forEach(ownerKey => {
+      const key = `${ownerKey}|${type}`;
+      const current = this.pointers.get(key);
+      if (!current || current.createdAt < createdAt) {
+        this.pointers.set(key, { filename, createdAt });
+        changed = true;
+      }
+    });
+    if (changed) this.schedulePersist();
+    return changed;
+  }
+
+  record({ owner = null, type, filename, createdAt = new Date() }) {
+    const timestamp = new Date(createdAt).toISOString();
+    if (this.apply(owner, type, filename, timestamp)) {
+      clusterBus.publish('latest-artifact', { owner: owner && String(owner), type, filename, createdAt: timestamp });
+    }
+  }
+
+  // File name of the newest artifact of this type for owner (any owner when not given)
+  get(type, owner = null) {
+    const pointer = this.pointers.get(`${owner ? String(owner) : ANY_OWNER}|${type}`);
+    return pointer ? pointer.filename : null;
+  }
+
+  // Every file name a pointer refers to
+  referencedFilenames() {
+    return new Set([...this.pointers.values()].map(pointer => pointer.filename));
+  }
+
+  schedulePersist() {
+    if (!this.filePath || this.persistTimer) return;
+    this.persistTimer = setTimeout(() => {
+      this.persistTimer = null;
+      this.persist().catch(error => logger.error('Failed to persist latest artifact pointers', error));
+    }, PERSIST_DELAY_MS);
+    this.persistTimer.unref();
+  }
+
+  // Write pending pointers now, e.g. before the process exits
+  async flush() {
+    if (!this.persistTimer) return;
+    clearTimeout(this.persistTimer);
+    this.persistTimer = null;
+    await this.persist();
+  }
+
+  // Write to a temporary file first so a crash never leaves a truncated pointer file
+  async persist() {
+    const tmpPath = `${this.filePath}.${process.pid}.tmp`;
+    await fs.writeFile(tmpPath, JSON.stringify(Object.fromEntries(this.pointers)), 'utf8');
+    await fs.rename(tmpPath, this.filePath);
+  }
+}
+
+module.exports = new LatestArtifacts();
+module.exports.LatestArtifacts = LatestArtifacts;
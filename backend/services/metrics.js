@@ -0,0 +1,177 @@
+const crypto = require('crypto');
+const { monitorEventLoopDelay } = require('perf_hooks');
+const clusterBus = require('../utils/clusterBus');
+const { Registry, mergeSnapshots, render } = require('../utils/metrics');
+
+// How long a scrape waits for the other cluster workers to send their metrics
+const CLUSTER_TIMEOUT_MS = parseInt(process.env.METRICS_CLUSTER_TIMEOUT_MS, 10) || 1000;
+
+const KB = 1024;
+const MB = 1024 * KB;
+
+// Application metrics, served at /metrics. In cluster mode a scrape of any worker returns the
+// metrics of every worker that answers in time, each series with the pid of its worker.
+const registry = new Registry();
+
+const generationSeconds = registry.histogram(
+  'generation_duration_seconds',
+  'Duration of a generation pipeline run',
+  ['outcome', 'cache'],
+  [0.5, 1, 2.5, 5, 10, 20, 30, 60, 120, 300, 600]
+);
+
+// Stages are the ones reported to clients as progress: validate, read-templates,
+// analyze-templates, parse-data (Excel or TestRail), generate (Azure OpenAI) and save
+const generationStageSeconds = registry.histogram(
+  'generation_stage_duration_seconds',
+  'Duration of each stage of a generation pipeline run',
+  ['stage', 'outcome'],
+  [0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300]
+);
+
+const upstreamSeconds = registry.histogram(
+  'upstream_request_duration_seconds',
+  'Time from sending an Azure OpenAI or TestRail request to its response headers',
+  ['upstream', 'status'],
+  [0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 20, 30, 60, 120]
+);
+
+// For streamed completions the response headers arrive long before the content; this covers
+// the whole completion, from sending the request until the stream ends
+const upstreamStreamSeconds = registry.histogram(
+  'upstream_stream_duration_seconds',
+  'Time from sending a streamed Azure OpenAI request until its stream ended',
+  ['upstream', 'outcome'],
+  [0.5, 1, 2.5, 5, 10, 20, 30, 60, 120, 300]
+);
+
+const upstreamRequests = registry.counter(
+  'upstream_requests_total',
+  'Azure OpenAI and TestRail requests by response status, or error code when there was no response',
+  ['upstream', 'status']
+);
+
+const azureTokens = registry.counter(
+  'azure_openai_tokens_total',
+  'Tokens reported in Azure OpenAI usage, by prompt and completion',
+  ['type']
+);
+
+const uploadBytes = registry.histogram(
+  'upload_size_bytes',
+  'Size of uploaded files by form field',
+  ['field'],
+  [KB, 10 * KB, 50 * KB, 100 * KB, 500 * KB, MB, 5 * MB, 10 * MB, 50 * MB]
+);
+
+// Event loop delay since the previous scrape; a growing p99 means the loop is being blocked
+const eventLoopDelay = monitorEventLoopDelay({ resolution: 10 });
+eventLoopDelay.enable();
+const eventLoopLag = registry.gauge('nodejs_eventloop_lag_seconds', 'Event loop delay since the previous scrape', ['quantile']);
+const heapUsed = registry.gauge('nodejs_heap_used_bytes', 'V8 heap in use');
+const heapTotal = registry.gauge('nodejs_heap_total_bytes', 'V8 heap allocated');
+const externalMemory = registry.gauge('nodejs_external_memory_bytes', 'Memory of C++ objects bound to JavaScript, such as buffers');
+const residentMemory = registry.gauge('process_resident_memory_bytes', 'Resident set size of the process');
+
+registry.onCollect(() => {
+  const seconds = (nanoseconds) => (Number.isFinite(nanoseconds) ? nanoseconds / 1e9 : 0);
+  if (eventLoopDelay.count > 0) {
+    eventLoopLag.set({ quantile: '0.5' }, seconds(eventLoopDelay.percentile(50)));
+    eventLoopLag.set({ quantile: '0.99' }, seconds(eventLoopDelay.percentile(99)));
+    eventLoopLag.set({ quantile: '1' }, seconds(eventLoopDelay.max));
+  }
+  eventLoopDelay.reset();
+
+  const memory = process.memoryUsage();
+  heapUsed.set({}, memory.heapUsed);
+  heapTotal.set({}, memory.heapTotal);
+  externalMemory.set({}, memory.external);
+  residentMemory.set({}, memory.rss);
+});
+
+// Time the stages of a pipeline run from its progress reports: a stage lasts from its first
+// report until the first report of another stage, or the end of the run
+const stageTimer = () => {
+  let current = null;
+  let stopTimer = null;
+  const finish = (outcome) => {
+    if (stopTimer) stopTimer({ outcome });
+    current = null;
+    stopTimer = null;
+  };
+  return {
+    enter(stage) {
+      if (stage === current) return;
+      finish('success');
+      current = stage;
+      stopTimer = generationStageSeconds.startTimer({ stage });
+    },
+    finish
+  };
+};
+
+const observeUpstream = (upstream, status, seconds) => {
+  upstreamRequests.inc({ upstream, status });
+  if (seconds !== null) upstreamSeconds.observe({ upstream, status }, seconds);
+};
+
+// Start timing a streamed request; call the result with 'success' or 'error' when it ends
+const streamTimer = (upstream) => {
+  const stopTimer = upstreamStreamSeconds.startTimer({ upstream });
+  return (outcome) => stopTimer({ outcome });
+};
+
+const recordTokenUsage = (usage) => {
+  if (!usage) return;
+  if (usage.prompt_tokens) azureTokens.inc({ type: 'prompt' }, usage.prompt_tokens);
+  if (usage.completion_tokens) azureTokens.inc({ type: 'completion' }, usage.completion_tokens);
+};
+
+const observeUpload = (field, size) => uploadBytes.observe({ field }, size);
+
+// Scrapes waiting for the snapshots of the other workers, by request ID
+const pendingScrapes = new Map();
+
+clusterBus.on('metrics-request', ({ id }, origin) => {
+  clusterBus.publish('metrics-snapshot', { id, to: origin, pid: process.pid, metrics: registry.snapshot() });
+});
+
+clusterBus.on('metrics-snapshot', ({ id, to, pid, metrics }) => {
+  if (to !== process.pid) return;
+  const scrape = pendingScrapes.get(id);
+  if (!scrape) return;
+  scrape.snapshots.push({ pid, metrics });
+  if (scrape.snapshots.length >= clusterBus.workerCount) scrape.done();
+});
+
+// Snapshots of this process and, in cluster mode, of every worker that answers in time
+const collectSnapshots = () => {
+  const own = { pid: process.pid, metrics: registry.snapshot() };
+  if (!clusterBus.enabled || clusterBus.workerCount <= 1) return Promise.resolve([own]);
+
+  return new Promise((resolve) => {
+    const id = crypto.randomUUID();
+    const scrape = { snapshots: [own] };
+    const timer = setTimeout(() => scrape.done(), CLUSTER_TIMEOUT_MS);
+    scrape.done = () => {
+      clearTimeout(timer);
+      pendingScrapes.delete(id);
+      resolve(scrape.snapshots);
+    };
+    pendingScrapes.set(id, scrape);
+    clusterBus.publish('metrics-request', { id });
+  });
+};
+
+const renderMetrics = async () => render(mergeSnapshots(await collectSnapshots()));
+
+module.exports = {
+  registry,
+  generationSeconds,
+  stageTimer,
+  observeUpstream,
+  streamTimer,
+  recordTokenUsage,
+  observeUpload,
+  renderMetrics
+};
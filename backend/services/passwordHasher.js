@@ -0,0 +1,28 @@
+const path = require('path');
+const { WorkerPool } = require('./workerPool');
+
+// Threads that hash and verify passwords; 0 runs bcrypt on the event loop as before
+const POOL_SIZE = process.env.PASSWORD_HASH_WORKERS !== undefined
+  ? parseInt(process.env.PASSWORD_HASH_WORKERS, 10) || 0
+  : 2;
+// Logins beyond this many waiting are turned away instead of queueing without bound
+const MAX_QUEUE = parseInt(process.env.PASSWORD_HASH_MAX_QUEUE, 10) || 100;
+
+// bcrypt on its own small pool, so a burst of logins or registrations waits for these
+// threads instead of stalling the event loop and, with it, every other request
+const passwordPool = new WorkerPool({
+  name: 'password',
+  tasksPath: path.join(__dirname, '../workers/passwordTasks.js'),
+  size: POOL_SIZE,
+  maxQueue: MAX_QUEUE
+});
+
+const hash = (password, rounds) => passwordPool.run('hash', { password, rounds });
+
+const compare = (password, hashed) => passwordPool.run('compare', { password, hash: hashed });
+
+module.exports = {
+  hash,
+  compare,
+  getStats: () => passwordPool.getStats()
+};
@@ -0,0 +1,92 @@
+const path = require('path');
+const crypto = require('crypto');
+const fs = require('fs-extra');
+const sharp = require('sharp');
+const logger = require('../utils/logger');
+
+// Square WebP renditions made for every profile picture: the app bar avatar and the profile page
+const SIZES = [64, 256];
+const WEBP_QUALITY = 80;
+
+// Fixed-size thumbnails of profile pictures, stored in <pictures>/thumbs as
+// <picture name>-<size>.webp. They are generated in the background right after an upload,
+// or on first request if that has not finished yet; concurrent requests share one run.
+// Picture files are never overwritten (each upload gets a new name), so the thumbnails of a
+// name never change either.
+class ProfileThumbnails {
+  constructor(dir) {
+    this.dir = dir;
+    this.thumbsDir = path.join(dir, 'thumbs');
+    fs.ensureDirSync(this.thumbsDir);
+    this.inFlight = new Map();
+    this.stats = { generated: 0, failed: 0 };
+  }
+
+  isSize(size) {
+    return SIZES.includes(size);
+  }
+
+  thumbnailPath(filename, size) {
+    return path.join(this.thumbsDir, `${path.parse(path.basename(filename)).name}-${size}.webp`);
+  }
+
+  // Write every size, each to a temporary file first so no reader sees a partial image
+  async generate(filename) {
+    const source = sharp(path.join(this.dir, path.basename(filename)), { failOn: 'none' })
+      .rotate(); // apply the EXIF orientation before cropping
+    await Promise.all(SIZES.map(async (size) => {
+      const target = this.thumbnailPath(filename, size);
+      const tmpPath = `${target}.${crypto.randomUUID()}.tmp`;
+      try {
+        await source.clone()
+          .resize(size, size, { fit: 'cover' })
+          .webp({ quality: WEBP_QUALITY })
+          .toFile(tmpPath);
+        await fs.rename(tmpPath, target);
+      } catch (error) {
+        await fs.remove(tmpPath).catch(() => {});
+        throw error;
+      }
+    }));
+    this.stats.generated++;
+  }
+
+  // Generate the thumbnails of filename unless a run is already going
+  ensureAll(filename) {
+    const key = path.basename(filename);
+    if (!this.inFlight.has(key)) {
+      const pending = this.generate(key)
+        .catch((error) => {
+          this.stats.failed++;
+          throw error;
+        })
+        .finally(() => this.inFlight.delete(key));
+      this.inFlight.set(key, pending);
+    }
+    return this.inFlight.get(key);
+  }
+
+  // Start generating after an upload without making the response wait
+  schedule(filename) {
+    this.ensureAll(filename).catch(error =>
+      logger.warn('Profile picture thumbnail generation failed', { filename, error: error.message }));
+  }
+
+  // Path of a thumbnail, generating it first when it does not exist yet
+  async resolve(filename, size) {
+    const thumbnail = this.thumbnailPath(filename, size);
+    if (!(await fs.pathExists(thumbnail))) await this.ensureAll(filename);
+    return thumbnail;
+  }
+
+  async remove(filename) {
+    await Promise.all(SIZES.map(size => fs.remove(this.thumbnailPath(filename, size))));
+  }
+
+  getStats() {
+    return { ...this.stats, inFlight: this.inFlight.size };
+  }
+}
+
+module.exports = ProfileThumbnails;
+module.exports.SIZES = SIZES;
@@ -0,0 +1,359 @@
+const path = require('path');
+const crypto = require('crypto');
+const fs = require('fs-extra');
+const logger = require('../utils/logger');
+
+const DAY_MS = 24 * 60 * 60 * 1000;
+const MB = 1024 * 1024;
+
+// A limit from the environment: unset takes the default, 0 (or less) turns the limit off
+const limitFromEnv = (name, fallback) => {
+  const raw = process.env[name];
+  if (raw === undefined || raw.trim() === '') return fallback;
+  const value = parseFloat(raw);
+  if (!Number.isFinite(value)) return fallback;
+  return value > 0 ? value : Infinity;
+};
+
+// Nothing is deleted unless asked for: off (default), dry-run only logs what a sweep would
+// delete, delete deletes it
+const MODES = ['off', 'dry-run', 'delete'];
+const MODE = MODES.includes(process.env.RETENTION_MODE) ? process.env.RETENTION_MODE : 'off';
+// How often the sweep runs once enabled; 0 disables retention
+const INTERVAL_MS = process.env.RETENTION_INTERVAL_MS !== undefined
+  ? parseInt(process.env.RETENTION_INTERVAL_MS, 10) || 0
+  : 60 * 60 * 1000;
+const ARTIFACT_MAX_AGE_MS = limitFromEnv('ARTIFACT_RETENTION_DAYS', 30) * DAY_MS;
+// Generations kept per user, and the bytes they may occupy on disk
+const ARTIFACT_MAX_PER_USER = limitFromEnv('ARTIFACT_RETENTION_PER_USER', 100);
+const ARTIFACT_MAX_BYTES_PER_USER = limitFromEnv('ARTIFACT_RETENTION_PER_USER_BYTES', 50 * MB);
+const ARTIFACT_MAX_BYTES = limitFromEnv('ARTIFACT_RETENTION_MAX_BYTES', 1024 * MB);
+const UPLOAD_MAX_AGE_MS = limitFromEnv('UPLOAD_RETENTION_DAYS', 7) * DAY_MS;
+const UPLOAD_MAX_FILES = limitFromEnv('UPLOAD_RETENTION_MAX_FILES', 500);
+// Upload handles kept per user
+const UPLOAD_MAX_PER_USER = limitFromEnv('UPLOAD_RETENTION_PER_USER', 50);
+const UPLOAD_MAX_BYTES = limitFromEnv('UPLOAD_RETENTION_MAX_BYTES', 512 * MB);
+// Uploads are used by a generation some time after they arrive; never delete them sooner
+const UPLOAD_MIN_AGE_MS = 60 * 60 * 1000;
+
+// Deletes are spread out so a sweep never competes with requests for the disk or the loop
+const BATCH_SIZE = 20;
+const BATCH_PAUSE_MS = 200;
+// A lease older than this belongs to a process that died mid-sweep
+const LEASE_MS = 10 * 60 * 1000;
+const LEASE_FILE = '.retention.lock';
+
+const pause = (ms) => new Promise(resolve => setTimeout(resolve, ms));
+
+// Periodically deletes old generated files and uploads so the output and upload directories
+// stay bounded. Generated files are removed a generation at a time (method, test and any
+// stored combined file together) and only when no latest-file pointer and no job result
+// refers to them. Upload handles expire per user; stored upload content is removed once no
+// handle refers to it, or when the global limits are exceeded, and is kept while a job that
+// reads it is queued or running.
+// Only one process sweeps at a time, coordinated through a lease file holding the owner's
+// token, so cluster workers do not duplicate the work.
+// Retention is off unless RETENTION_MODE is set; in dry-run mode sweeps only log what they
+// would delete, so the limits can be checked against the existing files first.
+class RetentionService {
+  constructor({ store, uploads, index, latest, jobs, intervalMs = INTERVAL_MS, mode = MODE }) {
+    this.store = store;
+    this.uploads = uploads;
+    this.index = index;
+    this.latest = latest;
+    this.jobs = jobs;
+    this.intervalMs = mode === 'off' ? 0 : intervalMs;
+    this.mode = mode;
+    this.dryRun = mode === 'dry-run';
+    this.leaseToken = null;
+    this.leasePath = path.join(store.dir, LEASE_FILE);
+    this.running = false;
+    this.timer = null;
+    this.stats = {
+      sweeps: 0,
+      skipped: 0,
+      generationsDeleted: 0,
+      uploadHandlesDeleted: 0,
+      uploadsDeleted: 0,
+      bytesFreed: 0,
+      // Dry runs: what the last sweep would have deleted
+      wouldDelete: null,
+      lastSweepAt: null
+    };
+  }
+
+  start() {
+    if (this.intervalMs <= 0 || this.timer) return;
+    logger.info(`Retention enabled (${this.mode})`, {
+      intervalMs: this.intervalMs,
+      artifactMaxAgeDays: ARTIFACT_MAX_AGE_MS / DAY_MS,
+      uploadMaxAgeDays: UPLOAD_MAX_AGE_MS / DAY_MS
+    });
+    this.timer = setInterval(() => this.sweep(), this.intervalMs);
+    this.timer.unref();
+  }
+
+  stop() {
+    clearInterval(this.timer);
+    this.timer = null;
+  }
+
+  // Token in the lease file, or null when there is none
+  async leaseHolder() {
+    return fs.readFile(this.leasePath, 'utf8').catch(() => null);
+  }
+
+  async createLease() {
+    try {
+      await fs.writeFile(this.leasePath, this.leaseToken, { flag: 'wx' });
+      return true;
+    } catch (error) {
+      if (error.code !== 'EEXIST') throw error;
+      return false;
+    }
+  }
+
+  // Take the lease, or return false when another process holds a live one
+  async acquireLease() {
+    this.leaseToken = `${process.pid}:${crypto.randomUUID()}`;
+    if (await this.createLease()) return true;
+
+    const holder = await this.leaseHolder();
+    const stats = await fs.stat(this.leasePath).catch(() => null);
+    if (holder === null || !stats) return this.createLease();
+    if (Date.now() - stats.mtimeMs < LEASE_MS) return false;
+
+    // Stale lease. Move it aside under a name only this process uses: of several workers taking
+    // it over, one rename succeeds. If the file moved is no longer the stale lease, another
+    // worker took over first; its lease is linked back, which never replaces a newer one.
+    const aside = `${this.leasePath}.${crypto.randomUUID()}.stale`;
+    try {
+      await fs.rename(this.leasePath, aside);
+    } catch (error) {
+      if (error.code === 'ENOENT') return false;
+      throw error;
+    }
+    const moved = await fs.readFile(aside, 'utf8').catch(() => null);
+    if (moved !== holder) {
+      await fs.link(aside, this.leasePath).catch(() => {});
+      await fs.remove(aside);
+      return false;
+    }
+    await fs.remove(aside);
+    return this.createLease();
+  }
+
+  // Extend the lease while a long sweep is still making progress; stop the sweep if another
+  // process has taken the lease over in the meantime
+  async renewLease() {
+    if ((await this.leaseHolder()) !== this.leaseToken) {
+      throw new Error('Retention lease was taken over by another process');
+    }
+    const now = new Date();
+    await fs.utimes(this.leasePath, now, now).catch(() => {});
+  }
+
+  // Remove the lease only while it is still this process's
+  async releaseLease() {
+    if ((await this.leaseHolder()) === this.leaseToken) await fs.remove(this.leasePath);
+  }
+
+  async sweep() {
+    if (this.running) return;
+    this.running = true;
+    try {
+      if (!(await this.acquireLease())) {
+        this.stats.skipped++;
+        return;
+      }
+      try {
+        const referenced = this.jobs.referencedFiles();
+        if (this.dryRun) this.stats.wouldDelete = { generations: 0, uploadHandles: 0, uploads: 0, bytes: 0 };
+        await this.sweepArtifacts(referenced.outputs);
+        await this.sweepUploads(referenced.uploads);
+        this.stats.sweeps++;
+        this.stats.lastSweepAt = new Date().toISOString();
+      } finally {
+        await this.releaseLease();
+      }
+    } catch (error) {
+      logger.error('Retention sweep failed', error);
+    } finally {
+      this.running = false;
+    }
+  }
+
+  async sweepArtifacts(jobOutputs) {
+    const now = Date.now();
+    const protectedFiles = new Set([...this.latest.referencedFilenames(), ...jobOutputs]);
+
+    // Group the index into generations, newest first
+    const generations = new Map();
+    for (const artifact of await this.index.listAll()) {
+      const key = artifact.generationId || artifact.filename;
+      if (!generations.has(key)) {
+        generations.set(key, { owner: artifact.owner ? String(artifact.owner) : null, createdAt: artifact.createdAt, filenames: [] });
+      }
+      generations.get(key).filenames.push(artifact.filename);
+    }
+
+    const perUser = new Map();
+    let totalBytes = 0;
+    const expired = [];
+    let checked = 0;
+    for (const generation of generations.values()) {
+      // Sizes on disk; assembled combined files take none
+      const files = await Promise.all(generation.filenames.map(filename => this.store.locateFile(filename)));
+      generation.bytes = files.reduce((sum, file) => sum + (file ? file.storedSize : 0), 0);
+      if (++checked % BATCH_SIZE === 0) await pause(0);
+
+      const usage = perUser.get(generation.owner) || { count: 0, bytes: 0 };
+      usage.count++;
+      usage.bytes += generation.bytes;
+      totalBytes += generation.bytes;
+      perUser.set(generation.owner, usage);
+
+      const overLimit = now - new Date(generation.createdAt).getTime() > ARTIFACT_MAX_AGE_MS ||
+        usage.count > ARTIFACT_MAX_PER_USER ||
+        usage.bytes > ARTIFACT_MAX_BYTES_PER_USER ||
+        totalBytes > ARTIFACT_MAX_BYTES;
+      if (!overLimit) continue;
+      if (generation.filenames.some(filename => protectedFiles.has(filename))) continue;
+
+      // Deleted generations do not count against the limits of older ones
+      usage.count--;
+      usage.bytes -= generation.bytes;
+      totalBytes -= generation.bytes;
+      expired.push(generation);
+    }
+
+    if (this.dryRun) {
+      this.stats.wouldDelete.generations = expired.length;
+      this.stats.wouldDelete.bytes += expired.reduce((sum, generation) => sum + generation.bytes, 0);
+      if (expired.length > 0) {
+        logger.info('Retention dry run: generated files that would be removed', {
+          generations: expired.length,
+          kept: generations.size - expired.length,
+          examples: expired.slice(0, 10).flatMap(generation => generation.filenames)
+        });
+      }
+      return;
+    }
+
+    for (let i = 0; i < expired.length; i += BATCH_SIZE) {
+      const batch = expired.slice(i, i + BATCH_SIZE);
+      const filenames = batch.flatMap(generation => generation.filenames);
+      for (const filename of filenames) await this.store.remove(filename);
+      await this.index.remove(filenames);
+      this.stats.generationsDeleted += batch.length;
+      this.stats.bytesFreed += batch.reduce((sum, generation) => sum + generation.bytes, 0);
+      await this.renewLease();
+      await pause(BATCH_PAUSE_MS);
+    }
+    if (expired.length > 0) {
+      logger.info('Retention removed generated files', { generations: expired.length, kept: generations.size - expired.length });
+    }
+  }
+
+  async sweepUploads(jobUploads) {
+    const now = Date.now();
+    const jobHashes = new Set();
+    for (const name of jobUploads) {
+      const handle = this.uploads.parseHandle(name);
+      if (handle) jobHashes.add(handle.hash);
+    }
+
+    // Handles: the most recently used ones per user survive, unless they are too old
+    const perUser = new Map();
+    const expiredHandles = [];
+    const liveHashes = new Set();
+    for (const handle of await this.uploads.listHandles()) {
+      const owner = handle.owner ? String(handle.owner) : null;
+      const count = (perUser.get(owner) || 0) + 1;
+      perUser.set(owner, count);
+      const overLimit = now - new Date(handle.lastUsedAt).getTime() > UPLOAD_MAX_AGE_MS || count > UPLOAD_MAX_PER_USER;
+      if (overLimit && !jobUploads.has(this.uploads.handleFor(handle.hash, handle.originalName))) {
+        expiredHandles.push(handle._id);
+        perUser.set(owner, count - 1);
+      } else {
+        liveHashes.add(handle.hash);
+      }
+    }
+    if (!this.dryRun) {
+      await this.uploads.removeHandles(expiredHandles);
+      this.stats.uploadHandlesDeleted += expiredHandles.length;
+    }
+
+    // Stored content: blobs and files from before content addressing, newest first.
+    // Subdirectories such as profile-pictures are managed elsewhere, and dotfiles such as
+    // the .gitkeep that keeps the directory in the repository are not uploads.
+    const files = [];
+    const collect = async (dir, describe) => {
+      for (const entry of await fs.readdir(dir, { withFileTypes: true })) {
+        if (!entry.isFile() || entry.name.startsWith('.')) continue;
+        const filePath = path.join(dir, entry.name);
+        const stats = await fs.stat(filePath).catch(() => null);
+        if (stats) files.push({ filePath, size: stats.size, mtime: stats.mtimeMs, ...describe(entry.name) });
+        if (files.length % BATCH_SIZE === 0) await pause(0);
+      }
+    };
+    await collect(this.uploads.dir, name => ({ inUse: jobUploads.has(name), orphan: false }));
+    await collect(this.uploads.blobsDir, name => ({
+      hash: name,
+      inUse: jobHashes.has(name),
+      // Content nobody holds a handle on, e.g. an Excel preview or an expired handle
+      orphan: !liveHashes.has(name)
+    }));
+    await collect(this.uploads.tmpDir, () => ({ inUse: false, orphan: true }));
+    files.sort((a, b) => b.mtime - a.mtime);
+
+    let count = 0;
+    let totalBytes = 0;
+    const expired = [];
+    for (const file of files) {
+      const age = now - file.mtime;
+      const overLimit = file.orphan || age > UPLOAD_MAX_AGE_MS || count + 1 > UPLOAD_MAX_FILES || totalBytes + file.size > UPLOAD_MAX_BYTES;
+      if (overLimit && age > UPLOAD_MIN_AGE_MS && !file.inUse) {
+        expired.push(file);
+        continue;
+      }
+      count++;
+      totalBytes += file.size;
+    }
+
+    if (this.dryRun) {
+      this.stats.wouldDelete.uploadHandles = expiredHandles.length;
+      this.stats.wouldDelete.uploads = expired.length;
+      this.stats.wouldDelete.bytes += expired.reduce((sum, file) => sum + file.size, 0);
+      if (expired.length > 0 || expiredHandles.length > 0) {
+        logger.info('Retention dry run: uploads that would be removed', {
+          files: expired.length,
+          handles: expiredHandles.length,
+          kept: count,
+          examples: expired.slice(0, 10).map(file => path.basename(file.filePath))
+        });
+      }
+      return;
+    }
+
+    for (let i = 0; i < expired.length; i += BATCH_SIZE) {
+      const batch = expired.slice(i, i + BATCH_SIZE);
+      for (const file of batch) await fs.remove(file.filePath);
+      // Handles on content removed for space would only lead to "file not found"
+      await this.uploads.removeHandlesOf(batch.filter(file => file.hash && !file.orphan).map(file => file.hash));
+      this.stats.uploadsDeleted += batch.length;
+      this.stats.bytesFreed += batch.reduce((sum, file) => sum + file.size, 0);
+      await this.renewLease();
+      await pause(BATCH_PAUSE_MS);
+    }
+    if (expired.length > 0 || expiredHandles.length > 0) {
+      logger.info('Retention removed uploads', { files: expired.length, handles: expiredHandles.length, kept: count });
+    }
+  }
+
+  getStats() {
+    return { enabled: this.intervalMs > 0, mode: this.mode, running: this.running, ...this.stats };
+  }
+}
+
+module.exports = RetentionService;
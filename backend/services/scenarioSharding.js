@@ -0,0 +1,178 @@
+const { normalizeWhitespace, parseJavaSource, renderJavaSource } = require('../utils/javaSource');
+
+// Rough token estimate used for sizing shards (about four characters per token)
+const CHARS_PER_TOKEN = 4;
+// Each scenario turns into roughly one request method plus one test method
+const SCENARIO_BASE_OUTPUT_TOKENS = 250;
+// Package, imports and class declarations are repeated in the output of every shard
+const SHARD_OVERHEAD_TOKENS = 400;
+// Leave headroom below max_tokens so estimation errors do not truncate a shard
+const SHARD_BUDGET_RATIO = 0.75;
+
+const estimateTokens = (text) => Math.ceil(String(text || '').length / CHARS_PER_TOKEN);
+
+const estimateScenarioOutputTokens = (scenario) =>
+  SCENARIO_BASE_OUTPUT_TOKENS + 2 * estimateTokens(`${scenario['Steps']} ${scenario['Expected Result']}`);
+
+// Group scenarios, in order, so each group's estimated output fits in maxOutputTokens
+const shardScenarios = (scenarios, { maxOutputTokens }) => {
+  const budget = Math.max(Math.floor(maxOutputTokens * SHARD_BUDGET_RATIO) - SHARD_OVERHEAD_TOKENS, SCENARIO_BASE_OUTPUT_TOKENS);
+  const shards = [];
+  let current = [];
+  let currentTokens = 0;
+
+  scenarios.forEach(scenario => {
+    const tokens = estimateScenarioOutputTokens(scenario);
+    if (current.length > 0 && currentTokens + tokens > budget) {
+      shards.push(current);
+      current = [];
+      currentTokens = 0;
+    }
+    current.push(scenario);
+    currentTokens += tokens;
+  });
+  if (current.length > 0) shards.push(current);
+
+  return shards;
+};
+
+const escapeRegExp = (text) => text.replace(/[.*+?^${}()|[\]\\]/g, '\\$&');
+
+// Rename declarations and calls of the methods in renames. A call on a receiver is renamed only
+// when the receiver is `this` or one of receivers, so response.create(...) on some other object
+// keeps its name; unqualified: false leaves unqualified calls and declarations alone as well.
+const renameCalls = (source, renames, { receivers = [], unqualified = true } = {}) => {
+  const names = ['this', ...receivers].map(escapeRegExp).join('|');
+  const qualifier = `(?:this\\s*\\.\\s*)?(?:${names})\\s*\\.\\s*`;
+  let result = source;
+  Object.entries(renames).forEach(([from, to]) => {
+    const pattern = new RegExp(
+      `(?<!\\.\\s*)\\b(${unqualified ? `(?:${qualifier})?` : qualifier})${escapeRegExp(from)}(\\s*\\()`,
+      'g'
+    );
+    result = result.replace(pattern, `$1${to}$2`);
+  });
+  return result;
+};
+
+// Names a test class calls the method class through: the class itself (static calls) and the
+// fields, locals and parameters declared with it as their type
+const receiversOf = (source, className) => {
+  const receivers = new Set([className]);
+  const name = escapeRegExp(className);
+  const patterns = [
+    new RegExp(`\\b${name}\\s+(\\w+)\\s*[=;,)]`, 'g'),
+    new RegExp(`\\b(\\w+)\\s*=\\s*new\\s+${name}\\s*\\(`, 'g')
+  ];
+  patterns.forEach(pattern => {
+    let match;
+    while ((match = pattern.exec(source)) !== null) receivers.add(match[1]);
+  });
+  return [...receivers];
+};
+
+const replaceIdentifier = (source, from, to) =>
+  from === to ? source : source.replace(new RegExp(`\\b${escapeRegExp(from)}\\b`, 'g'), to);
+
+// Work out which methods of each shard clash with an earlier shard (same signature, different
+// body) and pick a fresh name for them. Identical methods are left alone and deduplicated later.
+const planRenames = (parsedSources) => {
+  const seen = new Map();
+  const takenNames = new Set();
+  return parsedSources.map(parsed => {
+    const renames = {};
+    if (!parsed) return renames;
+
+    parsed.members.filter(member => member.kind === 'method').forEach(member => {
+      const normalized = normalizeWhitespace(member.text);
+      const existing = seen.get(member.signature);
+      if (existing !== undefined && existing !== normalized && !renames[member.name]) {
+        let suffix = 2;
+        while (takenNames.has(`${member.name}_${suffix}`)) suffix++;
+        renames[member.name] = `${member.name}_${suffix}`;
+      }
+    });
+
+    parsed.members.filter(member => member.kind === 'method').forEach(member => {
+      const name = renames[member.name] || member.name;
+      const signature = `${name}${member.signature.substring(member.name.length)}`;
+      if (!seen.has(signature)) seen.set(signature, normalizeWhitespace(member.text));
+      takenNames.add(name);
+    });
+    return renames;
+  });
+};
+
+// Merge several parsed versions of one class: first shard supplies package and declaration,
+// imports are unioned in first-seen order and identical members are kept once.
+const mergeParsedSources = (parsedSources) => {
+  const imports = [];
+  const members = [];
+  const seenMembers = new Set();
+
+  parsedSources.forEach(parsed => {
+    parsed.imports.forEach(line => {
+      if (!imports.includes(line)) imports.push(line);
+    });
+    parsed.members.forEach(member => {
+      const key = normalizeWhitespace(member.text);
+      if (seenMembers.has(key)) return;
+      seenMembers.add(key);
+      members.push(member);
+    });
+  });
+
+  return renderJavaSource({ ...parsedSources[0], imports, members });
+};
+
+// Combine per-shard { methodFile, testFile } results into a single method class and test class
+const mergeShardOutputs = (outputs) => {
+  const methodParsed = outputs.map(output => parseJavaSource(output.methodFile));
+  const testParsed = outputs.map(output => parseJavaSource(output.testFile));
+  if (!methodParsed.every(Boolean) || !testParsed.every(Boolean)) {
+    throw new Error('Unable to merge sharded output: a shard did not contain a Java class');
+  }
+
+  // Align every shard on the first shard's class names before looking for clashes
+  const baseMethod = methodParsed[0];
+  const baseTest = testParsed[0];
+  const aligned = outputs.map((output, index) => {
+    const methodClass = methodParsed[index].className;
+    const testClass = testParsed[index].className;
+    return {
+      methodFile: replaceIdentifier(output.methodFile, methodClass, baseMethod.className),
+      testFile: replaceIdentifier(
+        replaceIdentifier(output.testFile, methodClass, baseMethod.className),
+        testClass,
+        baseTest.className
+      )
+    };
+  });
+
+  // Method class clashes are renamed at the declaration and at every call site in the shard;
+  // in the test class only calls through the method class are
+  const methodRenames = planRenames(aligned.map(output => parseJavaSource(output.methodFile)));
+  const renamed = aligned.map((output, index) => ({
+    methodFile: renameCalls(output.methodFile, methodRenames[index]),
+    testFile: renameCalls(output.testFile, methodRenames[index], {
+      receivers: receiversOf(output.testFile, baseMethod.className),
+      unqualified: false
+    })
+  }));
+
+  // Test method clashes only need the test declaration renamed
+  const testRenames = planRenames(renamed.map(output => parseJavaSource(output.testFile)));
+  const testFiles = renamed.map((output, index) => renameCalls(output.testFile, testRenames[index]));
+
+  return {
+    methodFile: mergeParsedSources(renamed.map(output => parseJavaSource(output.methodFile))),
+    testFile: mergeParsedSources(testFiles.map(parseJavaSource))
+  };
+};
+
+module.exports = {
+  estimateTokens,
+  estimateScenarioOutputTokens,
+  shardScenarios,
+  mergeShardOutputs
+};
@@ -0,0 +1,88 @@
+const { normalizeWhitespace, parseJavaSource, renderJavaSource, skipNonCode } = require('../utils/javaSource');
+const { estimateTokens } = require('./scenarioSharding');
+
+// Lines of the same shape kept verbatim before the rest of a run is summarized
+const REPEATED_LINES_KEPT = 2;
+
+// Shape of a line: literals and numbers blanked out, so assertions that only differ
+// in their expected text share a pattern
+const linePattern = (line) => {
+  let result = '';
+  for (let i = 0; i < line.length; i++) {
+    const skipped = skipNonCode(line, i);
+    if (skipped !== i) {
+      if (line[i] === '"' || line[i] === '\'') result += line[i] + line[i];
+      i = skipped - 1;
+      continue;
+    }
+    result += line[i];
+  }
+  return normalizeWhitespace(result.replace(/\b\d+(\.\d+)?\b/g, '0'));
+};
+
+// Keep the first lines of every run of same-shaped lines and replace the rest with a comment
+const collapseRepeatedLines = (text) => {
+  const lines = text.split('\n');
+  const output = [];
+  let i = 0;
+
+  while (i < lines.length) {
+    const pattern = linePattern(lines[i]);
+    let runEnd = i + 1;
+    while (pattern && runEnd < lines.length && linePattern(lines[runEnd]) === pattern) runEnd++;
+
+    const runLength = runEnd - i;
+    if (runLength > REPEATED_LINES_KEPT + 1) {
+      output.push(...lines.slice(i, i + REPEATED_LINES_KEPT));
+      const indent = lines[i].match(/^\s*/)[0];
+      output.push(`${indent}// ... ${runLength - REPEATED_LINES_KEPT} more similar lines`);
+    } else {
+      output.push(...lines.slice(i, runEnd));
+    }
+    i = runEnd;
+  }
+  return output.join('\n');
+};
+
+// Shape of a method body, ignoring literals and the method's own name
+const bodyPattern = (member) =>
+  member.text.substring(member.bodyStart).split('\n').map(linePattern).join('\n');
+
+// Reduce a Java template to what the model needs to follow its conventions: package, imports,
+// class declaration, fields, every method signature and one body per distinct body pattern.
+const buildTemplateSkeleton = (source) => {
+  const originalTokens = estimateTokens(source);
+  const parsed = parseJavaSource(source);
+  if (!parsed) {
+    return { skeleton: source, originalTokens, skeletonTokens: originalTokens, savedTokens: 0 };
+  }
+
+  const representatives = new Map();
+  const members = parsed.members.map(member => {
+    if (member.kind !== 'method') return member;
+
+    const pattern = bodyPattern(member);
+    const representative = representatives.get(pattern);
+    if (representative) {
+      const signature = member.text.substring(0, member.bodyStart).replace(/\s+$/, '');
+      return { ...member, text: `${signature} { /* same body pattern as ${representative} */ }` };
+    }
+
+    representatives.set(pattern, member.name);
+    return { ...member, text: collapseRepeatedLines(member.text) };
+  });
+
+  const skeleton = renderJavaSource({ ...parsed, members });
+  const skeletonTokens = estimateTokens(skeleton);
+  if (skeletonTokens >= originalTokens) {
+    return { skeleton: source, originalTokens, skeletonTokens: originalTokens, savedTokens: 0 };
+  }
+  return {
+    skeleton,
+    originalTokens,
+    skeletonTokens,
+    savedTokens: Math.max(originalTokens - skeletonTokens, 0)
+  };
+};
+
+module.exports = { buildTemplateSkeleton, collapseRepeatedLines };
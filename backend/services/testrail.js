@@ -0,0 +1,296 @@
+const { testrailClient } = require('./httpClients');
+const testrailCaseCache = require('./testrailCaseCache');
+const { getRetryAfterMs } = require('./azureScheduler');
+const TokenBucket = require('../utils/tokenBucket');
+const { sleep, mergeAsyncIterables } = require('../utils/concurrency');
+const logger = require('../utils/logger');
+const clusterBus = require('../utils/clusterBus');
+
+// TestRail Cloud allows 180 API requests per minute per instance; split between cluster workers
+const TESTRAIL_RPM = Math.max(1, Math.floor((parseInt(process.env.TESTRAIL_RPM, 10) || 180) / clusterBus.workerCount));
+// Suites walked in parallel during bulk ingestion
+const TESTRAIL_CONCURRENCY = parseInt(process.env.TESTRAIL_CONCURRENCY, 10) || 4;
+const MAX_RETRIES = 3;
+// Largest page size accepted by get_cases and get_sections
+const PAGE_LIMIT = 250;
+
+// Project, suite, section and case IDs go into the API path; anything but a plain positive
+// integer could add query parameters to the request
+const TESTRAIL_ID = /^[1-9]\d{0,9}$/;
+const TESTRAIL_ID_FIELDS = ['testCaseId', 'projectId', 'suiteId', 'sectionId'];
+
+const isTestrailId = (value) => TESTRAIL_ID.test(String(value));
+
+// TestRail shows case IDs as C123, and users enter them that way
+const stripCasePrefix = (caseId) => String(caseId).replace(/^C/i, '');
+
+// Name of the first ID field of config that is set but not a valid ID, or null
+const invalidTestrailIdField = (config) =>
+  TESTRAIL_ID_FIELDS.find(field => config[field] !== undefined && config[field] !== null && config[field] !== '' &&
+    !isTestrailId(field === 'testCaseId' ? stripCasePrefix(config[field]) : config[field])) || null;
+
+const invalidTestrailIdMessage = (field) => (field === 'testCaseId'
+  ? 'TestRail testCaseId must be a positive integer, optionally prefixed with C'
+  : `TestRail ${field} must be a positive integer`);
+
+const requireTestrailId = (value, name) => {
+  if (!isTestrailId(value)) {
+    throw new Error(`TestRail ${name} must be a positive integer`);
+  }
+  return Number(value);
+};
+
+const requireTestrailCaseId = (caseId) => {
+  if (!isTestrailId(stripCasePrefix(caseId))) {
+    throw new Error('TestRail case ID must be a positive integer, optionally prefixed with C');
+  }
+  return Number(stripCasePrefix(caseId));
+};
+
+const requestBucket = new TokenBucket({ capacity: TESTRAIL_RPM, refillPerMinute: TESTRAIL_RPM });
+
+const normalizeBaseUrl = (testrailBaseUrl) => {
+  if (!testrailBaseUrl) {
+    throw new Error('TestRail base URL is required');
+  }
+
+  // Ensure the URL doesn't end with a slash
+  const normalizedUrl = testrailBaseUrl.replace(/\/+$/, '');
+  try {
+    new URL(normalizedUrl);
+  } catch (urlError) {
+    throw new Error(`Invalid TestRail URL format: ${normalizedUrl}`);
+  }
+  return normalizedUrl;
+};
+
+// GET an API v2 path (e.g. "get_case/123") under the shared rate limit. 429 responses pause
+// every TestRail request until the retry-after time; 429 and 503 are retried.
+const testrailGet = async (baseUrl, apiPath, { username, apikey }) => {
+  const url = `${normalizeBaseUrl(baseUrl)}/index.php?/api/v2/${apiPath.replace(/^\/?(api\/v2\/)?/, '')}`;
+
+  for (let attempt = 0; ; attempt++) {
+    await requestBucket.take(1);
+    try {
+      const response = await testrailClient.get(url, {
+        auth: { username, password: apikey },
+        timeout: 10000
+      });
+      return response.data;
+    } catch (error) {
+      const status = error.response && error.response.status;
+      if ((status !== 429 && status !== 503) || attempt >= MAX_RETRIES) throw error;
+
+      const retryAfterMs = getRetryAfterMs(error.response.headers);
+      const delayMs = retryAfterMs !== null ? retryAfterMs : 1000 * 2 ** attempt;
+      requestBucket.pauseUntil(Date.now() + delayMs);
+      logger.warn(`TestRail returned ${status}, retrying`, { attempt: attempt + 1, delayMs });
+      await sleep(delayMs);
+    }
+  }
+};
+
+// get_case through the shared case cache
+const getTestrailCase = async (baseUrl, caseId, credentials) => {
+  caseId = requireTestrailCaseId(caseId);
+  const normalizedUrl = normalizeBaseUrl(baseUrl);
+  const key = testrailCaseCache.computeKey(normalizedUrl, credentials, caseId);
+  return testrailCaseCache.get(key, () => testrailGet(normalizedUrl, `get_case/${caseId}`, credentials));
+};
+
+// Custom fields of a TestRail case used for generation
+const extractCaseFields = (data) => ({
+  customPreconds: data.custom_preconds || {},
+  customStepsSeparated: data.custom_steps_separated || [],
+  apiDetails: {
+    "Request Type": data.custom_case_api_request_type || "GET",
+    "Request Url": data.custom_case_request_url || "",
+    "Headers": data.custom_case_api_headers || {},
+    "Body": data.custom_case_api_request_body || ""
+  }
+});
+
+const parseTestrailData = (customPreconds, customStepsSeparated, apiDetails) => {
+  let preconds = customPreconds;
+  let steps = customStepsSeparated;
+
+  if (typeof preconds === 'string') {
+    try {
+      preconds = JSON.parse(preconds) || {};
+    } catch (e) {
+      preconds = {};
+    }
+  }
+
+  if (typeof steps === 'string') {
+    try {
+      steps = JSON.parse(steps) || [];
+    } catch (e) {
+      steps = [];
+    }
+  }
+
+  if (typeof apiDetails.Headers === 'string') {
+    try {
+      apiDetails.Headers = JSON.parse(apiDetails.Headers) || {};
+    } catch (e) {
+      apiDetails.Headers = { "Content-Type": "application/json" };
+    }
+  }
+
+  const scenarios = steps.map((step, i) => ({
+    "Test Name": step.title || `Test_${i + 1}`,
+    "Steps": step.content || "No steps provided",
+    "Expected Result": step.expected || "No expected result"
+  }));
+
+  if (scenarios.length === 0) {
+    scenarios.push({
+      "Test Name": "Default Test",
+      "Steps": "Send request",
+      "Expected Result": "200 OK"
+    });
+  }
+
+  return { apiDetails, scenarios };
+};
+
+// Walk a paginated list endpoint page by page. Servers older than TestRail 6.7 return a
+// plain array without pagination.
+const iteratePages = async function* (baseUrl, apiPath, key, credentials) {
+  let nextPath = `${apiPath}&limit=${PAGE_LIMIT}&offset=0`;
+  while (nextPath) {
+    const data = await testrailGet(baseUrl, nextPath, credentials);
+    if (Array.isArray(data)) {
+      yield data;
+      return;
+    }
+    yield data[key] || [];
+    nextPath = data._links && data._links.next;
+  }
+};
+
+// Ids of the section and all of its subsections
+const collectSectionTree = async (baseUrl, projectId, suiteId, sectionId, credentials) => {
+  const children = new Map();
+  for await (const sections of iteratePages(baseUrl, `get_sections/${projectId}&suite_id=${suiteId}`, 'sections', credentials)) {
+    sections.forEach(section => {
+      const parentId = section.parent_id || null;
+      if (!children.has(parentId)) children.set(parentId, []);
+      children.get(parentId).push(section.id);
+    });
+  }
+
+  const tree = new Set();
+  const pending = [Number(sectionId)];
+  while (pending.length > 0) {
+    const id = pending.pop();
+    tree.add(id);
+    pending.push(...(children.get(id) || []));
+  }
+  return tree;
+};
+
+// Work out which suites to walk and, for a section, which section ids to keep
+const resolveScope = async ({ projectId, suiteId, sectionId }, baseUrl, credentials) => {
+  projectId = requireTestrailId(projectId, 'project ID');
+  if (suiteId) suiteId = requireTestrailId(suiteId, 'suite ID');
+  if (sectionId) {
+    sectionId = requireTestrailId(sectionId, 'section ID');
+    const section = await testrailGet(baseUrl, `get_section/${sectionId}`, credentials);
+    const sectionSuiteId = suiteId || requireTestrailId(section.suite_id, 'suite ID');
+    return {
+      suiteIds: [sectionSuiteId],
+      sectionIds: await collectSectionTree(baseUrl, projectId, sectionSuiteId, sectionId, credentials)
+    };
+  }
+  if (suiteId) {
+    return { suiteIds: [suiteId], sectionIds: null };
+  }
+  const suites = await testrailGet(baseUrl, `get_suites/${projectId}`, credentials);
+  const suiteList = Array.isArray(suites) ? suites : suites.suites || [];
+  return { suiteIds: suiteList.map(suite => suite.id), sectionIds: null };
+};
+
+// Stream every case of a project, suite or section (including subsections) as parsed
+// { caseId, title, apiDetails, scenarios } entries. Suites are paged through in parallel
+// while all requests share the TestRail rate limit.
+const streamTestrailCases = async function* (
+  { projectId, suiteId, sectionId, username, apikey, testrailBaseUrl },
+  { concurrency = TESTRAIL_CONCURRENCY, onPage = () => {} } = {}
+) {
+  if (!projectId) {
+    throw new Error('TestRail project ID is required for bulk ingestion');
+  }
+  projectId = requireTestrailId(projectId, 'project ID');
+  const credentials = { username, apikey };
+  const { suiteIds, sectionIds } = await resolveScope({ projectId, suiteId, sectionId }, testrailBaseUrl, credentials);
+
+  const pageSources = suiteIds.map(id => () =>
+    iteratePages(testrailBaseUrl, `get_cases/${projectId}&suite_id=${id}`, 'cases', credentials));
+
+  let fetched = 0;
+  for await (const cases of mergeAsyncIterables(pageSources, concurrency)) {
+    fetched += cases.length;
+    onPage({ fetched });
+    for (const testCase of cases) {
+      if (sectionIds && !sectionIds.has(testCase.section_id)) continue;
+      // Lets a later preview or single-case run of the same case skip its get_case call
+      testrailCaseCache.prime(testrailCaseCache.computeKey(normalizeBaseUrl(testrailBaseUrl), credentials, testCase.id), testCase);
+      const fields = extractCaseFields(testCase);
+      yield {
+        caseId: testCase.id,
+        title: testCase.title,
+        ...parseTestrailData(fields.customPreconds, fields.customStepsSeparated, fields.apiDetails)
+      };
+    }
+  }
+};
+
+const endpointKey = (apiDetails) => `${apiDetails['Request Type']} ${apiDetails['Request Url']}`;
+
+// Fold parsed cases into the single apiDetails/scenarios input of a generation. The most
+// common endpoint becomes the API under test; scenarios of cases that call a different
+// endpoint carry that endpoint in their steps.
+const combineTestrailCases = (cases) => {
+  if (cases.length === 0) {
+    throw new Error('No TestRail cases found for the selected project, suite or section');
+  }
+
+  const counts = new Map();
+  cases.forEach(testCase => {
+    const key = endpointKey(testCase.apiDetails);
+    counts.set(key, (counts.get(key) || 0) + 1);
+  });
+  const primaryKey = [...counts.entries()].sort((a, b) => b[1] - a[1])[0][0];
+  const primary = cases.find(testCase => endpointKey(testCase.apiDetails) === primaryKey);
+
+  const scenarios = [];
+  cases.forEach(testCase => {
+    const key = endpointKey(testCase.apiDetails);
+    testCase.scenarios.forEach(scenario => {
+      scenarios.push({
+        ...scenario,
+        "Test Name": `C${testCase.caseId}_${scenario["Test Name"]}`,
+        "Steps": key === primaryKey ? scenario["Steps"] : `[${key}] ${scenario["Steps"]}`
+      });
+    });
+  });
+
+  return { apiDetails: primary.apiDetails, scenarios };
+};
+
+module.exports = {
+  normalizeBaseUrl,
+  isTestrailId,
+  invalidTestrailIdField,
+  invalidTestrailIdMessage,
+  requireTestrailId,
+  requireTestrailCaseId,
+  testrailGet,
+  getTestrailCase,
+  extractCaseFields,
+  parseTestrailData,
+  streamTestrailCases,
+  combineTestrailCases
+};
@@ -0,0 +1,84 @@
+const crypto = require('crypto');
+const LruCache = require('../utils/lruCache');
+const logger = require('../utils/logger');
+const clusterBus = require('../utils/clusterBus');
+
+// Cases fetched within this window are served without asking TestRail again
+const FRESH_MS = parseInt(process.env.TESTRAIL_CASE_CACHE_FRESH_MS, 10) || 60 * 1000;
+// After the fresh window an entry is kept for revalidation until this age
+const TTL_MS = parseInt(process.env.TESTRAIL_CASE_CACHE_TTL_MS, 10) || 60 * 60 * 1000;
+const MAX_ENTRIES = parseInt(process.env.TESTRAIL_CASE_CACHE_MAX_ENTRIES, 10) || 1000;
+
+// Cache of TestRail get_case responses shared by the connection test, preview and generation.
+// Entries are per base URL, user and API key, so other credentials never read them. Stale
+// entries are refetched and kept when updated_on has not changed; concurrent lookups of the
+// same case share one upstream request.
+class TestrailCaseCache {
+  constructor({ freshMs = FRESH_MS, ttlMs = TTL_MS, maxEntries = MAX_ENTRIES } = {}) {
+    this.freshMs = freshMs;
+    this.cache = new LruCache({ maxSize: maxEntries, ttlMs });
+    this.inFlight = new Map();
+    this.stats = { fresh: 0, revalidated: 0, changed: 0, fetched: 0, coalesced: 0 };
+
+    // Another cluster worker saw the case change upstream
+    clusterBus.on('testrail-case-invalidate', ({ key }) => this.cache.delete(key));
+  }
+
+  computeKey(baseUrl, { username, apikey }, caseId) {
+    const credentials = crypto.createHash('sha256').update(`${username}\0${apikey}`).digest('hex');
+    return `${baseUrl}|${credentials}|${String(caseId).replace(/^C/i, '')}`;
+  }
+
+  // Resolve with the case data for key, calling fetch() only when no fresh entry exists
+  async get(key, fetch) {
+    const entry = this.cache.get(key);
+    if (entry && Date.now() - entry.fetchedAt < this.freshMs) {
+      this.stats.fresh++;
+      return entry.data;
+    }
+
+    if (this.inFlight.has(key)) {
+      this.stats.coalesced++;
+      return this.inFlight.get(key);
+    }
+
+    const pending = Promise.resolve()
+      .then(fetch)
+      .then((data) => {
+        if (!entry) {
+          this.stats.fetched++;
+        } else if (entry.data.updated_on === data.updated_on) {
+          // Unchanged upstream: keep the cached object so callers see the same data
+          this.stats.revalidated++;
+          this.cache.set(key, { data: entry.data, fetchedAt: Date.now() });
+          return entry.data;
+        } else {
+          this.stats.changed++;
+          logger.info('TestRail case changed upstream', { caseId: data.id, updatedOn: data.updated_on });
+          clusterBus.publish('testrail-case-invalidate', { key });
+        }
+        this.cache.set(key, { data, fetchedAt: Date.now() });
+        return data;
+      })
+      .finally(() => this.inFlight.delete(key));
+
+    this.inFlight.set(key, pending);
+    return pending;
+  }
+
+  // Store a case obtained another way (e.g. a get_cases page) as freshly fetched
+  prime(key, data) {
+    this.cache.set(key, { data, fetchedAt: Date.now() });
+  }
+
+  getStats() {
+    return {
+      ...this.cache.getStats(),
+      ...this.stats,
+      inFlight: this.inFlight.size
+    };
+  }
+}
+
+module.exports = new TestrailCaseCache();
+module.exports.TestrailCaseCache = TestrailCaseCache;
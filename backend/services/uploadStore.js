@@ -0,0 +1,164 @@
+const path = require('path');
+const crypto = require('crypto');
+const fs = require('fs-extra');
+const { pipeline } = require('stream/promises');
+const { Transform } = require('stream');
+const Upload = require('../models/Upload');
+const metrics = require('./metrics');
+
+// Handles look like the legacy timestamped names, with the content hash in front
+const HANDLE = /^([0-9a-f]{64})-(.+)$/;
+const HASH = /^[0-9a-f]{64}$/;
+
+// Content-addressed upload storage. Files are hashed while they stream in and stored once
+// under uploads/blobs/<sha256>; users refer to them through handles named
+// <sha256>-<original name>, so uploading the same template again costs no disk, and a client
+// that already knows the hash can link to the stored file without uploading it at all.
+// A handle only resolves for the user holding it (resolveFor), and linking by hash only works
+// for content the user uploaded before, so nobody can learn what other users uploaded.
+// Files uploaded under the old ${timestamp}-${originalname} scheme keep resolving.
+class UploadStore {
+  constructor(dir) {
+    this.dir = dir;
+    this.blobsDir = path.join(dir, 'blobs');
+    this.tmpDir = path.join(this.blobsDir, 'tmp');
+    fs.ensureDirSync(this.tmpDir);
+    this.stats = { stored: 0, deduplicated: 0, linked: 0, bytesStored: 0, bytesDeduplicated: 0 };
+  }
+
+  handleFor(hash, originalName) {
+    return `${hash}-${path.basename(originalName)}`;
+  }
+
+  // Hash and original name of a handle, or null for a legacy file name
+  parseHandle(name) {
+    const match = HANDLE.exec(path.basename(String(name)));
+    return match ? { hash: match[1], originalName: match[2] } : null;
+  }
+
+  blobPath(hash) {
+    return path.join(this.blobsDir, hash);
+  }
+
+  // Absolute path of an uploaded file given its handle or legacy file name
+  resolve(name) {
+    const handle = this.parseHandle(name);
+    return handle ? this.blobPath(handle.hash) : path.join(this.dir, path.basename(String(name)));
+  }
+
+  // Absolute path of an uploaded file for owner, or null when the handle is not owner's.
+  // Legacy file names have no owner record and resolve as before.
+  async resolveFor(name, owner) {
+    const handle = this.parseHandle(name);
+    if (!handle) return this.resolve(name);
+    if (!owner) return null;
+    const owned = await Upload.exists({ owner, hash: handle.hash, originalName: handle.originalName });
+    return owned ? this.blobPath(handle.hash) : null;
+  }
+
+  async exists(hash) {
+    return HASH.test(hash) && fs.pathExists(this.blobPath(hash));
+  }
+
+  // Write a stream to a temporary file while hashing it, then move it into place under its
+  // hash unless that content is already stored
+  async ingest(stream) {
+    const hasher = crypto.createHash('sha256');
+    let size = 0;
+    const tmpPath = path.join(this.tmpDir, `${process.pid}-${crypto.randomUUID()}`);
+    try {
+      await pipeline(
+        stream,
+        new Transform({
+          transform(chunk, encoding, callback) {
+            hasher.update(chunk);
+            size += chunk.length;
+            callback(null, chunk);
+          }
+        }),
+        fs.createWriteStream(tmpPath)
+      );
+
+      const hash = hasher.digest('hex');
+      const blobPath = this.blobPath(hash);
+      const deduplicated = await fs.pathExists(blobPath);
+      if (deduplicated) {
+        await fs.remove(tmpPath);
+        // Refresh the blob so retention sees it as recently used
+        const now = new Date();
+        await fs.utimes(blobPath, now, now);
+        this.stats.deduplicated++;
+        this.stats.bytesDeduplicated += size;
+      } else {
+        await fs.rename(tmpPath, blobPath);
+        this.stats.stored++;
+        this.stats.bytesStored += size;
+      }
+      return { hash, size, path: blobPath, deduplicated };
+    } catch (error) {
+      await fs.remove(tmpPath).catch(() => {});
+      throw error;
+    }
+  }
+
+  // Multer storage engine. file.filename is set to the handle of the stored file.
+  storage() {
+    return {
+      _handleFile: (req, file, cb) => {
+        this.ingest(file.stream)
+          .then((stored) => {
+            metrics.observeUpload(file.fieldname, stored.size);
+            cb(null, { ...stored, filename: this.handleFor(stored.hash, file.originalname) });
+          })
+          .catch(cb);
+      },
+      // Blobs may be shared with other uploads, so a failed request never deletes one
+      _removeFile: (req, file, cb) => cb(null)
+    };
+  }
+
+  // Record that owner holds a handle on a stored blob; returns the handle
+  async link(hash, originalName, owner, size = null) {
+    const name = path.basename(originalName);
+    if (size === null) size = (await fs.stat(this.blobPath(hash))).size;
+    await Upload.updateOne(
+      { owner, hash, originalName: name },
+      { $set: { size, lastUsedAt: new Date() } },
+      { upsert: true }
+    );
+    return this.handleFor(hash, name);
+  }
+
+  // Link to an already stored blob instead of uploading it; returns null when it is unknown.
+  // Only content owner has uploaded before counts, so the answer says nothing about other
+  // users' files; their identical uploads are still stored once when they arrive.
+  async linkExisting(hash, originalName, owner) {
+    if (!HASH.test(hash) || !(await Upload.exists({ owner, hash }))) return null;
+    if (!(await this.exists(hash))) return null;
+    const now = new Date();
+    await fs.utimes(this.blobPath(hash), now, now);
+    this.stats.linked++;
+    return this.link(hash, originalName, owner);
+  }
+
+  // Every handle, most recently used first, for background maintenance such as retention
+  async listHandles() {
+    return Upload.find({}, { owner: 1, hash: 1, originalName: 1, lastUsedAt: 1 })
+      .sort({ lastUsedAt: -1 })
+      .lean();
+  }
+
+  async removeHandles(ids) {
+    if (ids.length > 0) await Upload.deleteMany({ _id: { $in: ids } });
+  }
+
+  async removeHandlesOf(hashes) {
+    if (hashes.length > 0) await Upload.deleteMany({ hash: { $in: hashes } });
+  }
+
+  getStats() {
+    return { ...this.stats };
+  }
+}
+
+module.exports = UploadStore;
@@ -0,0 +1,77 @@
+const LruCache = require('../utils/lruCache');
+const clusterBus = require('../utils/clusterBus');
+
+// Bounds how stale a user can be after a change made outside this application
+const TTL_MS = parseInt(process.env.USER_CACHE_TTL_MS, 10) || 60 * 1000;
+const MAX_ENTRIES = parseInt(process.env.USER_CACHE_MAX_ENTRIES, 10) || 5000;
+
+// Users looked up by the auth middleware, keyed by ID, so an authenticated request does not
+// need a database round trip. Entries are plain objects; callers build a fresh document from
+// them per request, so no request sees another's unsaved changes. Saving a user invalidates
+// its entry here and in the other cluster workers; concurrent misses share one query.
+class UserCache {
+  constructor({ ttlMs = TTL_MS, maxEntries = MAX_ENTRIES } = {}) {
+    this.cache = new LruCache({ maxSize: maxEntries, ttlMs });
+    this.inFlight = new Map();
+    this.stats = { loads: 0, coalesced: 0, invalidations: 0 };
+
+    clusterBus.on('user-invalidate', ({ id }) => this.drop(id));
+  }
+
+  // Resolve with the cached user for id, calling load() on a miss; null results are not cached
+  async get(id, load) {
+    const key = String(id);
+    const cached = this.cache.get(key);
+    if (cached) return cached;
+
+    if (this.inFlight.has(key)) {
+      this.stats.coalesced++;
+      return this.inFlight.get(key).promise;
+    }
+
+    this.stats.loads++;
+    // A query that was running when the user changed may have read the old data; its
+    // result is still returned but not cached
+    const loadState = { stale: false };
+    const pending = Promise.resolve()
+      .then(load)
+      .then((user) => {
+        if (user && !loadState.stale) this.cache.set(key, user);
+        return user;
+      })
+      .finally(() => {
+        if (this.inFlight.get(key) && this.inFlight.get(key).load === loadState) this.inFlight.delete(key);
+      });
+
+    this.inFlight.set(key, { promise: pending, load: loadState });
+    return pending;
+  }
+
+  drop(id) {
+    const key = String(id);
+    this.cache.delete(key);
+    const running = this.inFlight.get(key);
+    if (running) {
+      running.load.stale = true;
+      this.inFlight.delete(key);
+    }
+  }
+
+  // Forget a user after it changed, here and in the other cluster workers
+  invalidate(id) {
+    this.stats.invalidations++;
+    this.drop(id);
+    clusterBus.publish('user-invalidate', { id: String(id) });
+  }
+
+  getStats() {
+    return {
+      ...this.cache.getStats(),
+      ...this.stats,
+      inFlight: this.inFlight.size
+    };
+  }
+}
+
+module.exports = new UserCache();
+module.exports.UserCache = UserCache;
@@ -0,0 +1,86 @@
+const crypto = require('crypto');
+const fs = require('fs-extra');
+const LruCache = require('../utils/lruCache');
+const logger = require('../utils/logger');
+
+const MAX_BYTES = parseInt(process.env.WORKBOOK_CACHE_MAX_BYTES, 10) || 32 * 1024 * 1024;
+// Remembered file hashes, so an unchanged file is not hashed again
+const MAX_HASHES = 1000;
+
+const decoder = new TextDecoder();
+
+const hashFile = (filePath) => new Promise((resolve, reject) => {
+  const hash = crypto.createHash('sha256');
+  fs.createReadStream(filePath)
+    .on('data', (chunk) => hash.update(chunk))
+    .on('end', () => resolve(hash.digest('hex')))
+    .on('error', reject);
+});
+
+// Parsed projections of Excel workbooks (e.g. scenarios for generation, rows for the preview),
+// keyed by the file's content hash so the same workbook uploaded twice or shared as the
+// default file is parsed once. Hashes are remembered per path, mtime and size. Projections
+// are stored as the JSON bytes produced by the parser, which also gives their exact size.
+class WorkbookCache {
+  constructor({ maxBytes = MAX_BYTES } = {}) {
+    this.cache = new LruCache({
+      maxSize: maxBytes,
+      sizeOf: (bytes) => bytes.byteLength
+    });
+    this.hashes = new LruCache({ maxSize: MAX_HASHES });
+    this.inFlight = new Map();
+    this.coalesced = 0;
+  }
+
+  async contentHash(filePath) {
+    const stats = await fs.stat(filePath);
+    const statKey = `${filePath}|${stats.mtimeMs}|${stats.size}`;
+    let hash = this.hashes.get(statKey);
+    if (!hash) {
+      hash = await hashFile(filePath);
+      this.hashes.set(statKey, hash);
+    }
+    return hash;
+  }
+
+  // Return a fresh copy of projection for the workbook at filePath. On a miss parse() must
+  // resolve with the projection as JSON bytes (Uint8Array).
+  // Resolves with { value, cacheStatus } where cacheStatus is hit, coalesced or miss.
+  async get(filePath, projection, parse) {
+    const key = `${projection}:${await this.contentHash(filePath)}`;
+
+    const cached = this.cache.get(key);
+    if (cached) {
+      return { value: JSON.parse(decoder.decode(cached)), cacheStatus: 'hit' };
+    }
+
+    if (this.inFlight.has(key)) {
+      this.coalesced++;
+      return { value: JSON.parse(decoder.decode(await this.inFlight.get(key))), cacheStatus: 'coalesced' };
+    }
+
+    const pending = Promise.resolve()
+      .then(parse)
+      .then((bytes) => {
+        if (!this.cache.set(key, bytes)) {
+          logger.warn('Parsed workbook too large to cache', { projection });
+        }
+        return bytes;
+      })
+      .finally(() => this.inFlight.delete(key));
+
+    this.inFlight.set(key, pending);
+    return { value: JSON.parse(decoder.decode(await pending)), cacheStatus: 'miss' };
+  }
+
+  getStats() {
+    return {
+      ...this.cache.getStats(),
+      inFlight: this.inFlight.size,
+      coalesced: this.coalesced
+    };
+  }
+}
+
+module.exports = new WorkbookCache();
+module.exports.WorkbookCache = WorkbookCache;
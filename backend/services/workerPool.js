@@ -0,0 +1,149 @@
+const os = require('os');
+const path = require('path');
+const { Worker } = require('worker_threads');
+const logger = require('../utils/logger');
+
+// Leave one core for the event loop; WORKER_POOL_SIZE=0 runs every task inline
+const DEFAULT_SIZE = Math.max(1, (os.availableParallelism ? os.availableParallelism() : os.cpus().length) - 1);
+const POOL_SIZE = process.env.WORKER_POOL_SIZE !== undefined
+  ? parseInt(process.env.WORKER_POOL_SIZE, 10) || 0
+  : DEFAULT_SIZE;
+
+const WORKER_PATH = path.join(__dirname, '../workers/taskWorker.js');
+
+// Fixed-size pool of worker threads fed from a FIFO task queue. A worker that crashes fails
+// its current task and is replaced. Tasks are named exports of the worker's task module.
+// With maxQueue set, tasks beyond that many waiting are rejected with code POOL_QUEUE_FULL.
+class WorkerPool {
+  constructor({ workerPath = WORKER_PATH, tasksPath, size = POOL_SIZE, name = 'pipeline', maxQueue = Infinity }) {
+    this.workerPath = workerPath;
+    this.tasksPath = tasksPath;
+    this.size = size;
+    this.name = name;
+    this.maxQueue = maxQueue;
+    this.workers = [];
+    this.idle = [];
+    this.queue = [];
+    this.nextId = 1;
+    this.stats = { completed: 0, failed: 0, rejected: 0, restarts: 0, maxQueued: 0, totalWaitMs: 0, maxWaitMs: 0 };
+    this.consecutiveCrashes = 0;
+    for (let i = 0; i < size; i++) this.spawn();
+  }
+
+  spawn() {
+    const worker = new Worker(this.workerPath, { workerData: { tasksPath: this.tasksPath } });
+    worker.current = null;
+
+    worker.on('message', (message) => {
+      const job = worker.current;
+      if (!job || message.id !== job.id) return;
+      if (message.type === 'progress') {
+        job.onProgress(message.data);
+        return;
+      }
+
+      worker.current = null;
+      worker.unref();
+      this.consecutiveCrashes = 0;
+      if (message.type === 'result') {
+        this.stats.completed++;
+        job.resolve(message.result);
+      } else {
+        this.stats.failed++;
+        const error = new Error(message.error.message);
+        error.stack = message.error.stack;
+        job.reject(error);
+      }
+      this.release(worker);
+    });
+
+    const replace = (error) => {
+      if (!this.workers.includes(worker)) return;
+      this.workers = this.workers.filter(w => w !== worker);
+      this.idle = this.idle.filter(w => w !== worker);
+      if (worker.current) {
+        this.stats.failed++;
+        worker.current.reject(error || new Error(`Worker exited while running ${worker.current.task}`));
+        worker.current = null;
+      }
+      this.stats.restarts++;
+      // Back off when workers keep dying, e.g. because the worker script fails to load
+      const delayMs = Math.min(1000 * this.consecutiveCrashes++, 30000);
+      logger.error(`Worker in ${this.name} pool stopped, starting a replacement`, { error: error && error.message, delayMs });
+      setTimeout(() => this.spawn(), delayMs).unref();
+    };
+    worker.on('error', replace);
+    worker.on('exit', () => replace(null));
+    // Idle workers must not keep the process alive; unref after the listeners are attached
+    // and ref again only while a task runs
+    worker.unref();
+
+    this.workers.push(worker);
+    this.release(worker);
+  }
+
+  release(worker) {
+    const job = this.queue.shift();
+    if (!job) {
+      this.idle.push(worker);
+      return;
+    }
+    this.assign(worker, job);
+  }
+
+  assign(worker, job) {
+    const waitMs = Date.now() - job.queuedAt;
+    this.stats.totalWaitMs += waitMs;
+    this.stats.maxWaitMs = Math.max(this.stats.maxWaitMs, waitMs);
+    worker.current = job;
+    worker.ref();
+    worker.postMessage({ id: job.id, task: job.task, payload: job.payload }, job.transferList);
+  }
+
+  // Run a task off the event loop. Buffers in transferList are moved to the worker, not copied.
+  run(task, payload, { transferList = [], onProgress = () => {} } = {}) {
+    if (this.size === 0) {
+      const tasks = require(this.tasksPath);
+      return Promise.resolve().then(() => tasks[task](payload, onProgress));
+    }
+
+    return new Promise((resolve, reject) => {
+      const job = { id: this.nextId++, task, payload, transferList, onProgress, resolve, reject, queuedAt: Date.now() };
+      const worker = this.idle.shift();
+      if (worker) {
+        this.assign(worker, job);
+      } else if (this.queue.length >= this.maxQueue) {
+        this.stats.rejected++;
+        const error = new Error(`The ${this.name} worker pool is busy, try again shortly`);
+        error.code = 'POOL_QUEUE_FULL';
+        reject(error);
+      } else {
+        this.queue.push(job);
+        this.stats.maxQueued = Math.max(this.stats.maxQueued, this.queue.length);
+      }
+    });
+  }
+
+  getStats() {
+    const { totalWaitMs, ...stats } = this.stats;
+    const started = this.stats.completed + this.stats.failed + this.busyCount();
+    return {
+      size: this.size,
+      busy: this.busyCount(),
+      queued: this.queue.length,
+      avgWaitMs: started > 0 ? Math.round(totalWaitMs / started) : 0,
+      ...stats
+    };
+  }
+
+  busyCount() {
+    return this.workers.length - this.idle.length;
+  }
+}
+
+const pipelinePool = new WorkerPool({
+  tasksPath: path.join(__dirname, '../workers/pipelineTasks.js')
+});
+
+module.exports = pipelinePool;
+module.exports.WorkerPool = WorkerPool;
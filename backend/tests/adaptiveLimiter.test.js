@@ -0,0 +1,76 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const AdaptiveConcurrencyLimiter = require('../utils/adaptiveLimiter');
+
+test('queues callers beyond the limit and wakes them in order on release', async () => {
+  const limiter = new AdaptiveConcurrencyLimiter({ initial: 2 });
+  await limiter.acquire();
+  await limiter.acquire();
+
+  const woken = [];
+  const third = limiter.acquire().then(() => woken.push('third'));
+  const fourth = limiter.acquire().then(() => woken.push('fourth'));
+  await new Promise(setImmediate);
+  assert.deepEqual(limiter.getStats(), { limit: 2, inFlight: 2, queued: 2 });
+
+  limiter.release();
+  await third;
+  assert.deepEqual(woken, ['third']);
+  limiter.release();
+  await fourth;
+  assert.deepEqual(woken, ['third', 'fourth']);
+  assert.equal(limiter.getStats().inFlight, 2);
+});
+
+test('grows by about one per window of successes, up to max', () => {
+  const limiter = new AdaptiveConcurrencyLimiter({ initial: 4, max: 6 });
+  for (let i = 0; i < 4; i++) limiter.onSuccess();
+  assert.ok(limiter.limit > 4.8 && limiter.limit < 5, `limit ${limiter.limit}`);
+
+  for (let i = 0; i < 100; i++) limiter.onSuccess();
+  assert.equal(limiter.limit, 6);
+});
+
+test('a success that raises the limit admits a queued caller', async () => {
+  const limiter = new AdaptiveConcurrencyLimiter({ initial: 1.9 });
+  await limiter.acquire();
+  let admitted = false;
+  limiter.acquire().then(() => { admitted = true; });
+  await new Promise(setImmediate);
+  assert.equal(admitted, false);
+
+  limiter.onSuccess();
+  await new Promise(setImmediate);
+  assert.equal(admitted, true);
+});
+
+test('halves the limit on throttling, down to min', () => {
+  const limiter = new AdaptiveConcurrencyLimiter({ initial: 16, min: 3 });
+  limiter.onThrottle();
+  assert.equal(limiter.limit, 8);
+  limiter.onThrottle();
+  limiter.onThrottle();
+  assert.equal(limiter.limit, 3);
+});
+
+test('trims the limit when latency rises well above the baseline', () => {
+  const limiter = new AdaptiveConcurrencyLimiter({ initial: 10, latencyTolerance: 2 });
+  limiter.onSuccess(10);
+  const afterBaseline = limiter.limit;
+
+  limiter.onSuccess(15);
+  assert.ok(limiter.limit > afterBaseline);
+
+  const beforeSpike = limiter.limit;
+  limiter.onSuccess(100);
+  assert.equal(limiter.limit, beforeSpike * 0.9);
+});
+
+test('ignores latencies that are not finite numbers', () => {
+  const limiter = new AdaptiveConcurrencyLimiter({ initial: 4 });
+  limiter.onSuccess(NaN);
+  limiter.onSuccess(Infinity);
+
+  assert.equal(limiter.baselineLatency, null);
+  assert.equal(limiter.limit, 4 + 1 / 4 + 1 / (4 + 1 / 4));
+});
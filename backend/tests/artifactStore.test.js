@@ -0,0 +1,120 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const zlib = require('zlib');
+const ArtifactStore = require('../services/artifactStore');
+const { METHOD_HEADER, TEST_HEADER } = ArtifactStore;
+
+const METHODS = `public class UserApi {\n${'    public Response getUser() { return given().get("/users"); }\n'.repeat(200)}}\n`;
+const TESTS = `public class UserApiTest {\n${'    @Test public void getUser() { api.getUser(); }\n'.repeat(200)}}\n`;
+const COMBINED = `${METHOD_HEADER}${METHODS}${TEST_HEADER}${TESTS}`;
+
+const read = async (stream) => {
+  const chunks = [];
+  for await (const chunk of stream) chunks.push(chunk);
+  return Buffer.concat(chunks);
+};
+
+let dir;
+let store;
+test.before(async () => {
+  dir = fs.mkdtempSync(path.join(os.tmpdir(), 'artifact-store-'));
+  store = new ArtifactStore(dir);
+  await store.write('GeneratedMethods_1.java', METHODS);
+  await store.write('GeneratedTests_1.java', TESTS);
+  fs.writeFileSync(path.join(dir, 'Legacy.java'), METHODS);
+});
+test.after(() => fs.rmSync(dir, { recursive: true, force: true }));
+
+test('stores files compressed without leaving temporary files behind', () => {
+  assert.deepEqual(fs.readdirSync(dir).sort(), ['GeneratedMethods_1.java.gz', 'GeneratedTests_1.java.gz', 'Legacy.java']);
+  assert.equal(zlib.gunzipSync(fs.readFileSync(path.join(dir, 'GeneratedMethods_1.java.gz'))).toString(), METHODS);
+});
+
+test('locates stored, plain and combined files with their uncompressed size', async () => {
+  const stored = await store.locate('GeneratedMethods_1.java');
+  assert.equal(stored.gzip, true);
+  assert.equal(stored.size, Buffer.byteLength(METHODS));
+  assert.ok(stored.storedSize < stored.size);
+
+  const legacy = await store.locate('Legacy.java');
+  assert.equal(legacy.gzip, false);
+  assert.equal(legacy.size, Buffer.byteLength(METHODS));
+
+  const combined = await store.locate('GeneratedCombined_1.java');
+  assert.equal(combined.parts.length, 2);
+  assert.equal(combined.size, Buffer.byteLength(COMBINED));
+
+  assert.equal(await store.locate('GeneratedCombined_2.java'), null);
+  assert.equal(await store.locate('../server.js'), null);
+});
+
+test('gives every encoding of a file its own strong ETag', async () => {
+  const stored = await store.locate('GeneratedMethods_1.java');
+  const combined = await store.locate('GeneratedCombined_1.java');
+  const tags = [
+    store.etag(stored, 'identity'),
+    store.etag(stored, 'gzip'),
+    store.etag(combined, 'identity'),
+    store.etag(combined, 'gzip')
+  ];
+
+  tags.forEach(tag => assert.match(tag, /^"[0-9a-f.-]+(-gz)?"$/));
+  assert.equal(new Set(tags).size, tags.length);
+  assert.equal(store.etag(stored, 'gzip'), `${store.etag(stored, 'identity').slice(0, -1)}-gz"`);
+});
+
+test('changes the ETag when a file is rewritten', async () => {
+  await store.write('GeneratedMethods_2.java', METHODS);
+  const before = store.etag(await store.locate('GeneratedMethods_2.java'), 'identity');
+  const filePath = path.join(dir, 'GeneratedMethods_2.java.gz');
+  fs.utimesSync(filePath, new Date(), new Date(Date.now() + 5000));
+
+  assert.notEqual(store.etag(await store.locate('GeneratedMethods_2.java'), 'identity'), before);
+  await store.remove('GeneratedMethods_2.java');
+});
+
+test('knows the length of every encoding except an assembled gzip stream', async () => {
+  const stored = await store.locate('GeneratedMethods_1.java');
+  const combined = await store.locate('GeneratedCombined_1.java');
+
+  assert.equal(store.length(stored, 'identity'), stored.size);
+  assert.equal(store.length(stored, 'gzip'), stored.storedSize);
+  assert.equal(store.length(combined, 'identity'), combined.size);
+  assert.equal(store.length(combined, 'gzip'), null);
+});
+
+test('streams each encoding in full', async () => {
+  const stored = await store.locate('GeneratedMethods_1.java');
+  const combined = await store.locate('GeneratedCombined_1.java');
+
+  assert.equal((await read(store.createReadStream(stored))).toString(), METHODS);
+  assert.equal(zlib.gunzipSync(await read(store.createReadStream(stored, { encoding: 'gzip' }))).toString(), METHODS);
+  assert.equal((await read(store.createReadStream(combined))).toString(), COMBINED);
+  assert.equal(zlib.gunzipSync(await read(store.createReadStream(combined, { encoding: 'gzip' }))).toString(), COMBINED);
+});
+
+test('streams exactly the requested byte range of each encoding', async () => {
+  const stored = await store.locate('GeneratedMethods_1.java');
+  const legacy = await store.locate('Legacy.java');
+  const combined = await store.locate('GeneratedCombined_1.java');
+  const compressed = fs.readFileSync(stored.path);
+  const methodsEnd = Buffer.byteLength(METHOD_HEADER) + Buffer.byteLength(METHODS);
+
+  const cases = [
+    [stored, 'identity', Buffer.from(METHODS), 0, 0],
+    [stored, 'identity', Buffer.from(METHODS), 100, 5000],
+    [stored, 'identity', Buffer.from(METHODS), stored.size - 10, stored.size - 1],
+    [stored, 'gzip', compressed, 10, 200],
+    [legacy, 'identity', Buffer.from(METHODS), 17, 4321],
+    // Across the boundary between the method file and the test file header
+    [combined, 'identity', Buffer.from(COMBINED), methodsEnd - 20, methodsEnd + 40],
+    [combined, 'identity', Buffer.from(COMBINED), combined.size - 1, combined.size - 1]
+  ];
+  for (const [location, encoding, full, start, end] of cases) {
+    const bytes = await read(store.createReadStream(location, { encoding, start, end }));
+    assert.deepEqual(bytes, full.subarray(start, end + 1), `${encoding} ${start}-${end}`);
+  }
+});
@@ -0,0 +1,44 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const { selectByteRange, UNSATISFIABLE } = require('../utils/byteRange');
+
+// What range-parser returns: an array of { start, end } with the unit as its type
+const parsed = (type, ...ranges) => Object.assign(ranges, { type });
+
+const ETAG = '"1f4-18c2e5a7b00-gz"';
+
+test('returns a single satisfiable byte range', () => {
+  assert.deepEqual(selectByteRange(parsed('bytes', { start: 0, end: 99 })), { start: 0, end: 99 });
+  assert.deepEqual(selectByteRange(parsed('bytes', { start: 500, end: 500 })), { start: 500, end: 500 });
+});
+
+test('reports an unsatisfiable range', () => {
+  assert.equal(selectByteRange(-1), UNSATISFIABLE);
+});
+
+test('sends the whole file for malformed headers, other units and several ranges', () => {
+  assert.equal(selectByteRange(-2), null);
+  assert.equal(selectByteRange(undefined), null);
+  assert.equal(selectByteRange(parsed('items', { start: 0, end: 9 })), null);
+  assert.equal(selectByteRange(parsed('bytes', { start: 0, end: 9 }, { start: 20, end: 29 })), null);
+  assert.equal(selectByteRange(parsed('bytes')), null);
+});
+
+test('sends the whole file for range values that are not usable byte offsets', () => {
+  assert.equal(selectByteRange(parsed('bytes', { start: 10, end: 9 })), null);
+  assert.equal(selectByteRange(parsed('bytes', { start: -1, end: 9 })), null);
+  assert.equal(selectByteRange(parsed('bytes', { start: 0, end: NaN })), null);
+  assert.equal(selectByteRange(parsed('bytes', { start: 0.5, end: 9 })), null);
+  assert.equal(selectByteRange(parsed('bytes', { start: '0', end: '9' })), null);
+});
+
+test('honours If-Range only when it matches the current ETag exactly', () => {
+  const ranges = parsed('bytes', { start: 0, end: 99 });
+
+  assert.deepEqual(selectByteRange(ranges, { ifRange: ETAG, etag: ETAG }), { start: 0, end: 99 });
+  assert.equal(selectByteRange(ranges, { ifRange: '"1f4-18c2e5a7b00"', etag: ETAG }), null);
+  assert.equal(selectByteRange(ranges, { ifRange: `W/${ETAG}`, etag: ETAG }), null);
+  assert.equal(selectByteRange(ranges, { ifRange: 'Tue, 01 Oct 2024 10:00:00 GMT', etag: ETAG }), null);
+  // A stale If-Range gets the whole file rather than a 416
+  assert.equal(selectByteRange(-1, { ifRange: '"old"', etag: ETAG }), null);
+});
@@ -0,0 +1,249 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const logger = require('../utils/logger');
+const { DeploymentPool, loadDeploymentConfig } = require('../services/deploymentPool');
+
+for (const level of ['info', 'warn', 'error']) test.mock.method(logger, level, () => {});
+
+const config = (name, extra = {}) => ({
+  name,
+  endpoint: `https://${name}.openai.azure.com/`,
+  deployment: 'gpt-4o',
+  apiVersion: '2024-06-01',
+  apiKey: 'key',
+  weight: 1,
+  ...extra
+});
+
+const httpError = (status) => Object.assign(new Error(`Request failed with status code ${status}`), {
+  response: { status, headers: {} }
+});
+
+// Scheduler retries are switched off so a failure reaches the pool straight away
+const run = (pool, requestFn) => pool.execute(requestFn, { maxRetries: 0 });
+
+// Route every request to the named deployment's handler
+const respond = (handlers) => async (deployment) => handlers[deployment.name](deployment);
+
+test('builds the chat completions URL from the endpoint', () => {
+  const pool = new DeploymentPool([config('east')]);
+  assert.equal(pool.deployments[0].url,
+    'https://east.openai.azure.com/openai/deployments/gpt-4o/chat/completions?api-version=2024-06-01');
+});
+
+test('picks the deployment with the fewest outstanding requests per weight', () => {
+  const pool = new DeploymentPool([config('small'), config('large', { weight: 3 })]);
+  const [small, large] = pool.deployments;
+
+  // Scores are (outstanding + 1) / weight
+  assert.equal(pool.pick(), large);
+  large.outstanding = 1;
+  assert.equal(pool.pick(), large);
+  large.outstanding = 3;
+  assert.equal(pool.pick(), small);
+  assert.equal(pool.pick(new Set([small])), large);
+});
+
+test('fails over on server errors and returns the next deployment\'s result', async () => {
+  const pool = new DeploymentPool([config('east'), config('west')]);
+  const result = await run(pool, respond({
+    east: async () => { throw httpError(503); },
+    west: async () => ({ data: 'ok' })
+  }));
+
+  assert.deepEqual(result, { data: 'ok' });
+  const [east, west] = pool.getStats();
+  assert.equal(east.failures, 1);
+  assert.equal(east.failovers, 1);
+  assert.equal(west.requests, 1);
+  assert.equal(east.outstanding + west.outstanding, 0);
+});
+
+test('fails over on network errors', async () => {
+  const pool = new DeploymentPool([config('east'), config('west')]);
+  const result = await run(pool, respond({
+    east: async () => { throw Object.assign(new Error('socket hang up'), { code: 'ECONNRESET' }); },
+    west: async () => 'ok'
+  }));
+
+  assert.equal(result, 'ok');
+});
+
+test('does not fail over on client errors', async () => {
+  const pool = new DeploymentPool([config('east'), config('west')]);
+  const calls = [];
+  await assert.rejects(run(pool, async (deployment) => {
+    calls.push(deployment.name);
+    throw httpError(400);
+  }), /status code 400/);
+
+  assert.deepEqual(calls, ['east']);
+  assert.equal(pool.deployments[0].consecutiveFailures, 0);
+});
+
+test('throws the last error when every deployment fails', async () => {
+  const pool = new DeploymentPool([config('east'), config('west')]);
+  await assert.rejects(run(pool, respond({
+    east: async () => { throw httpError(500); },
+    west: async () => { throw httpError(502); }
+  })), /status code 502/);
+});
+
+test('refuses to run without deployments', async () => {
+  await assert.rejects(new DeploymentPool([]).execute(async () => 'ok'), /Missing required Azure OpenAI configuration/);
+});
+
+test('ejects a deployment after consecutive failures and routes around it', async (t) => {
+  let now = 1000000;
+  t.mock.method(Date, 'now', () => now);
+  const pool = new DeploymentPool([config('east')]);
+  const [east] = pool.deployments;
+
+  for (let i = 0; i < 2; i++) await assert.rejects(run(pool, async () => { throw httpError(500); }));
+  assert.equal(east.ejectedUntil, 0);
+  assert.equal(east.consecutiveFailures, 2);
+
+  await assert.rejects(run(pool, async () => { throw httpError(500); }));
+  assert.equal(east.ejectedUntil, now + 30000);
+  assert.equal(east.ejections, 1);
+  assert.equal(east.consecutiveFailures, 0);
+  assert.equal(pool.getStats()[0].healthy, false);
+
+  const second = new DeploymentPool([config('east'), config('west')]);
+  second.deployments[0].ejectedUntil = now + 30000;
+  assert.equal(second.pick(), second.deployments[1]);
+});
+
+test('a success resets the failure count', async () => {
+  const pool = new DeploymentPool([config('east')]);
+  const [east] = pool.deployments;
+  await assert.rejects(run(pool, async () => { throw httpError(500); }));
+  await assert.rejects(run(pool, async () => { throw httpError(500); }));
+  await run(pool, async () => 'ok');
+  await assert.rejects(run(pool, async () => { throw httpError(500); }));
+
+  assert.equal(east.consecutiveFailures, 1);
+  assert.equal(east.ejectedUntil, 0);
+});
+
+test('throttling is not counted towards ejection', async () => {
+  const pool = new DeploymentPool([config('east')]);
+  for (let i = 0; i < 5; i++) await assert.rejects(run(pool, async () => { throw httpError(429); }));
+
+  const [east] = pool.deployments;
+  assert.equal(east.ejectedUntil, 0);
+  assert.equal(east.consecutiveFailures, 0);
+  assert.equal(east.stats.failures, 5);
+});
+
+test('doubles the ejection period for every failed probe, up to ten minutes', async (t) => {
+  let now = 1000000;
+  t.mock.method(Date, 'now', () => now);
+  const pool = new DeploymentPool([config('east')]);
+  const [east] = pool.deployments;
+  for (let i = 0; i < 3; i++) await assert.rejects(run(pool, async () => { throw httpError(500); }));
+
+  const periods = [east.ejectedUntil - now];
+  for (let i = 0; i < 6; i++) {
+    now = east.ejectedUntil;
+    // One failed probe is enough to send the deployment back out
+    await assert.rejects(run(pool, async () => { throw httpError(500); }));
+    periods.push(east.ejectedUntil - now);
+  }
+
+  assert.deepEqual(periods, [30000, 60000, 120000, 240000, 480000, 600000, 600000]);
+});
+
+test('a successful probe brings the deployment back', async (t) => {
+  let now = 1000000;
+  t.mock.method(Date, 'now', () => now);
+  const pool = new DeploymentPool([config('east')]);
+  const [east] = pool.deployments;
+  for (let i = 0; i < 3; i++) await assert.rejects(run(pool, async () => { throw httpError(500); }));
+
+  now = east.ejectedUntil;
+  await run(pool, async () => 'ok');
+
+  assert.equal(east.ejectedUntil, 0);
+  assert.equal(east.ejections, 0);
+  // The next run of failures starts over at the first ejection period
+  for (let i = 0; i < 3; i++) await assert.rejects(run(pool, async () => { throw httpError(500); }));
+  assert.equal(east.ejectedUntil - now, 30000);
+});
+
+test('sends only one probe to a deployment coming back from ejection', async (t) => {
+  let now = 1000000;
+  t.mock.method(Date, 'now', () => now);
+  const pool = new DeploymentPool([config('east'), config('west')]);
+  const [east, west] = pool.deployments;
+  east.ejections = 1;
+  east.ejectedUntil = now - 1;
+
+  let finishProbe;
+  const probe = run(pool, respond({
+    east: () => new Promise(resolve => { finishProbe = resolve; }),
+    west: async () => 'west'
+  }));
+  await new Promise(setImmediate);
+  assert.equal(east.probing, true);
+
+  // While the probe is out, requests go elsewhere even though east has fewer outstanding
+  west.outstanding = 5;
+  assert.equal(pool.pick(), west);
+  west.outstanding = 0;
+
+  finishProbe('east');
+  assert.equal(await probe, 'east');
+  assert.equal(east.probing, false);
+  assert.equal(east.ejectedUntil, 0);
+});
+
+test('with every deployment ejected, tries the one that comes back first', (t) => {
+  const now = 1000000;
+  t.mock.method(Date, 'now', () => now);
+  const pool = new DeploymentPool([config('east'), config('west'), config('north')]);
+  const [east, west, north] = pool.deployments;
+  east.ejectedUntil = now + 50000;
+  west.ejectedUntil = now + 10000;
+  north.ejectedUntil = now + 20000;
+
+  assert.equal(pool.pick(), west);
+  assert.equal(pool.pick(new Set([west])), north);
+});
+
+test('reads the pool from AZURE_OPENAI_DEPLOYMENTS', () => {
+  const configs = loadDeploymentConfig({
+    OPENAI_API_VERSION: '2024-06-01',
+    OPENAI_API_KEY: 'shared-key',
+    AZURE_OPENAI_DEPLOYMENTS: JSON.stringify([
+      { endpoint: 'https://east.openai.azure.com', deployment: 'gpt-4o', rpm: 100, weight: 2 },
+      { name: 'west', endpoint: 'https://west.openai.azure.com', deployment: 'gpt-4o', apiKey: 'west-key', weight: -1 }
+    ])
+  });
+
+  assert.deepEqual(configs.map(c => [c.name, c.apiKey, c.weight, c.requestsPerMinute]), [
+    ['deployment-1', 'shared-key', 2, 100],
+    ['west', 'west-key', 1, undefined]
+  ]);
+});
+
+test('rejects an invalid AZURE_OPENAI_DEPLOYMENTS', () => {
+  assert.throws(() => loadDeploymentConfig({ AZURE_OPENAI_DEPLOYMENTS: '{' }), /not valid JSON/);
+  assert.throws(() => loadDeploymentConfig({ AZURE_OPENAI_DEPLOYMENTS: '[]' }), /non-empty array/);
+  assert.throws(
+    () => loadDeploymentConfig({ AZURE_OPENAI_DEPLOYMENTS: JSON.stringify([{ endpoint: 'https://east' }]) }),
+    /deployment-1 is missing: deployment, apiVersion, apiKey/
+  );
+});
+
+test('falls back to the single deployment variables', () => {
+  const env = {
+    AZURE_OPENAI_ENDPOINT: 'https://east.openai.azure.com',
+    OPENAI_MODEL: 'gpt-4o',
+    OPENAI_API_VERSION: '2024-06-01',
+    OPENAI_API_KEY: 'key'
+  };
+
+  assert.deepEqual(loadDeploymentConfig(env).map(c => [c.name, c.deployment]), [['default', 'gpt-4o']]);
+  assert.deepEqual(loadDeploymentConfig({ ...env, OPENAI_API_KEY: '' }), []);
+});
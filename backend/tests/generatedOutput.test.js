@@ -0,0 +1,103 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const {
+  METHOD_MARKER,
+  TEST_MARKER,
+  splitGeneratedContent,
+  GeneratedFileSplitter
+} = require('../services/generatedOutput');
+
+const RESPONSE = `Here are the files.
+
+${METHOD_MARKER}
+public class UserApi {
+    // === sections === look a little like markers
+    public Response getUser() { return given().get("/users"); }
+}
+
+${TEST_MARKER}
+public class UserApiTest {
+    @Test public void getUser() { api.getUser(); } // =
+}
+`;
+
+// Run deltas through a splitter and join what it returns per section
+const stream = (deltas) => {
+  const splitter = new GeneratedFileSplitter();
+  const parts = [...deltas.flatMap(delta => splitter.push(delta)), ...splitter.flush()];
+  const joined = { method: '', test: '' };
+  let lastSection = null;
+  parts.forEach(({ section, delta }) => {
+    assert.ok(delta.length > 0, 'empty delta');
+    assert.ok(!(lastSection === 'test' && section === 'method'), 'method content after the test marker');
+    lastSection = section;
+    joined[section] += delta;
+  });
+  return joined;
+};
+
+// The streamed pieces are shown while the completion arrives; the saved files are trimmed
+const assertMatchesWholeText = (joined, text, message) => {
+  const expected = splitGeneratedContent(text);
+  assert.equal(joined.method.trim(), expected.methodFile, message);
+  assert.equal(joined.test.trim(), expected.testFile, message);
+};
+
+test('splits a response delivered in one piece', () => {
+  assertMatchesWholeText(stream([RESPONSE]), RESPONSE);
+});
+
+test('splits a response divided at every character boundary', () => {
+  for (let i = 0; i <= RESPONSE.length; i++) {
+    assertMatchesWholeText(stream([RESPONSE.slice(0, i), RESPONSE.slice(i)]), RESPONSE, `split at ${i}`);
+  }
+});
+
+test('splits a response with a marker divided across three deltas at every pair of boundaries', () => {
+  for (const marker of [METHOD_MARKER, TEST_MARKER]) {
+    const markerStart = RESPONSE.indexOf(marker);
+    for (let i = markerStart - 1; i <= markerStart + marker.length + 1; i++) {
+      for (let j = i; j <= markerStart + marker.length + 1; j++) {
+        const deltas = [RESPONSE.slice(0, i), RESPONSE.slice(i, j), RESPONSE.slice(j)];
+        assertMatchesWholeText(stream(deltas), RESPONSE, `${marker} split at ${i} and ${j}`);
+      }
+    }
+  }
+});
+
+test('splits a response delivered one character at a time', () => {
+  assertMatchesWholeText(stream([...RESPONSE]), RESPONSE);
+});
+
+test('holds back only what could still become a marker', () => {
+  const splitter = new GeneratedFileSplitter();
+  splitter.push(`${METHOD_MARKER}\nclass A {}\n=== TEST`);
+
+  assert.equal(splitter.pending, '=== TEST');
+  assert.deepEqual(splitter.push(' PLAN'), [{ section: 'method', delta: '=== TEST PLAN' }]);
+  assert.equal(splitter.pending, '');
+});
+
+test('returns nothing for a stream without markers', () => {
+  const text = 'public class UserApi {}\n\npublic class UserApiTest {\n    @Test public void a() {}\n}\n';
+  const splitter = new GeneratedFileSplitter();
+  const parts = [...[...text].flatMap(delta => splitter.push(delta)), ...splitter.flush()];
+
+  // Without markers the saved files come from the fallback split of the whole text
+  assert.deepEqual(parts, []);
+  assert.notEqual(splitGeneratedContent(text).testFile, '');
+});
+
+test('returns the held back text of a stream that ends in the middle of a marker', () => {
+  const cut = RESPONSE.indexOf(TEST_MARKER) + 6;
+  const joined = stream([RESPONSE.slice(0, cut)]);
+
+  // Nothing is lost: the incomplete marker is part of the method file
+  assert.equal(joined.method, RESPONSE.slice(RESPONSE.indexOf(METHOD_MARKER) + METHOD_MARKER.length + 1, cut));
+  assert.ok(joined.method.endsWith(TEST_MARKER.slice(0, 6)));
+  assert.equal(joined.test, '');
+});
+
+test('drops a stream that ends in the middle of the method marker', () => {
+  assert.deepEqual(stream(['Here are the files.\n\n', METHOD_MARKER.slice(0, 8)]), { method: '', test: '' });
+});
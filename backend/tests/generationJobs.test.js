@@ -0,0 +1,80 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const logger = require('../utils/logger');
+const clusterBus = require('../utils/clusterBus');
+const { GenerationJobStore } = require('../services/generationJobs');
+
+for (const level of ['info', 'warn', 'error']) test.mock.method(logger, level, () => {});
+
+const DEAD_WORKER = 40001;
+const LIVE_WORKER = 40002;
+
+// Deliver a job event as another worker would publish it over the cluster bus
+const replicate = (id, worker, type, extra = {}) => {
+  replicate.ids[id] = (replicate.ids[id] || 0) + 1;
+  const timestamp = new Date().toISOString();
+  clusterBus.emit('jobs', {
+    op: 'event',
+    state: { id, owner: 'user-1', uploads: ['upload-1'], status: extra.status || 'running', stage: null, result: null, error: null, createdAt: timestamp, updatedAt: timestamp, finishedAt: extra.finishedAt || null, worker },
+    event: { id: replicate.ids[id], jobId: id, timestamp, type }
+  });
+};
+replicate.ids = {};
+
+test('fails the replicas of jobs whose worker exited', () => {
+  const store = new GenerationJobStore();
+  replicate('job-a', DEAD_WORKER, 'started');
+  replicate('job-b', LIVE_WORKER, 'started');
+  replicate('job-c', DEAD_WORKER, 'completed', { status: 'completed', finishedAt: new Date().toISOString() });
+
+  const events = [];
+  store.subscribe('job-a', (event) => events.push(event));
+  clusterBus.emit('worker-exit', { pid: DEAD_WORKER });
+
+  const orphan = store.get('job-a');
+  assert.equal(orphan.status, 'failed');
+  assert.match(orphan.error, /stopped before it finished/);
+  assert.ok(orphan.finishedAt);
+  assert.deepEqual(events.map(event => [event.id, event.type]), [[2, 'failed']]);
+  assert.equal(store.toJSON(orphan).lastEvent.type, 'failed');
+
+  assert.equal(store.get('job-b').status, 'running');
+  assert.equal(store.get('job-c').status, 'completed');
+  // The uploads of the failed job are no longer held for it
+  assert.equal(store.referencedFiles().uploads.size, 1);
+});
+
+test('failed orphans expire like other finished jobs', (t) => {
+  const store = new GenerationJobStore({ ttlMs: 1000 });
+  replicate('job-d', DEAD_WORKER, 'started');
+  clusterBus.emit('worker-exit', { pid: DEAD_WORKER });
+
+  const finishedAt = new Date(store.get('job-d').finishedAt).getTime();
+  t.mock.method(Date, 'now', () => finishedAt + 1001);
+  store.removeExpired();
+  assert.equal(store.get('job-d'), null);
+});
+
+test('a late event from the exited worker does not reopen the job', () => {
+  const store = new GenerationJobStore();
+  replicate('job-e', DEAD_WORKER, 'started');
+  clusterBus.emit('worker-exit', { pid: DEAD_WORKER });
+  replicate('job-e', DEAD_WORKER, 'progress');
+
+  assert.equal(store.get('job-e').status, 'failed');
+  assert.equal(store.get('job-e').events.length, 2);
+});
+
+test('leaves the jobs this worker runs alone when another worker exits', async () => {
+  const store = new GenerationJobStore();
+  let finish;
+  const job = store.submit('user-1', () => new Promise(resolve => { finish = resolve; }));
+  await new Promise(setImmediate);
+  clusterBus.emit('worker-exit', { pid: DEAD_WORKER });
+
+  assert.equal(job.worker, process.pid);
+  assert.equal(job.status, 'running');
+  finish({ methodFilename: 'GeneratedMethods_1.java' });
+  await new Promise(setImmediate);
+  assert.equal(job.status, 'completed');
+});
@@ -0,0 +1,90 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const {
+  skipNonCode,
+  findMatchingBrace,
+  stripComments,
+  parseJavaSource,
+  renderJavaSource
+} = require('../utils/javaSource');
+
+const SOURCE = `package com.example.api;
+
+import io.restassured.response.Response;
+import static org.junit.Assert.assertEquals;
+
+/** Requests for the user API */
+@SuppressWarnings("unused")
+public class UserApi {
+    private static final String BASE = "/users/{id}"; // not a brace: }
+
+    @Step("Get user {id}")
+    public Response getUser(final String id, Map<String, List<Integer>> query) throws IOException {
+        String text = "}";
+        char c = '{';
+        return given().get(BASE);
+    }
+
+    /* } */
+    private final int[] codes = { 200, 201 };
+
+    static class Nested {
+        void run() { }
+    }
+}
+`;
+
+test('skipNonCode jumps over comments and literals only', () => {
+  assert.equal(skipNonCode('// x\ny', 0), 4);
+  assert.equal(skipNonCode('/* x */y', 0), 7);
+  assert.equal(skipNonCode('"a\\"b"c', 0), 6);
+  assert.equal(skipNonCode('"""a"b"""c', 0), 9);
+  assert.equal(skipNonCode('\'}\'', 0), 3);
+  assert.equal(skipNonCode('x', 0), 0);
+});
+
+test('findMatchingBrace ignores braces in comments and literals', () => {
+  const source = '{ "}" /* } */ \'}\' { } }';
+  assert.equal(findMatchingBrace(source, 0), source.length - 1);
+  assert.equal(findMatchingBrace('{ {', 0), -1);
+});
+
+test('stripComments keeps string literals that look like comments', () => {
+  assert.equal(stripComments('a /* b */c // d\n"// e"'), 'a c \n"// e"');
+});
+
+test('parseJavaSource finds package, imports, declaration and members', () => {
+  const parsed = parseJavaSource(SOURCE);
+
+  assert.equal(parsed.packageLine, 'package com.example.api;');
+  assert.deepEqual(parsed.imports, [
+    'import io.restassured.response.Response;',
+    'import static org.junit.Assert.assertEquals;'
+  ]);
+  assert.equal(parsed.className, 'UserApi');
+  assert.match(parsed.declaration, /^\/\*\* Requests for the user API \*\/\n@SuppressWarnings\("unused"\)\npublic class UserApi \{$/);
+
+  // Field, method, array field and nested class; the nested class is not a method
+  assert.deepEqual(parsed.members.map(member => member.kind), ['other', 'method', 'other', 'other']);
+  const method = parsed.members[1];
+  assert.equal(method.name, 'getUser');
+  assert.equal(method.signature, 'getUser(String,Map<String, List<Integer>>)');
+  assert.ok(!method.header.includes('@Step'));
+  assert.match(method.text, /return given\(\)\.get\(BASE\);\n {4}\}$/);
+});
+
+test('parseJavaSource returns null without a complete class', () => {
+  assert.equal(parseJavaSource('import a.b;\n'), null);
+  assert.equal(parseJavaSource('public class Broken {\n void a() {\n'), null);
+});
+
+test('renderJavaSource reassembles the parsed parts', () => {
+  const parsed = parseJavaSource(SOURCE);
+  const rendered = renderJavaSource(parsed);
+  const reparsed = parseJavaSource(rendered);
+
+  assert.equal(reparsed.className, 'UserApi');
+  assert.deepEqual(reparsed.imports, parsed.imports);
+  assert.deepEqual(reparsed.members.map(member => member.text), parsed.members.map(member => member.text));
+  assert.ok(rendered.endsWith('}\n'));
+});
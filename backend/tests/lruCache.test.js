@@ -0,0 +1,72 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const LruCache = require('../utils/lruCache');
+
+test('evicts the least recently used entries once over maxSize', () => {
+  const cache = new LruCache({ maxSize: 3 });
+  cache.set('a', 1);
+  cache.set('b', 2);
+  cache.set('c', 3);
+  assert.equal(cache.get('a'), 1);
+  cache.set('d', 4);
+
+  assert.equal(cache.has('b'), false);
+  assert.deepEqual([...cache.entries.keys()], ['c', 'a', 'd']);
+  assert.equal(cache.getStats().evictions, 1);
+});
+
+test('bounds the total size reported by sizeOf', () => {
+  const cache = new LruCache({ maxSize: 10, sizeOf: value => value.length });
+  cache.set('a', 'xxxx');
+  cache.set('b', 'xxxx');
+  cache.set('c', 'xxxx');
+
+  assert.equal(cache.has('a'), false);
+  assert.equal(cache.getStats().size, 8);
+});
+
+test('rejects a value larger than the whole cache without evicting anything', () => {
+  const cache = new LruCache({ maxSize: 10, sizeOf: value => value.length });
+  cache.set('a', 'xxxx');
+
+  assert.equal(cache.set('big', 'x'.repeat(11)), false);
+  assert.equal(cache.get('a'), 'xxxx');
+  assert.equal(cache.getStats().size, 4);
+});
+
+test('replacing a key keeps the size accounting right', () => {
+  const cache = new LruCache({ maxSize: 10, sizeOf: value => value.length });
+  cache.set('a', 'xxxx');
+  cache.set('a', 'xx');
+
+  assert.equal(cache.getStats().size, 2);
+  assert.equal(cache.getStats().entries, 1);
+  cache.delete('a');
+  assert.equal(cache.getStats().size, 0);
+});
+
+test('expires entries after their ttl', (t) => {
+  let now = 1000;
+  t.mock.method(Date, 'now', () => now);
+  const cache = new LruCache({ ttlMs: 100 });
+  cache.set('a', 1);
+  cache.set('b', 2, { ttlMs: 0 });
+
+  now = 1099;
+  assert.equal(cache.get('a'), 1);
+  now = 1100;
+  assert.equal(cache.has('a'), false);
+  assert.equal(cache.get('a'), undefined);
+  assert.equal(cache.get('b'), 2);
+  assert.equal(cache.getStats().entries, 1);
+});
+
+test('counts hits and misses', () => {
+  const cache = new LruCache();
+  cache.set('a', 1);
+  cache.get('a');
+  cache.get('missing');
+
+  const { hits, misses } = cache.getStats();
+  assert.deepEqual({ hits, misses }, { hits: 1, misses: 1 });
+});
@@ -0,0 +1,152 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const { Registry, mergeSnapshots, render } = require('../utils/metrics');
+
+const createRegistry = () => {
+  const registry = new Registry();
+  return {
+    registry,
+    requests: registry.counter('requests_total', 'Requests by status', ['status']),
+    queued: registry.gauge('queued_jobs', 'Jobs waiting'),
+    duration: registry.histogram('duration_seconds', 'Duration', ['stage'], [1, 0.1, 0.5])
+  };
+};
+
+const lines = (text) => text.trimEnd().split('\n');
+
+test('renders counters and gauges with HELP and TYPE lines', () => {
+  const { registry, requests, queued } = createRegistry();
+  requests.inc({ status: 200 });
+  requests.inc({ status: 200 }, 2);
+  requests.inc({ status: 'ECONNRESET' });
+  queued.set({}, 4);
+
+  const text = render(registry.snapshot());
+  assert.ok(text.endsWith('\n'));
+  assert.deepEqual(lines(text), [
+    '# HELP requests_total Requests by status',
+    '# TYPE requests_total counter',
+    'requests_total{status="200"} 3',
+    'requests_total{status="ECONNRESET"} 1',
+    '# HELP queued_jobs Jobs waiting',
+    '# TYPE queued_jobs gauge',
+    'queued_jobs 4'
+  ]);
+});
+
+test('renders histograms with sorted cumulative buckets, +Inf, sum and count', () => {
+  const { registry, duration } = createRegistry();
+  [0.05, 0.3, 0.3, 2].forEach(value => duration.observe({ stage: 'parse' }, value));
+
+  assert.deepEqual(lines(render(registry.snapshot())), [
+    '# HELP duration_seconds Duration',
+    '# TYPE duration_seconds histogram',
+    'duration_seconds_bucket{stage="parse",le="0.1"} 1',
+    'duration_seconds_bucket{stage="parse",le="0.5"} 3',
+    'duration_seconds_bucket{stage="parse",le="1"} 3',
+    'duration_seconds_bucket{stage="parse",le="+Inf"} 4',
+    'duration_seconds_sum{stage="parse"} 2.65',
+    'duration_seconds_count{stage="parse"} 4'
+  ]);
+});
+
+test('escapes label values and records missing labels as empty', () => {
+  const registry = new Registry();
+  const errors = registry.counter('errors_total', 'Errors', ['message', 'code']);
+  errors.inc({ message: 'bad "quote" \\ and\nnewline' });
+
+  assert.equal(lines(render(registry.snapshot()))[2], 'errors_total{message="bad \\"quote\\" \\\\ and\\nnewline",code=""} 1');
+});
+
+test('keeps values JSON cannot represent through snapshots and merging', () => {
+  const registry = new Registry();
+  const limit = registry.gauge('limit', 'Limit', ['kind']);
+  limit.set({ kind: 'upper' }, Infinity);
+  limit.set({ kind: 'lower' }, -Infinity);
+  limit.set({ kind: 'unknown' }, NaN);
+
+  // Snapshots of other workers arrive as JSON
+  const snapshot = JSON.parse(JSON.stringify(registry.snapshot()));
+  assert.deepEqual(lines(render(mergeSnapshots([{ pid: 7, metrics: snapshot }]))).slice(2), [
+    'limit{kind="upper",pid="7"} +Inf',
+    'limit{kind="lower",pid="7"} -Inf',
+    'limit{kind="unknown",pid="7"} NaN'
+  ]);
+});
+
+test('times with startTimer, merging labels given when it stops', async () => {
+  const { registry, duration } = createRegistry();
+  const stop = duration.startTimer({ stage: 'save' });
+  await new Promise(resolve => setTimeout(resolve, 20));
+  const seconds = stop({ stage: 'save' });
+
+  assert.ok(seconds >= 0.015 && seconds < 1, `${seconds} s`);
+  const series = Object.values(registry.snapshot().duration_seconds.series);
+  assert.equal(series.length, 1);
+  assert.equal(series[0].count, 1);
+});
+
+test('snapshots are copies that later updates do not change', () => {
+  const { registry, requests } = createRegistry();
+  requests.inc({ status: 200 });
+  const snapshot = registry.snapshot();
+  requests.inc({ status: 200 });
+
+  assert.equal(Object.values(snapshot.requests_total.series)[0].value, 1);
+});
+
+test('runs collectors before each snapshot and refuses duplicate names', () => {
+  const { registry, queued } = createRegistry();
+  let depth = 0;
+  registry.onCollect(() => queued.set({}, ++depth));
+  registry.snapshot();
+
+  assert.equal(Object.values(registry.snapshot().queued_jobs.series)[0].value, 2);
+  assert.throws(() => registry.counter('queued_jobs', 'Again'), /already registered/);
+});
+
+test('merges the snapshots of several workers with a pid label per series', () => {
+  const first = createRegistry();
+  const second = createRegistry();
+  first.requests.inc({ status: 200 }, 5);
+  first.duration.observe({ stage: 'parse' }, 0.2);
+  second.requests.inc({ status: 200 }, 2);
+  second.requests.inc({ status: 500 });
+
+  const merged = mergeSnapshots([
+    { pid: 101, metrics: first.registry.snapshot() },
+    { pid: 202, metrics: second.registry.snapshot() }
+  ]);
+  const text = lines(render(merged));
+
+  // Series are kept per worker rather than added up
+  assert.ok(text.includes('requests_total{status="200",pid="101"} 5'));
+  assert.ok(text.includes('requests_total{status="200",pid="202"} 2'));
+  assert.ok(text.includes('requests_total{status="500",pid="202"} 1'));
+  assert.ok(text.includes('duration_seconds_bucket{stage="parse",pid="101",le="0.5"} 1'));
+  assert.ok(!text.some(line => line.includes('pid="202"') && line.startsWith('duration_seconds')));
+  // One HELP and TYPE per metric, however many workers report it
+  assert.equal(text.filter(line => line === '# TYPE requests_total counter').length, 1);
+});
+
+test('a worker missing from a scrape only removes its own series', () => {
+  const first = createRegistry();
+  const second = createRegistry();
+  first.requests.inc({ status: 200 }, 5);
+  second.requests.inc({ status: 200 }, 2);
+
+  const both = render(mergeSnapshots([
+    { pid: 101, metrics: first.registry.snapshot() },
+    { pid: 202, metrics: second.registry.snapshot() }
+  ]));
+  const one = render(mergeSnapshots([{ pid: 101, metrics: first.registry.snapshot() }]));
+
+  assert.ok(both.includes('requests_total{status="200",pid="101"} 5'));
+  assert.ok(one.includes('requests_total{status="200",pid="101"} 5'));
+  assert.ok(!one.includes('pid="202"'));
+});
+
+test('leaves out metrics without any series', () => {
+  const { registry } = createRegistry();
+  assert.equal(render(mergeSnapshots([{ pid: 1, metrics: registry.snapshot() }])), '\n');
+});
@@ -0,0 +1,73 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const logger = require('../utils/logger');
+const RetentionService = require('../services/retention');
+
+for (const level of ['info', 'warn', 'error']) test.mock.method(logger, level, () => {});
+
+const HASH = 'a'.repeat(64);
+const OLD = new Date(Date.now() - 30 * 24 * 60 * 60 * 1000);
+
+let root;
+let uploads;
+test.beforeEach(() => {
+  root = fs.mkdtempSync(path.join(os.tmpdir(), 'retention-'));
+  const dir = path.join(root, 'uploads');
+  uploads = {
+    dir,
+    blobsDir: path.join(dir, 'blobs'),
+    tmpDir: path.join(dir, 'blobs', 'tmp'),
+    parseHandle: () => null,
+    handleFor: (hash, name) => `${hash}-${name}`,
+    listHandles: async () => [],
+    removeHandles: async () => {},
+    removeHandlesOf: async () => {}
+  };
+  fs.mkdirSync(uploads.tmpDir, { recursive: true });
+  fs.mkdirSync(path.join(dir, 'profile-pictures'));
+  fs.mkdirSync(path.join(root, 'output'));
+
+  const files = [
+    path.join(dir, '.gitkeep'),
+    path.join(dir, '2025-07-05T16-24-28.875Z-Api.java'),
+    path.join(dir, 'profile-pictures', 'user.jpeg'),
+    path.join(uploads.blobsDir, HASH),
+    path.join(uploads.blobsDir, '.gitkeep'),
+    path.join(uploads.tmpDir, `${HASH}.123.tmp`)
+  ];
+  files.forEach(file => {
+    fs.writeFileSync(file, 'content');
+    fs.utimesSync(file, OLD, OLD);
+  });
+});
+test.afterEach(() => fs.rmSync(root, { recursive: true, force: true }));
+
+const sweepUploads = async (mode) => {
+  const service = new RetentionService({ store: { dir: path.join(root, 'output') }, uploads, mode });
+  assert.equal(await service.acquireLease(), true);
+  await service.sweepUploads(new Set());
+  await service.releaseLease();
+  return service;
+};
+
+test('an enforcing sweep removes expired uploads but keeps dotfiles and subdirectories', async () => {
+  const service = await sweepUploads('delete');
+
+  assert.deepEqual(fs.readdirSync(uploads.dir).sort(), ['.gitkeep', 'blobs', 'profile-pictures']);
+  assert.deepEqual(fs.readdirSync(uploads.blobsDir).sort(), ['.gitkeep', 'tmp']);
+  assert.deepEqual(fs.readdirSync(uploads.tmpDir), []);
+  assert.deepEqual(fs.readdirSync(path.join(uploads.dir, 'profile-pictures')), ['user.jpeg']);
+  assert.equal(service.stats.uploadsDeleted, 3);
+});
+
+test('a dry run counts the same files without deleting any', async () => {
+  const service = new RetentionService({ store: { dir: path.join(root, 'output') }, uploads, mode: 'dry-run' });
+  service.stats.wouldDelete = { generations: 0, uploadHandles: 0, uploads: 0, bytes: 0 };
+  await service.sweepUploads(new Set());
+
+  assert.equal(service.stats.wouldDelete.uploads, 3);
+  assert.equal(fs.readdirSync(uploads.dir).length, 4);
+});
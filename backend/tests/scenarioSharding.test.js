@@ -0,0 +1,136 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const {
+  estimateTokens,
+  estimateScenarioOutputTokens,
+  shardScenarios,
+  mergeShardOutputs
+} = require('../services/scenarioSharding');
+const { parseJavaSource } = require('../utils/javaSource');
+
+const scenario = (id, length = 0) => ({ ID: id, Steps: 'x'.repeat(length), 'Expected Result': '' });
+
+const methodFile = (className, methods) => `package com.example;
+
+import io.restassured.response.Response;
+
+public class ${className} {
+${methods.join('\n\n')}
+}
+`;
+
+const testFile = (className, methodClass, imports, tests) => `package com.example;
+
+${imports.join('\n')}
+
+public class ${className} {
+    private final ${methodClass} api = new ${methodClass}();
+
+${tests.join('\n\n')}
+}
+`;
+
+test('estimates about four characters per token', () => {
+  assert.equal(estimateTokens(''), 0);
+  assert.equal(estimateTokens(null), 0);
+  assert.equal(estimateTokens('abcde'), 2);
+  assert.ok(estimateScenarioOutputTokens(scenario(1, 400)) > estimateScenarioOutputTokens(scenario(2)));
+});
+
+test('keeps scenarios in order and every shard within the budget', () => {
+  const scenarios = Array.from({ length: 20 }, (_, index) => scenario(index + 1, 400));
+  const maxOutputTokens = 4000;
+  const shards = shardScenarios(scenarios, { maxOutputTokens });
+
+  assert.ok(shards.length > 1);
+  assert.deepEqual(shards.flat().map(s => s.ID), scenarios.map(s => s.ID));
+  shards.forEach(shard => {
+    const tokens = shard.reduce((sum, s) => sum + estimateScenarioOutputTokens(s), 0);
+    assert.ok(tokens <= maxOutputTokens * 0.75, `shard of ${tokens} tokens`);
+  });
+});
+
+test('puts a scenario larger than the budget in a shard of its own', () => {
+  const shards = shardScenarios([scenario(1), scenario(2, 40000), scenario(3)], { maxOutputTokens: 2000 });
+
+  assert.deepEqual(shards.map(shard => shard.map(s => s.ID)), [[1], [2], [3]]);
+  assert.deepEqual(shardScenarios([], { maxOutputTokens: 2000 }), []);
+});
+
+test('merges shard outputs into one method class and one test class', () => {
+  const shared = '    public Response getUser(String id) {\n        return given().get("/users/" + id);\n    }';
+  const outputs = [
+    {
+      methodFile: methodFile('UserApi', [shared,
+        '    public Response create(String body) {\n        return given().body(body).post("/users");\n    }']),
+      testFile: testFile('UserApiTest', 'UserApi', ['import org.junit.Test;'],
+        ['    @Test\n    public void testGetUser() {\n        api.getUser("1");\n    }',
+          '    @Test\n    public void testCreate() {\n        api.create("{}");\n    }'])
+    },
+    {
+      // Different class names and a clashing create(String) with another body
+      methodFile: methodFile('UserApiPart2', [shared,
+        '    public Response create(String body) {\n        return given().body(body).put("/users");\n    }']),
+      testFile: testFile('UserApiPart2Test', 'UserApiPart2', ['import org.junit.Test;', 'import org.junit.Assert;'],
+        ['    @Test\n    public void testCreate() {\n        api.create("[]");\n    }'])
+    }
+  ];
+
+  const merged = mergeShardOutputs(outputs);
+  const methods = parseJavaSource(merged.methodFile);
+  const tests = parseJavaSource(merged.testFile);
+
+  assert.equal(methods.className, 'UserApi');
+  assert.deepEqual(
+    methods.members.filter(member => member.kind === 'method').map(member => member.signature),
+    ['getUser(String)', 'create(String)', 'create_2(String)']
+  );
+  assert.match(merged.methodFile, /create_2\(String body\) \{\n {8}return given\(\)\.body\(body\)\.put/);
+
+  assert.equal(tests.className, 'UserApiTest');
+  assert.deepEqual(tests.imports, ['import org.junit.Test;', 'import org.junit.Assert;']);
+  assert.deepEqual(
+    tests.members.filter(member => member.kind === 'method').map(member => member.name),
+    ['testGetUser', 'testCreate', 'testCreate_2']
+  );
+  // The second shard's test calls the renamed method on the first shard's class
+  assert.match(merged.testFile, /testCreate_2\(\) \{\n {8}api\.create_2\("\[\]"\);/);
+  assert.ok(!merged.testFile.includes('UserApiPart2'));
+  assert.equal((merged.testFile.match(/private final UserApi api/g) || []).length, 1);
+});
+
+test('refuses to merge a shard without a Java class', () => {
+  assert.throws(
+    () => mergeShardOutputs([{ methodFile: 'no class here', testFile: 'nor here' }]),
+    /did not contain a Java class/
+  );
+});
+
+test('renames only the calls made through the method class', () => {
+  const outputs = [
+    {
+      methodFile: methodFile('OrderApi', [
+        '    public Response create(String body) {\n        return given().body(body).post("/orders");\n    }']),
+      testFile: testFile('OrderApiTest', 'OrderApi', ['import org.junit.Test;'],
+        ['    @Test\n    public void testCreate() {\n        api.create("{}");\n    }'])
+    },
+    {
+      methodFile: methodFile('OrderApiPart2', [
+        '    public Response create(String body) {\n        return spec.create(body).put("/orders");\n    }',
+        '    public Response createTwice(String body) {\n        create(body);\n        return this.create(body);\n    }']),
+      testFile: testFile('OrderApiPart2Test', 'OrderApiPart2', ['import org.junit.Test;'],
+        ['    @Test\n    public void testCreateTwice() {\n        OrderApiPart2 other = new OrderApiPart2();\n' +
+          '        Response response = api.create("[]");\n        other.create("[]");\n' +
+          '        builder.create("x");\n        response.jsonPath().create("y");\n    }'])
+    }
+  ];
+
+  const merged = mergeShardOutputs(outputs);
+
+  assert.match(merged.methodFile, /return spec\.create\(body\)\.put/);
+  assert.match(merged.methodFile, /create_2\(body\);\n {8}return this\.create_2\(body\);/);
+  assert.match(merged.testFile, /Response response = api\.create_2\("\[\]"\);/);
+  assert.match(merged.testFile, /other\.create_2\("\[\]"\);/);
+  assert.match(merged.testFile, /builder\.create\("x"\);/);
+  assert.match(merged.testFile, /response\.jsonPath\(\)\.create\("y"\);/);
+});
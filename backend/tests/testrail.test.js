@@ -0,0 +1,60 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const { testrailClient } = require('../services/httpClients');
+const {
+  isTestrailId,
+  invalidTestrailIdField,
+  requireTestrailId,
+  requireTestrailCaseId,
+  getTestrailCase
+} = require('../services/testrail');
+
+const BASE_URL = 'https://example.testrail.io/';
+
+test('accepts only plain positive integers as IDs', () => {
+  ['1', '123', 42, '9999999999'].forEach(id => assert.equal(isTestrailId(id), true, String(id)));
+  ['0', '-1', '012', '1.5', '12a', '1&limit=1', '', ' 1', '12345678901', 'C1'].forEach(id =>
+    assert.equal(isTestrailId(id), false, String(id)));
+});
+
+test('accepts case IDs with or without the C prefix', () => {
+  assert.equal(requireTestrailCaseId('123'), 123);
+  assert.equal(requireTestrailCaseId('C123'), 123);
+  assert.equal(requireTestrailCaseId('c123'), 123);
+  assert.equal(requireTestrailCaseId(123), 123);
+  ['CC123', 'C', 'C0', 'C12a', 'P123', 'C123/../get_users'].forEach(id =>
+    assert.throws(() => requireTestrailCaseId(id), /optionally prefixed with C/, id));
+});
+
+test('allows the C prefix on the case ID field only', () => {
+  assert.equal(invalidTestrailIdField({ testCaseId: 'C123' }), null);
+  assert.equal(invalidTestrailIdField({ testCaseId: '123', projectId: '' }), null);
+  assert.equal(invalidTestrailIdField({ testCaseId: 'C12x' }), 'testCaseId');
+  assert.equal(invalidTestrailIdField({ projectId: 'C1' }), 'projectId');
+  assert.equal(invalidTestrailIdField({ projectId: '1', suiteId: '2', sectionId: '3&x=1' }), 'sectionId');
+  assert.throws(() => requireTestrailId('C1', 'project ID'), /project ID must be a positive integer/);
+});
+
+test('requests the numeric case ID for both forms', async (t) => {
+  const urls = [];
+  t.mock.method(testrailClient, 'get', async (url) => {
+    urls.push(url);
+    return { data: { id: Number(url.split('/').pop()) } };
+  });
+
+  const credentials = { username: 'user', apikey: `key-${Date.now()}` };
+  assert.deepEqual(await getTestrailCase(BASE_URL, 'C501', credentials), { id: 501 });
+  assert.deepEqual(await getTestrailCase(BASE_URL, '502', credentials), { id: 502 });
+
+  assert.deepEqual(urls, [
+    'https://example.testrail.io/index.php?/api/v2/get_case/501',
+    'https://example.testrail.io/index.php?/api/v2/get_case/502'
+  ]);
+});
+
+test('rejects an invalid case ID before calling TestRail', async (t) => {
+  const get = t.mock.method(testrailClient, 'get', async () => ({ data: {} }));
+
+  await assert.rejects(getTestrailCase(BASE_URL, 'C1?x', { username: 'u', apikey: 'k' }), /positive integer/);
+  assert.equal(get.mock.callCount(), 0);
+});
@@ -0,0 +1,70 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const TokenBucket = require('../utils/tokenBucket');
+
+// 6000 per minute is one token every 10 ms
+const bucket = (capacity, refillPerMinute = 6000) => new TokenBucket({ capacity, refillPerMinute });
+
+const elapsed = async (fn) => {
+  const startedAt = Date.now();
+  await fn();
+  return Date.now() - startedAt;
+};
+
+test('hands out a full bucket without waiting, then waits for refills', async () => {
+  const tokens = bucket(5);
+
+  assert.ok(await elapsed(() => tokens.take(5)) < 10);
+  assert.ok(await elapsed(() => tokens.take(2)) >= 15);
+});
+
+test('serves callers in order', async () => {
+  const tokens = bucket(2);
+  const order = [];
+  await Promise.all([
+    tokens.take(2).then(() => order.push('first')),
+    tokens.take(2).then(() => order.push('second')),
+    tokens.take(1).then(() => order.push('third'))
+  ]);
+
+  assert.deepEqual(order, ['first', 'second', 'third']);
+});
+
+test('a request larger than the capacity waits for a full bucket instead of forever', async () => {
+  const tokens = bucket(3);
+  await tokens.take(3);
+
+  const waited = await elapsed(() => tokens.take(100));
+  assert.ok(waited >= 25 && waited < 1000, `waited ${waited} ms`);
+});
+
+test('pauseUntil holds every caller back', async () => {
+  const tokens = bucket(5);
+  tokens.pauseUntil(Date.now() + 50);
+
+  assert.ok(await elapsed(() => tokens.take(1)) >= 45);
+  assert.equal(tokens.getStats().pausedForMs, 0);
+});
+
+test('adjust corrects an estimate, leaving the bucket in debt if needed', () => {
+  const tokens = bucket(100, 1);
+  tokens.adjust(30);
+  assert.equal(tokens.getStats().available, 70);
+  tokens.adjust(150);
+  assert.equal(tokens.getStats().available, -80);
+  tokens.adjust(-500);
+  assert.equal(tokens.getStats().available, 100);
+});
+
+test('an infinite capacity never limits but still honours pauses', async () => {
+  const tokens = bucket(Infinity, Infinity);
+
+  assert.ok(await elapsed(async () => {
+    for (let i = 0; i < 100; i++) await tokens.take(100000);
+  }) < 50);
+  tokens.adjust(500);
+  assert.deepEqual(tokens.getStats(), { available: 'unlimited', capacity: 'unlimited', pausedForMs: 0 });
+
+  tokens.pauseUntil(Date.now() + 30);
+  assert.ok(await elapsed(() => tokens.take(1)) >= 25);
+});
@@ -0,0 +1,69 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const { Readable } = require('stream');
+const { scanElements, parseAttributes, decodeEntities } = require('../utils/xmlScanner');
+
+const collect = async (chunks, tags) => {
+  const elements = [];
+  for await (const element of scanElements(Readable.from(chunks), tags)) elements.push(element);
+  return elements;
+};
+
+// Split text into chunks of the given size, as Buffers like a file stream delivers them
+const chunked = (text, size) => {
+  const buffer = Buffer.from(text);
+  const chunks = [];
+  for (let i = 0; i < buffer.length; i += size) chunks.push(buffer.subarray(i, i + size));
+  return chunks;
+};
+
+const SHEET = '<?xml version="1.0"?><worksheet><sheetData>'
+  + '<row r="1"><c r="A1" t="s"><v>0</v></c></row>'
+  + '<row r="2" spans="1:2"/>'
+  + '<x:row r="3"><x:c r="A3" t="inlineStr"><x:is><x:t>Ünïcödé &amp; more</x:t></x:is></x:c></x:row>'
+  + '<rowBreaks/><row r="4"><c r="A4"><v>4</v></c></row>'
+  + '</sheetData></worksheet>';
+
+test('yields every element, with or without a namespace prefix', async () => {
+  const rows = await collect([SHEET], ['row']);
+
+  assert.equal(rows.length, 4);
+  assert.equal(rows[0], '<row r="1"><c r="A1" t="s"><v>0</v></c></row>');
+  assert.equal(rows[1], '<row r="2" spans="1:2"/>');
+  assert.match(rows[2], /^<x:row r="3">.*<\/x:row>$/);
+  assert.equal(rows[3], '<row r="4"><c r="A4"><v>4</v></c></row>');
+});
+
+test('does not match elements whose name only starts with the tag', async () => {
+  const rows = await collect([SHEET], ['row']);
+  assert.ok(rows.every(row => !row.startsWith('<rowBreaks')));
+});
+
+test('finds the same elements however the stream is split', async () => {
+  const expected = await collect([SHEET], ['row', 'sheetData']);
+  for (const size of [1, 2, 3, 7, 16, 64]) {
+    assert.deepEqual(await collect(chunked(SHEET, size), ['row', 'sheetData']), expected, `chunks of ${size} bytes`);
+  }
+});
+
+test('keeps multi-byte characters split between chunks intact', async () => {
+  const rows = await collect(chunked(SHEET, 5), ['t']);
+  assert.deepEqual(rows, ['<x:t>Ünïcödé &amp; more</x:t>']);
+});
+
+test('finds a start tag beyond the carried over text of a long gap', async () => {
+  const xml = `<root>${' '.repeat(5000)}<row r="1"/></root>`;
+  assert.deepEqual(await collect(chunked(xml, 1000), ['row']), ['<row r="1"/>']);
+});
+
+test('parses attributes of the opening tag only, decoding entities', () => {
+  assert.deepEqual(
+    parseAttributes('<sheet name="A &amp; B" sheetId=\'2\' r:id="rId2"><x name="inner"/></sheet>'),
+    { name: 'A & B', sheetId: '2', 'r:id': 'rId2' }
+  );
+  assert.deepEqual(parseAttributes('<row/>'), {});
+});
+
+test('decodes named and numeric entities and leaves unknown ones alone', () => {
+  assert.equal(decodeEntities('&lt;a&gt; &quot;b&quot; &apos;c&apos; &#65;&#x42; &nbsp;'), '<a> "b" \'c\' AB &nbsp;');
+});
@@ -0,0 +1,126 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const zlib = require('zlib');
+const { ZipReader, ZipFormatError } = require('../utils/zipReader');
+
+// Build a ZIP archive from { name, content, method } entries (0 stored, 8 deflated).
+// The reader does not check CRCs, so they are left at zero.
+const buildZip = (entries, { comment = '' } = {}) => {
+  const locals = [];
+  const centrals = [];
+  let offset = 0;
+  for (const { name, content, method = 8 } of entries) {
+    const data = method === 8 ? zlib.deflateRawSync(content) : content;
+    const nameBuffer = Buffer.from(name);
+
+    const local = Buffer.alloc(30);
+    local.writeUInt32LE(0x04034b50, 0);
+    local.writeUInt16LE(method, 8);
+    local.writeUInt32LE(data.length, 18);
+    local.writeUInt32LE(content.length, 22);
+    local.writeUInt16LE(nameBuffer.length, 26);
+    // An extra field in the local header only, to check it is skipped
+    const extra = Buffer.from([0xfe, 0xca, 0x02, 0x00, 0x00, 0x00]);
+    local.writeUInt16LE(extra.length, 28);
+    locals.push(local, nameBuffer, extra, data);
+
+    const central = Buffer.alloc(46);
+    central.writeUInt32LE(0x02014b50, 0);
+    central.writeUInt16LE(method, 10);
+    central.writeUInt32LE(data.length, 20);
+    central.writeUInt32LE(content.length, 24);
+    central.writeUInt16LE(nameBuffer.length, 28);
+    central.writeUInt32LE(offset, 42);
+    centrals.push(central, nameBuffer);
+
+    offset += local.length + nameBuffer.length + extra.length + data.length;
+  }
+
+  const directory = Buffer.concat(centrals);
+  const commentBuffer = Buffer.from(comment);
+  const end = Buffer.alloc(22);
+  end.writeUInt32LE(0x06054b50, 0);
+  end.writeUInt16LE(entries.length, 8);
+  end.writeUInt16LE(entries.length, 10);
+  end.writeUInt32LE(directory.length, 12);
+  end.writeUInt32LE(offset, 16);
+  end.writeUInt16LE(commentBuffer.length, 20);
+  return Buffer.concat([...locals, directory, end, commentBuffer]);
+};
+
+const SHEET = Buffer.from(`<worksheet>${'<row r="1"><c><v>1</v></c></row>'.repeat(2000)}</worksheet>`);
+
+let dir;
+test.before(() => {
+  dir = fs.mkdtempSync(path.join(os.tmpdir(), 'zip-reader-'));
+});
+test.after(() => fs.rmSync(dir, { recursive: true, force: true }));
+
+const writeZip = (name, buffer) => {
+  const filePath = path.join(dir, name);
+  fs.writeFileSync(filePath, buffer);
+  return filePath;
+};
+
+test('reads stored, deflated and empty entries', async () => {
+  const filePath = writeZip('book.xlsx', buildZip([
+    { name: '[Content_Types].xml', content: Buffer.from('<Types/>'), method: 0 },
+    { name: 'xl/worksheets/sheet1.xml', content: SHEET },
+    { name: 'xl/empty.xml', content: Buffer.alloc(0), method: 0 }
+  ], { comment: 'written by a test' }));
+
+  const zip = await ZipReader.open(filePath);
+  assert.equal(zip.has('xl/worksheets/sheet1.xml'), true);
+  assert.equal(zip.has('xl/worksheets/sheet2.xml'), false);
+  assert.equal((await zip.readEntry('[Content_Types].xml')).toString(), '<Types/>');
+  assert.deepEqual(await zip.readEntry('xl/worksheets/sheet1.xml'), SHEET);
+  assert.equal((await zip.readEntry('xl/empty.xml')).length, 0);
+});
+
+test('streams a deflated entry in several chunks', async () => {
+  const filePath = writeZip('stream.xlsx', buildZip([{ name: 'sheet.xml', content: SHEET }]));
+  const zip = await ZipReader.open(filePath);
+
+  let chunks = 0;
+  let length = 0;
+  for await (const chunk of await zip.openEntryStream('sheet.xml')) {
+    chunks++;
+    length += chunk.length;
+  }
+  assert.equal(length, SHEET.length);
+  assert.ok(chunks > 1);
+});
+
+test('rejects files that are not ZIP archives', async () => {
+  const filePath = writeZip('plain.xlsx', Buffer.from('name,value\na,1\n'));
+  await assert.rejects(ZipReader.open(filePath), (error) => error instanceof ZipFormatError && /Not a ZIP archive/.test(error.message));
+});
+
+test('rejects a corrupt central directory', async () => {
+  const zip = buildZip([{ name: 'a.xml', content: Buffer.from('<a/>') }]);
+  const directoryOffset = zip.readUInt32LE(zip.length - 6);
+  zip.writeUInt32LE(0, directoryOffset);
+
+  await assert.rejects(ZipReader.open(writeZip('corrupt.xlsx', zip)), /Corrupt ZIP central directory/);
+});
+
+test('rejects missing entries, unsupported methods and broken local headers', async () => {
+  const zip = buildZip([
+    { name: 'a.xml', content: Buffer.from('<a/>'), method: 0 },
+    { name: 'b.xml', content: Buffer.from('<b/>'), method: 0 }
+  ]);
+  // b.xml claims to be bzip2-compressed in the central directory
+  const directoryOffset = zip.readUInt32LE(zip.length - 6);
+  const secondEntry = directoryOffset + 46 + 'a.xml'.length;
+  zip.writeUInt16LE(12, secondEntry + 10);
+  // and the local header of a.xml is overwritten
+  zip.writeUInt32LE(0, 0);
+
+  const reader = await ZipReader.open(writeZip('broken.xlsx', zip));
+  await assert.rejects(reader.readEntry('c.xml'), /ZIP entry not found: c.xml/);
+  await assert.rejects(reader.readEntry('b.xml'), /Unsupported compression method 12/);
+  await assert.rejects(reader.readEntry('a.xml'), /Corrupt local header for a.xml/);
+});
@@ -0,0 +1,66 @@
+// Concurrency limiter that tunes its limit with AIMD (additive increase, multiplicative decrease):
+// every success raises the limit by about one per window, throttling halves it and a latency
+// spike trims it slightly.
+class AdaptiveConcurrencyLimiter {
+  constructor({ initial = 4, min = 1, max = 32, latencyTolerance = 2 } = {}) {
+    this.limit = initial;
+    this.min = min;
+    this.max = max;
+    this.latencyTolerance = latencyTolerance;
+    this.inFlight = 0;
+    this.waiters = [];
+    this.baselineLatency = null;
+  }
+
+  async acquire() {
+    if (this.inFlight < Math.floor(this.limit)) {
+      this.inFlight++;
+      return;
+    }
+    await new Promise(resolve => this.waiters.push(resolve));
+  }
+
+  release() {
+    this.inFlight--;
+    this.wake();
+  }
+
+  // Hand freed slots straight to queued callers
+  wake() {
+    while (this.waiters.length > 0 && this.inFlight < Math.floor(this.limit)) {
+      this.inFlight++;
+      this.waiters.shift()();
+    }
+  }
+
+  // latency is any per-unit latency (e.g. ms per generated token) so requests are comparable
+  onSuccess(latency = null) {
+    if (latency !== null && Number.isFinite(latency)) {
+      if (this.baselineLatency !== null && latency > this.baselineLatency * this.latencyTolerance) {
+        this.limit = Math.max(this.min, this.limit * 0.9);
+      } else {
+        this.limit = Math.min(this.max, this.limit + 1 / this.limit);
+      }
+      this.baselineLatency = this.baselineLatency === null
+        ? latency
+        : this.baselineLatency * 0.9 + latency * 0.1;
+    } else {
+      this.limit = Math.min(this.max, this.limit + 1 / this.limit);
+    }
+    this.wake();
+  }
+
+  onThrottle() {
+    this.limit = Math.max(this.min, this.limit / 2);
+  }
+
+  getStats() {
+    return {
+      limit: Number(this.limit.toFixed(2)),
+      inFlight: this.inFlight,
+      queued: this.waiters.length
+    };
+  }
+}
+
+module.exports = AdaptiveConcurrencyLimiter;
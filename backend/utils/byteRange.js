@@ -0,0 +1,18 @@
+const UNSATISFIABLE = 'unsatisfiable';
+
+// Decide how to answer a Range request from the result of req.range(length) (range-parser):
+// { start, end } for a single byte range, UNSATISFIABLE when no requested range fits the file,
+// or null to send the whole file. A malformed header, another unit, several ranges (multipart
+// responses are not supported) and an If-Range that does not match the current ETag all get
+// the whole file, as does anything range-parser returns that is not a usable byte range.
+const selectByteRange = (ranges, { ifRange, etag } = {}) => {
+  if (ifRange && ifRange !== etag) return null;
+  if (ranges === -1) return UNSATISFIABLE;
+  if (!Array.isArray(ranges) || ranges.type !== 'bytes' || ranges.length !== 1) return null;
+
+  const { start, end } = ranges[0];
+  if (!Number.isInteger(start) || !Number.isInteger(end) || start < 0 || start > end) return null;
+  return { start, end };
+};
+
+module.exports = { selectByteRange, UNSATISFIABLE };
@@ -0,0 +1,54 @@
+const cluster = require('cluster');
+const { EventEmitter } = require('events');
+
+const BUS_MESSAGE = 'cluster-bus';
+
+// Publish/subscribe between the workers of cluster.js. Messages go to the primary over IPC
+// and are relayed to every other worker. Outside cluster mode publishing is a no-op, so
+// callers do not need to care how the server was started.
+class ClusterBus extends EventEmitter {
+  constructor() {
+    super();
+    this.setMaxListeners(0);
+    this.enabled = cluster.isWorker && typeof process.send === 'function';
+    if (this.enabled) {
+      process.on('message', (message) => {
+        if (message && message.type === BUS_MESSAGE) {
+          this.emit(message.channel, message.payload, message.origin);
+        }
+      });
+    }
+  }
+
+  // Number of server processes sharing the load (1 when not clustered)
+  get workerCount() {
+    return this.enabled ? parseInt(process.env.CLUSTER_WORKER_COUNT, 10) || 1 : 1;
+  }
+
+  publish(channel, payload) {
+    if (!this.enabled) return;
+    process.send({ type: BUS_MESSAGE, channel, payload, origin: process.pid });
+  }
+}
+
+// Primary side: relay bus messages from one worker to all the others
+const relayBusMessages = (workers) => (sender, message) => {
+  if (!message || message.type !== BUS_MESSAGE) return;
+  Object.values(workers()).forEach(worker => {
+    if (worker && worker !== sender && worker.isConnected()) worker.send(message);
+  });
+};
+
+// Primary side: tell the remaining workers on the 'worker-exit' channel that a worker exited,
+// so they can clean up state that only that worker would have updated
+const announceWorkerExit = (workers, pid) => {
+  const message = { type: BUS_MESSAGE, channel: 'worker-exit', payload: { pid }, origin: process.pid };
+  Object.values(workers()).forEach(worker => {
+    if (worker && worker.process.pid !== pid && worker.isConnected()) worker.send(message);
+  });
+};
+
+module.exports = new ClusterBus();
+module.exports.relayBusMessages = relayBusMessages;
+module.exports.announceWorkerExit = announceWorkerExit;
+module.exports.BUS_MESSAGE = BUS_MESSAGE;
@@ -0,0 +1,76 @@
+const sleep = (ms) => new Promise(resolve => setTimeout(resolve, ms));
+
+// Run fn over items with at most `limit` calls in flight; results keep the input order
+const mapWithConcurrency = async (items, limit, fn) => {
+  const results = new Array(items.length);
+  let nextIndex = 0;
+
+  const worker = async () => {
+    while (nextIndex < items.length) {
+      const index = nextIndex++;
+      results[index] = await fn(items[index], index);
+    }
+  };
+
+  const workers = [];
+  for (let i = 0; i < Math.max(1, Math.min(limit, items.length)); i++) {
+    workers.push(worker());
+  }
+  await Promise.all(workers);
+  return results;
+};
+
+// Interleave the items of several async iterables, consuming at most `limit` of them at a time.
+// Items are yielded as soon as any source produces them; the first error is rethrown.
+const mergeAsyncIterables = async function* (factories, limit) {
+  const buffer = [];
+  let wake = null;
+  let error = null;
+  let stopped = false;
+  let active = 0;
+  let nextIndex = 0;
+
+  const notify = () => {
+    if (wake) {
+      wake();
+      wake = null;
+    }
+  };
+
+  const start = () => {
+    while (!stopped && active < limit && nextIndex < factories.length) {
+      const factory = factories[nextIndex++];
+      active++;
+      (async () => {
+        for await (const item of factory()) {
+          if (stopped) return;
+          buffer.push(item);
+          notify();
+        }
+      })()
+        .catch(err => { error = error || err; })
+        .finally(() => {
+          active--;
+          start();
+          notify();
+        });
+    }
+  };
+
+  try {
+    start();
+    while (true) {
+      if (error) throw error;
+      if (buffer.length > 0) {
+        yield buffer.shift();
+        continue;
+      }
+      if (active === 0 && nextIndex >= factories.length) return;
+      await new Promise(resolve => { wake = resolve; });
+    }
+  } finally {
+    stopped = true;
+  }
+};
+
+module.exports = { sleep, mapWithConcurrency, mergeAsyncIterables };
@@ -0,0 +1,229 @@
+// Lightweight structural parsing of generated/template Java sources.
+// This is not a Java parser: it only understands enough (comments, literals, braces)
+// to find the package, imports, the top-level class and its members.
+
+// If a comment or literal starts at index i, return the index just past it, otherwise i
+const skipNonCode = (source, i) => {
+  const c = source[i];
+  const next = source[i + 1];
+
+  if (c === '/' && next === '/') {
+    const end = source.indexOf('\n', i);
+    return end === -1 ? source.length : end;
+  }
+  if (c === '/' && next === '*') {
+    const end = source.indexOf('*/', i + 2);
+    return end === -1 ? source.length : end + 2;
+  }
+  if (c === '"' && source.startsWith('"""', i)) {
+    const end = source.indexOf('"""', i + 3);
+    return end === -1 ? source.length : end + 3;
+  }
+  if (c === '"' || c === '\'') {
+    let j = i + 1;
+    while (j < source.length && source[j] !== c && source[j] !== '\n') {
+      j += source[j] === '\\' ? 2 : 1;
+    }
+    return j + 1;
+  }
+  return i;
+};
+
+// Index of the brace closing the one at openIndex, or -1
+const findMatchingBrace = (source, openIndex) => {
+  let depth = 0;
+  for (let i = openIndex; i < source.length; i++) {
+    const skipped = skipNonCode(source, i);
+    if (skipped !== i) {
+      i = skipped - 1;
+      continue;
+    }
+    if (source[i] === '{') depth++;
+    else if (source[i] === '}') {
+      depth--;
+      if (depth === 0) return i;
+    }
+  }
+  return -1;
+};
+
+const normalizeWhitespace = (text) => text.replace(/\s+/g, ' ').trim();
+
+// Remove comments, keeping string and char literals intact
+const stripComments = (text) => {
+  let result = '';
+  for (let i = 0; i < text.length; i++) {
+    const skipped = skipNonCode(text, i);
+    if (skipped === i) {
+      result += text[i];
+      continue;
+    }
+    if (text[i] !== '/') result += text.substring(i, skipped);
+    i = skipped - 1;
+  }
+  return result;
+};
+
+// Drop annotations (including their arguments) from a member header
+const stripAnnotations = (header) => {
+  let result = '';
+  for (let i = 0; i < header.length; i++) {
+    if (header[i] === '@' && /[A-Za-z]/.test(header[i + 1] || '')) {
+      let j = i + 1;
+      while (j < header.length && /[\w.]/.test(header[j])) j++;
+      while (j < header.length && /\s/.test(header[j])) j++;
+      if (header[j] === '(') {
+        let depth = 0;
+        for (; j < header.length; j++) {
+          const skipped = skipNonCode(header, j);
+          if (skipped !== j) {
+            j = skipped - 1;
+            continue;
+          }
+          if (header[j] === '(') depth++;
+          else if (header[j] === ')' && --depth === 0) break;
+        }
+        j++;
+      }
+      i = j - 1;
+      continue;
+    }
+    result += header[i];
+  }
+  return result;
+};
+
+// Split a comma separated parameter list, ignoring commas inside generics
+const splitParameters = (parameters) => {
+  const parts = [];
+  let depth = 0;
+  let current = '';
+  for (const c of parameters) {
+    if (c === '<') depth++;
+    if (c === '>') depth--;
+    if (c === ',' && depth === 0) {
+      parts.push(current);
+      current = '';
+    } else {
+      current += c;
+    }
+  }
+  if (current.trim()) parts.push(current);
+  return parts.map(part => part.trim()).filter(Boolean);
+};
+
+const describeMember = (text) => {
+  // Find the first '{', '=' or ';' outside of comments, literals and annotation arguments
+  let braceIndex = -1;
+  let parenDepth = 0;
+  for (let i = 0; i < text.length; i++) {
+    const skipped = skipNonCode(text, i);
+    if (skipped !== i) {
+      i = skipped - 1;
+      continue;
+    }
+    const c = text[i];
+    if (c === '(') parenDepth++;
+    else if (c === ')') parenDepth--;
+    else if (parenDepth === 0 && (c === '{' || c === '=' || c === ';')) {
+      if (c === '{') braceIndex = i;
+      break;
+    }
+  }
+
+  if (braceIndex !== -1) {
+    const header = normalizeWhitespace(stripAnnotations(stripComments(text.substring(0, braceIndex))));
+    const match = header.match(/(\w+)\s*\(([^)]*)\)\s*(?:throws\s+[\w.,\s]+)?$/);
+    if (match) {
+      const parameterTypes = splitParameters(match[2])
+        .map(parameter => parameter.replace(/\s+\w+$/, '').replace(/\bfinal\s+/, ''));
+      return {
+        kind: 'method',
+        name: match[1],
+        signature: `${match[1]}(${parameterTypes.join(',')})`,
+        header,
+        bodyStart: braceIndex
+      };
+    }
+  }
+  return { kind: 'other' };
+};
+
+// Split a class body into its top-level members (fields, methods, nested types)
+const splitMembers = (body) => {
+  const members = [];
+  let start = 0;
+  let depth = 0;
+
+  const push = (end) => {
+    const text = body.substring(start, end).replace(/^\s*\n/, '').replace(/\s+$/, '');
+    if (text.trim()) members.push(text);
+    start = end;
+  };
+
+  for (let i = 0; i < body.length; i++) {
+    const skipped = skipNonCode(body, i);
+    if (skipped !== i) {
+      i = skipped - 1;
+      continue;
+    }
+    const c = body[i];
+    if (c === '{') {
+      depth++;
+    } else if (c === '}') {
+      depth--;
+      // Array initializers and anonymous classes continue up to the ';'
+      if (depth === 0 && !/^\s*[;,)]/.test(body.substring(i + 1))) push(i + 1);
+    } else if (c === ';' && depth === 0) {
+      push(i + 1);
+    }
+  }
+  push(body.length);
+
+  return members.map(text => ({ text, ...describeMember(text) }));
+};
+
+// Parse a Java file into { packageLine, imports, declaration, className, members }.
+// Returns null when no top-level class can be found.
+const parseJavaSource = (source) => {
+  const classMatch = source.match(/^[ \t]*(?:(?:public|final|abstract)\s+)*(?:class|interface|enum)\s+(\w+)[^{]*\{/m);
+  if (!classMatch) return null;
+
+  const openIndex = classMatch.index + classMatch[0].length - 1;
+  const closeIndex = findMatchingBrace(source, openIndex);
+  if (closeIndex === -1) return null;
+
+  const header = source.substring(0, classMatch.index);
+  const packageMatch = header.match(/^\s*package\s+[\w.]+\s*;/m);
+  const imports = (header.match(/^\s*import\s+(?:static\s+)?[\w.*]+\s*;/gm) || []).map(line => line.trim());
+
+  // Class annotations and comments between the imports and the class keyword
+  const lastStatement = Math.max(header.lastIndexOf(';') + 1, 0);
+  const declaration = `${header.substring(lastStatement).trim()}\n${classMatch[0].trim()}`.trim();
+
+  return {
+    packageLine: packageMatch ? packageMatch[0].trim() : null,
+    imports,
+    declaration,
+    className: classMatch[1],
+    members: splitMembers(source.substring(openIndex + 1, closeIndex))
+  };
+};
+
+// Assemble a Java file from parsed parts
+const renderJavaSource = ({ packageLine, imports, declaration, members }) => {
+  const sections = [];
+  if (packageLine) sections.push(packageLine);
+  if (imports.length > 0) sections.push(imports.join('\n'));
+  sections.push(`${declaration}\n\n${members.map(member => member.text).join('\n\n')}\n}`);
+  return `${sections.join('\n\n')}\n`;
+};
+
+module.exports = {
+  skipNonCode,
+  findMatchingBrace,
+  normalizeWhitespace,
+  stripComments,
+  parseJavaSource,
+  renderJavaSource
+};
@@ -0,0 +1,23 @@
+// Enhanced logging utility (inspired by Streamlit version)
+const logger = {
+  info: (message, data = null) => {
+    const timestamp = new Date().toISOString();
+    console.log(`[${timestamp}] INFO: ${message}`);
+    if (data) console.log('Data:', JSON.stringify(data, null, 2));
+  },
+  error: (message, error = null) => {
+    const timestamp = new Date().toISOString();
+    console.error(`[${timestamp}] ERROR: ${message}`);
+    if (error) {
+      console.error('Error details:', error.message);
+      if (error.stack) console.error('Stack:', error.stack);
+    }
+  },
+  warn: (message, data = null) => {
+    const timestamp = new Date().toISOString();
+    console.warn(`[${timestamp}] WARN: ${message}`);
+    if (data) console.warn('Data:', JSON.stringify(data, null, 2));
+  }
+};
+
+module.exports = logger;
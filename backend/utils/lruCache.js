@@ -0,0 +1,80 @@
+// Size-bounded least-recently-used cache with optional per-entry expiry.
+// A Map keeps insertion order, so re-inserting on access moves an entry to the "recent" end.
+class LruCache {
+  constructor({ maxSize = 1000, sizeOf = () => 1, ttlMs = 0 } = {}) {
+    this.maxSize = maxSize;
+    this.sizeOf = sizeOf;
+    this.ttlMs = ttlMs;
+    this.entries = new Map();
+    this.totalSize = 0;
+    this.stats = { hits: 0, misses: 0, evictions: 0 };
+  }
+
+  get(key) {
+    const entry = this.entries.get(key);
+    if (!entry) {
+      this.stats.misses++;
+      return undefined;
+    }
+    if (entry.expiresAt && entry.expiresAt <= Date.now()) {
+      this.delete(key);
+      this.stats.misses++;
+      return undefined;
+    }
+
+    this.entries.delete(key);
+    this.entries.set(key, entry);
+    this.stats.hits++;
+    return entry.value;
+  }
+
+  has(key) {
+    const entry = this.entries.get(key);
+    return Boolean(entry) && !(entry.expiresAt && entry.expiresAt <= Date.now());
+  }
+
+  set(key, value, { ttlMs = this.ttlMs } = {}) {
+    const size = this.sizeOf(value, key);
+    if (size > this.maxSize) return false;
+
+    this.delete(key);
+    this.entries.set(key, {
+      value,
+      size,
+      expiresAt: ttlMs > 0 ? Date.now() + ttlMs : 0
+    });
+    this.totalSize += size;
+
+    // Evict from the least recently used end until we are back under the bound
+    for (const [oldestKey] of this.entries) {
+      if (this.totalSize <= this.maxSize) break;
+      this.delete(oldestKey);
+      this.stats.evictions++;
+    }
+    return true;
+  }
+
+  delete(key) {
+    const entry = this.entries.get(key);
+    if (!entry) return false;
+    this.entries.delete(key);
+    this.totalSize -= entry.size;
+    return true;
+  }
+
+  clear() {
+    this.entries.clear();
+    this.totalSize = 0;
+  }
+
+  getStats() {
+    return {
+      ...this.stats,
+      entries: this.entries.size,
+      size: this.totalSize,
+      maxSize: this.maxSize
+    };
+  }
+}
+
+module.exports = LruCache;
@@ -0,0 +1,180 @@
+// Minimal Prometheus metrics: counters, gauges and histograms in a registry that renders the
+// text exposition format. Metrics are kept as plain snapshots so those of several processes
+// can be rendered together, each series labelled with the pid of its process.
+
+const escapeLabel = (value) => String(value).replace(/\\/g, '\\\\').replace(/\n/g, '\\n').replace(/"/g, '\\"');
+
+const formatLabels = (labels) => {
+  const pairs = Object.entries(labels).map(([name, value]) => `${name}="${escapeLabel(value)}"`);
+  return pairs.length > 0 ? `{${pairs.join(',')}}` : '';
+};
+
+const formatValue = (value) => {
+  if (value === Infinity) return '+Inf';
+  if (value === -Infinity) return '-Inf';
+  return String(value);
+};
+
+class Metric {
+  constructor(type, name, help, labelNames = []) {
+    this.type = type;
+    this.name = name;
+    this.help = help;
+    this.labelNames = labelNames;
+    this.series = new Map();
+  }
+
+  // Labels in declaration order; a missing label is recorded as an empty string
+  labelsFor(labels = {}) {
+    const result = {};
+    for (const name of this.labelNames) result[name] = labels[name] === undefined ? '' : String(labels[name]);
+    return result;
+  }
+
+  seriesFor(labels, create) {
+    const normalized = this.labelsFor(labels);
+    const key = JSON.stringify(Object.values(normalized));
+    if (!this.series.has(key)) this.series.set(key, { labels: normalized, ...create() });
+    return this.series.get(key);
+  }
+
+  // A JSON copy, as snapshots are sent between cluster workers; values JSON cannot represent
+  // (Infinity, NaN) are kept in their exposition format
+  snapshot() {
+    const keepNonFinite = (key, value) => (typeof value === 'number' && !Number.isFinite(value) ? formatValue(value) : value);
+    const series = {};
+    for (const [key, entry] of this.series) series[key] = JSON.parse(JSON.stringify(entry, keepNonFinite));
+    return { type: this.type, help: this.help, series };
+  }
+}
+
+class Counter extends Metric {
+  constructor(name, help, labelNames) {
+    super('counter', name, help, labelNames);
+  }
+
+  inc(labels, value = 1) {
+    this.seriesFor(labels, () => ({ value: 0 })).value += value;
+  }
+}
+
+class Gauge extends Metric {
+  constructor(name, help, labelNames) {
+    super('gauge', name, help, labelNames);
+  }
+
+  set(labels, value) {
+    this.seriesFor(labels, () => ({ value: 0 })).value = value;
+  }
+}
+
+class Histogram extends Metric {
+  constructor(name, help, labelNames, buckets) {
+    super('histogram', name, help, labelNames);
+    this.buckets = [...buckets].sort((a, b) => a - b);
+  }
+
+  // Counts are kept per bucket and made cumulative when rendered
+  observe(labels, value) {
+    const entry = this.seriesFor(labels, () => ({ buckets: this.buckets.map(() => 0), sum: 0, count: 0 }));
+    const index = this.buckets.findIndex(bound => value <= bound);
+    if (index !== -1) entry.buckets[index]++;
+    entry.sum += value;
+    entry.count++;
+  }
+
+  // Observe the seconds elapsed between this call and calling the returned function
+  startTimer(labels = {}) {
+    const startedAt = process.hrtime.bigint();
+    return (extraLabels = {}) => {
+      const seconds = Number(process.hrtime.bigint() - startedAt) / 1e9;
+      this.observe({ ...labels, ...extraLabels }, seconds);
+      return seconds;
+    };
+  }
+
+  snapshot() {
+    return { ...super.snapshot(), bounds: this.buckets };
+  }
+}
+
+class Registry {
+  constructor() {
+    this.metrics = new Map();
+    this.collectors = [];
+  }
+
+  register(metric) {
+    if (this.metrics.has(metric.name)) throw new Error(`Metric ${metric.name} is already registered`);
+    this.metrics.set(metric.name, metric);
+    return metric;
+  }
+
+  counter(name, help, labelNames) {
+    return this.register(new Counter(name, help, labelNames));
+  }
+
+  gauge(name, help, labelNames) {
+    return this.register(new Gauge(name, help, labelNames));
+  }
+
+  histogram(name, help, labelNames, buckets) {
+    return this.register(new Histogram(name, help, labelNames, buckets));
+  }
+
+  // collect() runs before every snapshot, to update gauges that are sampled rather than recorded
+  onCollect(collect) {
+    this.collectors.push(collect);
+  }
+
+  snapshot() {
+    this.collectors.forEach(collect => collect());
+    const metrics = {};
+    for (const [name, metric] of this.metrics) metrics[name] = metric.snapshot();
+    return metrics;
+  }
+}
+
+// Merge the snapshots of several processes. Every series gets a pid label instead of being
+// added up: a sum would drop whenever a process restarts or misses a scrape, which Prometheus
+// reads as a counter reset. Totals are taken with sum without (pid) (...) in PromQL.
+const mergeSnapshots = (snapshots) => {
+  const merged = {};
+  for (const { pid, metrics } of snapshots) {
+    for (const [name, metric] of Object.entries(metrics)) {
+      if (!merged[name]) merged[name] = { ...metric, series: {} };
+      for (const [key, entry] of Object.entries(metric.series)) {
+        merged[name].series[`${key}|${pid}`] = { ...entry, labels: { ...entry.labels, pid: String(pid) } };
+      }
+    }
+  }
+  return merged;
+};
+
+// Render a (merged) snapshot in the Prometheus text exposition format
+const render = (metrics) => {
+  const lines = [];
+  for (const [name, metric] of Object.entries(metrics)) {
+    const series = Object.values(metric.series);
+    if (series.length === 0) continue;
+    lines.push(`# HELP ${name} ${metric.help}`);
+    lines.push(`# TYPE ${name} ${metric.type}`);
+    for (const entry of series) {
+      if (metric.type !== 'histogram') {
+        lines.push(`${name}${formatLabels(entry.labels)} ${formatValue(entry.value)}`);
+        continue;
+      }
+      let cumulative = 0;
+      metric.bounds.forEach((bound, index) => {
+        cumulative += entry.buckets[index];
+        lines.push(`${name}_bucket${formatLabels({ ...entry.labels, le: formatValue(bound) })} ${cumulative}`);
+      });
+      lines.push(`${name}_bucket${formatLabels({ ...entry.labels, le: '+Inf' })} ${entry.count}`);
+      lines.push(`${name}_sum${formatLabels(entry.labels)} ${entry.sum}`);
+      lines.push(`${name}_count${formatLabels(entry.labels)} ${entry.count}`);
+    }
+  }
+  return `${lines.join('\n')}\n`;
+};
+
+module.exports = { Registry, Counter, Gauge, Histogram, mergeSnapshots, render };
@@ -0,0 +1,67 @@
+const { sleep } = require('./concurrency');
+
+// Token bucket rate limiter. Callers are served in FIFO order; a request for more
+// tokens than the bucket holds waits for a full bucket instead of blocking forever.
+// A capacity of Infinity never limits, but pauseUntil() still holds callers back.
+class TokenBucket {
+  constructor({ capacity, refillPerMinute }) {
+    this.capacity = capacity;
+    this.refillPerMs = refillPerMinute / 60000;
+    this.tokens = capacity;
+    this.lastRefill = Date.now();
+    this.blockedUntil = 0;
+    this.tail = Promise.resolve();
+  }
+
+  refill() {
+    const now = Date.now();
+    if (Number.isFinite(this.capacity)) {
+      this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.refillPerMs);
+    }
+    this.lastRefill = now;
+  }
+
+  take(amount = 1) {
+    const wanted = Math.min(amount, this.capacity);
+    this.tail = this.tail.then(() => this.waitFor(wanted));
+    return this.tail;
+  }
+
+  async waitFor(amount) {
+    while (true) {
+      this.refill();
+      const now = Date.now();
+      if (now < this.blockedUntil) {
+        await sleep(this.blockedUntil - now);
+        continue;
+      }
+      if (this.tokens >= amount) {
+        this.tokens -= amount;
+        return;
+      }
+      await sleep(Math.ceil((amount - this.tokens) / this.refillPerMs));
+    }
+  }
+
+  // Stop handing out tokens until the given time (e.g. from a retry-after header)
+  pauseUntil(timestamp) {
+    this.blockedUntil = Math.max(this.blockedUntil, timestamp);
+  }
+
+  // Correct an earlier estimate once the real cost is known; may leave the bucket in debt
+  adjust(delta) {
+    this.refill();
+    this.tokens = Math.min(this.capacity, this.tokens - delta);
+  }
+
+  getStats() {
+    this.refill();
+    return {
+      available: Number.isFinite(this.tokens) ? Math.floor(this.tokens) : 'unlimited',
+      capacity: Number.isFinite(this.capacity) ? this.capacity : 'unlimited',
+      pausedForMs: Math.max(this.blockedUntil - Date.now(), 0)
+    };
+  }
+}
+
+module.exports = TokenBucket;
@@ -0,0 +1,76 @@
+const { StringDecoder } = require('string_decoder');
+
+const escapeRegExp = (text) => text.replace(/[.*+?^${}()|[\]\\]/g, '\\$&');
+
+// Characters kept from a chunk with no element start, in case a start tag is split across chunks
+const CARRY_OVER = 256;
+
+// Yield every complete element named one of `tags` (with or without a namespace prefix) from
+// a stream of XML, e.g. each <row> of a worksheet. Only the element being read is buffered;
+// elements of the same name must not nest.
+const scanElements = async function* (stream, tags) {
+  const startPattern = new RegExp(`<((?:[\\w.-]+:)?(?:${tags.map(escapeRegExp).join('|')}))(?=[\\s/>])`, 'g');
+  const decoder = new StringDecoder('utf8');
+  let buffer = '';
+
+  for await (const chunk of stream) {
+    buffer += typeof chunk === 'string' ? chunk : decoder.write(chunk);
+    let consumed = 0;
+
+    while (true) {
+      startPattern.lastIndex = consumed;
+      const match = startPattern.exec(buffer);
+      if (!match) {
+        consumed = Math.max(consumed, buffer.length - CARRY_OVER);
+        break;
+      }
+
+      const start = match.index;
+      const tagEnd = buffer.indexOf('>', start);
+      if (tagEnd < 0) {
+        consumed = start;
+        break;
+      }
+      if (buffer[tagEnd - 1] === '/') {
+        yield buffer.substring(start, tagEnd + 1);
+        consumed = tagEnd + 1;
+        continue;
+      }
+
+      const closeTag = `</${match[1]}>`;
+      const closeStart = buffer.indexOf(closeTag, tagEnd);
+      if (closeStart < 0) {
+        consumed = start;
+        break;
+      }
+      yield buffer.substring(start, closeStart + closeTag.length);
+      consumed = closeStart + closeTag.length;
+    }
+
+    buffer = buffer.substring(consumed);
+  }
+};
+
+// Attributes of the opening tag of an element, names as written (e.g. "r:id")
+const parseAttributes = (tag) => {
+  const attributes = {};
+  const pattern = /([\w:.-]+)\s*=\s*(?:"([^"]*)"|'([^']*)')/g;
+  const openTag = tag.substring(0, tag.indexOf('>') + 1);
+  let match;
+  while ((match = pattern.exec(openTag)) !== null) {
+    attributes[match[1]] = decodeEntities(match[2] !== undefined ? match[2] : match[3]);
+  }
+  return attributes;
+};
+
+const ENTITIES = { amp: '&', lt: '<', gt: '>', quot: '"', apos: '\'' };
+
+const decodeEntities = (text) => text.replace(/&(#x[0-9a-fA-F]+|#\d+|\w+);/g, (entity, code) => {
+  if (code[0] === '#') {
+    const value = code[1] === 'x' ? parseInt(code.substring(2), 16) : parseInt(code.substring(1), 10);
+    return String.fromCodePoint(value);
+  }
+  return ENTITIES[code] !== undefined ? ENTITIES[code] : entity;
+});
+
+module.exports = { scanElements, parseAttributes, decodeEntities };
@@ -0,0 +1,124 @@
+const fs = require('fs');
+const zlib = require('zlib');
+const { Readable } = require('stream');
+
+const END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+const CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+const LOCAL_FILE_HEADER = 0x04034b50;
+// End of central directory record plus the longest possible archive comment
+const MAX_TAIL_BYTES = 22 + 0xffff;
+
+const STORED = 0;
+const DEFLATED = 8;
+
+class ZipFormatError extends Error {}
+
+const readAt = async (handle, position, length) => {
+  const buffer = Buffer.alloc(length);
+  const { bytesRead } = await handle.read(buffer, 0, length, position);
+  return buffer.subarray(0, bytesRead);
+};
+
+// Minimal reader for ZIP archives such as .xlsx files. Only the central directory is read
+// up front; entries are streamed from disk and inflated on demand.
+class ZipReader {
+  constructor(filePath, entries) {
+    this.filePath = filePath;
+    this.entries = entries;
+  }
+
+  static async open(filePath) {
+    const handle = await fs.promises.open(filePath, 'r');
+    try {
+      const { size } = await handle.stat();
+      const tailLength = Math.min(size, MAX_TAIL_BYTES);
+      const tail = await readAt(handle, size - tailLength, tailLength);
+
+      let eocd = -1;
+      for (let i = tail.length - 22; i >= 0; i--) {
+        if (tail.readUInt32LE(i) === END_OF_CENTRAL_DIRECTORY) {
+          eocd = i;
+          break;
+        }
+      }
+      if (eocd < 0) throw new ZipFormatError('Not a ZIP archive');
+
+      const entryCount = tail.readUInt16LE(eocd + 10);
+      const directorySize = tail.readUInt32LE(eocd + 12);
+      const directoryOffset = tail.readUInt32LE(eocd + 16);
+      if (entryCount === 0xffff || directoryOffset === 0xffffffff) {
+        throw new ZipFormatError('ZIP64 archives are not supported');
+      }
+
+      const directory = await readAt(handle, directoryOffset, directorySize);
+      const entries = new Map();
+      let offset = 0;
+      for (let i = 0; i < entryCount; i++) {
+        if (directory.readUInt32LE(offset) !== CENTRAL_DIRECTORY_ENTRY) {
+          throw new ZipFormatError('Corrupt ZIP central directory');
+        }
+        const nameLength = directory.readUInt16LE(offset + 28);
+        const extraLength = directory.readUInt16LE(offset + 30);
+        const commentLength = directory.readUInt16LE(offset + 32);
+        const name = directory.toString('utf8', offset + 46, offset + 46 + nameLength);
+        entries.set(name, {
+          name,
+          method: directory.readUInt16LE(offset + 10),
+          compressedSize: directory.readUInt32LE(offset + 20),
+          size: directory.readUInt32LE(offset + 24),
+          headerOffset: directory.readUInt32LE(offset + 42)
+        });
+        offset += 46 + nameLength + extraLength + commentLength;
+      }
+
+      return new ZipReader(filePath, entries);
+    } finally {
+      await handle.close();
+    }
+  }
+
+  has(name) {
+    return this.entries.has(name);
+  }
+
+  // Readable stream of the uncompressed contents of an entry
+  async openEntryStream(name) {
+    const entry = this.entries.get(name);
+    if (!entry) throw new Error(`ZIP entry not found: ${name}`);
+    if (entry.method !== STORED && entry.method !== DEFLATED) {
+      throw new ZipFormatError(`Unsupported compression method ${entry.method} for ${name}`);
+    }
+
+    const handle = await fs.promises.open(this.filePath, 'r');
+    let header;
+    try {
+      header = await readAt(handle, entry.headerOffset, 30);
+    } finally {
+      await handle.close();
+    }
+    if (header.length < 30 || header.readUInt32LE(0) !== LOCAL_FILE_HEADER) {
+      throw new ZipFormatError(`Corrupt local header for ${name}`);
+    }
+
+    const dataStart = entry.headerOffset + 30 + header.readUInt16LE(26) + header.readUInt16LE(28);
+    if (entry.compressedSize === 0) return Readable.from([]);
+
+    const source = fs.createReadStream(this.filePath, {
+      start: dataStart,
+      end: dataStart + entry.compressedSize - 1
+    });
+    if (entry.method === STORED) return source;
+
+    const inflate = zlib.createInflateRaw();
+    source.on('error', (error) => inflate.destroy(error));
+    return source.pipe(inflate);
+  }
+
+  async readEntry(name) {
+    const chunks = [];
+    for await (const chunk of await this.openEntryStream(name)) chunks.push(chunk);
+    return Buffer.concat(chunks);
+  }
+}
+
+module.exports = { ZipReader, ZipFormatError };
@@ -0,0 +1,15 @@
+// bcrypt runs here instead of on the event loop; bcryptjs is pure JavaScript and a single
+// hash at cost 12 takes hundreds of milliseconds of CPU
+const bcrypt = require('bcryptjs');
+
+const tasks = {
+  hash({ password, rounds }) {
+    return bcrypt.hash(password, rounds);
+  },
+
+  compare({ password, hash }) {
+    return bcrypt.compare(password, hash);
+  }
+};
+
+module.exports = tasks;
@@ -0,0 +1,39 @@
+// CPU-heavy pipeline stages that run on the worker pool. Each task takes a structured-clone
+// payload and a progress callback; Uint8Array results are transferred back without copying.
+const { parseExcel, readFirstSheetObjects } = require('../services/excelParser');
+const { splitGeneratedContent } = require('../services/generatedOutput');
+const { mergeShardOutputs } = require('../services/scenarioSharding');
+const { buildTemplateSkeleton } = require('../services/templateSkeleton');
+
+const encoder = new TextEncoder();
+const decoder = new TextDecoder();
+
+// Serialize here rather than on the event loop; the caller keeps the bytes as they are
+const toJsonBytes = (value) => encoder.encode(JSON.stringify(value));
+
+const tasks = {
+  async parseExcel({ filePath }, reportProgress) {
+    const result = await parseExcel(filePath, {
+      onScenarios: (batch, total) => reportProgress({ scenariosCount: total })
+    });
+    return toJsonBytes(result);
+  },
+
+  async previewExcel({ filePath, maxRows }) {
+    return toJsonBytes(await readFirstSheetObjects(filePath, { maxRows }));
+  },
+
+  splitGeneratedContent({ content }) {
+    return splitGeneratedContent(typeof content === 'string' ? content : decoder.decode(content));
+  },
+
+  mergeShardOutputs({ outputs }) {
+    return mergeShardOutputs(outputs);
+  },
+
+  buildTemplateSkeleton({ source }) {
+    return buildTemplateSkeleton(source);
+  }
+};
+
+module.exports = tasks;
@@ -0,0 +1,15 @@
+const { parentPort, workerData } = require('worker_threads');
+// Each pool names the module whose exports are the tasks its workers run
+const tasks = require(workerData.tasksPath);
+
+parentPort.on('message', async ({ id, task, payload }) => {
+  const reportProgress = (data) => parentPort.postMessage({ id, type: 'progress', data });
+  try {
+    if (!tasks[task]) throw new Error(`Unknown worker task: ${task}`);
+    const result = await tasks[task](payload, reportProgress);
+    const transferList = result instanceof Uint8Array ? [result.buffer] : [];
+    parentPort.postMessage({ id, type: 'result', result }, transferList);
+  } catch (error) {
+    parentPort.postMessage({ id, type: 'error', error: { message: error.message, stack: error.stack } });
+  }
+});
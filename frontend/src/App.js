@@ -301,7 +301,7 @@ function App() {
           }}
         >
           <Avatar 
-            src={user?.profilePicture ? getProfilePictureUrl(user.profilePicture) : undefined}
+            src={user?.profilePicture ? getProfilePictureUrl(user.profilePicture, 64) : undefined}
             sx={{ width: 32, height: 32, bgcolor: 'secondary.main' }}
           >
             {!user?.profilePicture && (user?.firstName?.[0]?.toUpperCase() || 'U')}
@@ -838,7 +838,7 @@ function App() {
                         }}
                         disabled={
                           (activeStep === 0 && dataSource === 'testrail' && 
-                           (testrailConnectionStatus !== 'success' || !testrailConfig.username || !testrailConfig.apikey || !testrailConfig.testCaseId)) ||
+                           (testrailConnectionStatus !== 'success' || !testrailConfig.username || !testrailConfig.apikey || (!testrailConfig.testCaseId && !testrailConfig.projectId))) ||
                           (activeStep === 1 && !useDefaultFiles && Object.keys(files).length === 0)
                         }
                       >
@@ -70,11 +70,117 @@ export const uploadFiles = async (formData) => {
   return response.data;
 };
 
+// Hex SHA-256 of a file's content, or null where Web Crypto is unavailable (plain http)
+const hashFile = async (file) => {
+  if (!window.crypto || !window.crypto.subtle) return null;
+  const digest = await window.crypto.subtle.digest('SHA-256', await file.arrayBuffer());
+  return Array.from(new Uint8Array(digest), (byte) => byte.toString(16).padStart(2, '0')).join('');
+};
+
+// Upload one file as fieldName, skipping the transfer when the server already stores
+// identical content. Resolves like uploadFiles: { success, files: { [fieldName]: filename } }
+export const uploadFile = async (fieldName, file) => {
+  const hash = await hashFile(file);
+  if (hash) {
+    const response = await api.post('/api/uploads/link', { hash, originalName: file.name });
+    if (response.data.exists) {
+      return { success: true, files: { [fieldName]: response.data.filename }, deduplicated: true };
+    }
+  }
+
+  const formData = new FormData();
+  formData.append(fieldName, file);
+  return uploadFiles(formData);
+};
+
 export const generateScript = async (requestData) => {
   const response = await api.post('/api/generate-script', requestData);
   return response.data;
 };
 
+// Submit a background generation job; resolves with { jobId, statusUrl, eventsUrl }
+export const submitGenerationJob = async (requestData) => {
+  const response = await api.post('/api/generation-jobs', requestData);
+  return response.data;
+};
+
+// afterEventId also fetches the job's events after that one
+export const getGenerationJob = async (jobId, afterEventId) => {
+  const response = await api.get(`/api/generation-jobs/${jobId}`, {
+    params: afterEventId !== undefined ? { after: afterEventId } : undefined,
+  });
+  return response.data;
+};
+
+// Follow a generation job over Server-Sent Events. fetch is used instead of EventSource
+// so the Authorization header can be sent. Resolves with the final job result.
+export const streamGenerationJob = async (jobId, { onEvent = () => {}, signal } = {}) => {
+  const token = localStorage.getItem('token');
+  const response = await fetch(`${api.defaults.baseURL}/api/generation-jobs/${jobId}/events`, {
+    headers: {
+      Accept: 'text/event-stream',
+      ...(token ? { Authorization: `Bearer ${token}` } : {}),
+    },
+    signal,
+  });
+
+  if (!response.ok || !response.body) {
+    throw new Error(`Unable to follow generation job: ${response.status}`);
+  }
+
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let buffer = '';
+
+  while (true) {
+    const { done, value } = await reader.read();
+    if (done) break;
+    buffer += decoder.decode(value, { stream: true });
+
+    let boundary;
+    while ((boundary = buffer.indexOf('\n\n')) !== -1) {
+      const rawEvent = buffer.slice(0, boundary);
+      buffer = buffer.slice(boundary + 2);
+
+      const data = rawEvent
+        .split('\n')
+        .filter((line) => line.startsWith('data:'))
+        .map((line) => line.slice(5).trim())
+        .join('\n');
+      if (!data) continue;
+
+      const event = JSON.parse(data);
+      onEvent(event);
+      if (event.type === 'completed') return event.result;
+      if (event.type === 'failed') {
+        const jobError = new Error(event.message);
+        jobError.jobFailed = true;
+        throw jobError;
+      }
+    }
+  }
+
+  throw new Error('Generation job stream closed before the job finished');
+};
+
+// Polling fallback for environments where the event stream is not available
+export const waitForGenerationJob = async (jobId, { onEvent = () => {}, intervalMs = 2000 } = {}) => {
+  let lastEventId = 0;
+  while (true) {
+    const job = await getGenerationJob(jobId, lastEventId);
+    // Every event since the previous poll, so no progress or partial output is skipped
+    (job.events || []).forEach((event) => {
+      if (event.id > lastEventId) {
+        lastEventId = event.id;
+        onEvent(event);
+      }
+    });
+    if (job.status === 'completed') return job.result;
+    if (job.status === 'failed') throw new Error(job.error);
+    await new Promise((resolve) => setTimeout(resolve, intervalMs));
+  }
+};
+
 export const downloadScript = (filename) => {
   const url = process.env.NODE_ENV === 'production' 
     ? `/api/download/${filename}`
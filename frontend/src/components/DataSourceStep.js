@@ -59,8 +59,8 @@ const DataSourceStep = ({
   const testTestrailConnectionHandler = async () => {
     const baseUrl = testrailConfig.testrailBaseUrl || 'https://morningstar.testrail.net';
     
-    if (!testrailConfig.username || !testrailConfig.apikey || !testrailConfig.testCaseId) {
-      showNotification('Please fill in all TestRail fields', 'warning');
+    if (!testrailConfig.username || !testrailConfig.apikey || (!testrailConfig.testCaseId && !testrailConfig.projectId)) {
+      showNotification('Please fill in the TestRail credentials and a test case ID or project ID', 'warning');
       return;
     }
 
@@ -78,6 +78,7 @@ const DataSourceStep = ({
         username: testrailConfig.username,
         apikey: testrailConfig.apikey,
         testCaseId: testrailConfig.testCaseId,
+        projectId: testrailConfig.projectId,
         testrailBaseUrl: baseUrl,
       });
 
@@ -100,7 +101,7 @@ const DataSourceStep = ({
     const baseUrl = testrailConfig.testrailBaseUrl || 'https://morningstar.testrail.net';
     
     if (!testrailConfig.username || !testrailConfig.apikey || !testrailConfig.testCaseId) {
-      showNotification('Please fill in all TestRail fields before previewing', 'warning');
+      showNotification('Preview needs a single test case ID', 'warning');
       return;
     }
 
@@ -349,6 +350,60 @@ const DataSourceStep = ({
                 }}
               />
             </Grid>
+            <Grid item xs={12} sm={4}>
+              <TextField
+                fullWidth
+                label="Project ID"
+                placeholder="e.g., 12"
+                value={testrailConfig.projectId || ''}
+                onChange={handleTestrailConfigChange('projectId')}
+                helperText="Instead of a case ID: ingest every case"
+                variant="outlined"
+                sx={{
+                  '& .MuiOutlinedInput-root': {
+                    '&:hover fieldset': {
+                      borderColor: 'secondary.main',
+                    },
+                  },
+                }}
+              />
+            </Grid>
+            <Grid item xs={12} sm={4}>
+              <TextField
+                fullWidth
+                label="Suite ID (optional)"
+                placeholder="e.g., 34"
+                value={testrailConfig.suiteId || ''}
+                onChange={handleTestrailConfigChange('suiteId')}
+                helperText="Limit to one suite"
+                variant="outlined"
+                sx={{
+                  '& .MuiOutlinedInput-root': {
+                    '&:hover fieldset': {
+                      borderColor: 'secondary.main',
+                    },
+                  },
+                }}
+              />
+            </Grid>
+            <Grid item xs={12} sm={4}>
+              <TextField
+                fullWidth
+                label="Section ID (optional)"
+                placeholder="e.g., 56"
+                value={testrailConfig.sectionId || ''}
+                onChange={handleTestrailConfigChange('sectionId')}
+                helperText="Limit to a section and its subsections"
+                variant="outlined"
+                sx={{
+                  '& .MuiOutlinedInput-root': {
+                    '&:hover fieldset': {
+                      borderColor: 'secondary.main',
+                    },
+                  },
+                }}
+              />
+            </Grid>
           </Grid>
 
           <Box sx={{ mt: 3, display: 'flex', gap: 2, justifyContent: 'center' }}>
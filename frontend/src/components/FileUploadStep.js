@@ -35,7 +35,7 @@ import {
   ExpandMore,
 } from '@mui/icons-material';
 import { useDropzone } from 'react-dropzone';
-import { uploadFiles } from '../api';
+import { uploadFile } from '../api';
 
 const FileUploadStep = ({ 
   files, 
@@ -68,7 +68,6 @@ const FileUploadStep = ({
     }
 
     setUploading(true);
-    const formData = new FormData();
     
     // Map file type to form field name
     const fieldName = fileType === 'Excel' ? 'excelFile' : 
@@ -87,12 +86,8 @@ const FileUploadStep = ({
       reader.readAsText(file);
     }
     
-    acceptedFiles.forEach((file) => {
-      formData.append(fieldName, file);
-    });
-
     try {
-      const response = await uploadFiles(formData);
+      const response = await uploadFile(fieldName, acceptedFiles[0]);
 
       if (response.success) {
         setUploadedFiles({ ...uploadedFiles, ...response.files });
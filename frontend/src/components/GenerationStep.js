@@ -20,7 +20,7 @@ import {
   Api,
   CheckCircle,
 } from '@mui/icons-material';
-import { generateScript } from '../api';
+import { submitGenerationJob, streamGenerationJob, waitForGenerationJob } from '../api';
 
 const GenerationStep = ({
   dataSource,
@@ -36,6 +36,8 @@ const GenerationStep = ({
   onNext,
 }) => {
   const [previewData, setPreviewData] = React.useState(null);
+  const [progressMessage, setProgressMessage] = React.useState('');
+  const [streamedFiles, setStreamedFiles] = React.useState({ method: '', test: '' });
 
   const isReady = () => {
     if (useDefaultFiles) return true;
@@ -66,34 +68,55 @@ const GenerationStep = ({
         files,
         testrailConfig: finalTestrailConfig,
         useDefaultFiles,
+        stream: true,
       };
 
-      console.log('Sending request to generate script:', requestData);
-      const response = await generateScript(requestData);
+      console.log('Submitting generation job:', requestData);
+      const job = await submitGenerationJob(requestData);
+      setProgressMessage('Job queued');
 
-      if (response.success) {
-        setGeneratedFiles({
-          methodFile: response.methodFile || '',
-          testFile: response.testFile || '',
-          methodFilename: response.methodFilename || 'Methods.java',
-          testFilename: response.testFilename || 'Tests.java'
-        });
-        setApiDetails(response.apiDetails);
-        setScenarios(response.scenarios);
-        setPreviewData({
-          apiDetails: response.apiDetails,
-          scenarios: response.scenarios,
-        });
-        showNotification('Method and Test files generated successfully!', 'success');
-        onNext();
-      } else {
-        showNotification('Failed to generate script: ' + response.message, 'error');
+      setStreamedFiles({ method: '', test: '' });
+      const onEvent = (event) => {
+        if (event.type === 'partial') {
+          setStreamedFiles((current) => ({
+            ...current,
+            [event.section]: current[event.section] + event.delta,
+          }));
+        } else if (event.message) {
+          setProgressMessage(event.message);
+        }
+      };
+
+      let response;
+      try {
+        response = await streamGenerationJob(job.jobId, { onEvent });
+      } catch (streamError) {
+        if (streamError.jobFailed) throw streamError;
+        console.warn('Event stream unavailable, falling back to polling:', streamError.message);
+        response = await waitForGenerationJob(job.jobId, { onEvent });
       }
+
+      setGeneratedFiles({
+        methodFile: response.methodFile || '',
+        testFile: response.testFile || '',
+        methodFilename: response.methodFilename || 'Methods.java',
+        testFilename: response.testFilename || 'Tests.java'
+      });
+      setApiDetails(response.apiDetails);
+      setScenarios(response.scenarios);
+      setPreviewData({
+        apiDetails: response.apiDetails,
+        scenarios: response.scenarios,
+      });
+      showNotification('Method and Test files generated successfully!', 'success');
+      onNext();
     } catch (error) {
       console.error('Generation error:', error);
       showNotification('Generation failed: ' + error.message, 'error');
     } finally {
       setLoading(false);
+      setProgressMessage('');
+      setStreamedFiles({ method: '', test: '' });
     }
   };
 
@@ -140,8 +163,12 @@ const GenerationStep = ({
                 {dataSource === 'testrail' && (
                   <ListItem>
                     <ListItemText 
-                      primary="TestRail Case ID" 
-                      secondary={testrailConfig.testCaseId}
+                      primary={testrailConfig.testCaseId ? 'TestRail Case ID' : 'TestRail Scope'} 
+                      secondary={testrailConfig.testCaseId || [
+                        `Project ${testrailConfig.projectId}`,
+                        testrailConfig.suiteId && `Suite ${testrailConfig.suiteId}`,
+                        testrailConfig.sectionId && `Section ${testrailConfig.sectionId}`
+                      ].filter(Boolean).join(' / ')}
                     />
                   </ListItem>
                 )}
@@ -204,11 +231,41 @@ const GenerationStep = ({
                   {loading ? 'Generating...' : 'Generate Method & Test Files'}
                 </Button>
               </Box>
+              {loading && progressMessage && (
+                <Typography variant="body2" color="textSecondary" sx={{ mt: 2 }}>
+                  {progressMessage}
+                </Typography>
+              )}
             </CardContent>
           </Card>
         </Grid>
       </Grid>
 
+      {/* Live output while the files are being generated */}
+      {loading && (streamedFiles.method || streamedFiles.test) && (
+        <Card sx={{ mt: 4 }}>
+          <CardContent>
+            <Typography variant="h6" gutterBottom>
+              Generating...
+            </Typography>
+            <Grid container spacing={2}>
+              {[['method', 'Method File'], ['test', 'Test File']].map(([section, label]) => (
+                <Grid item xs={12} md={6} key={section}>
+                  <Typography variant="subtitle2" gutterBottom>
+                    {label}
+                  </Typography>
+                  <Box sx={{ bgcolor: 'grey.100', p: 2, borderRadius: 1, maxHeight: 300, overflow: 'auto' }}>
+                    <Typography variant="body2" component="pre" sx={{ fontFamily: 'monospace', whiteSpace: 'pre-wrap' }}>
+                      {streamedFiles[section]}
+                    </Typography>
+                  </Box>
+                </Grid>
+              ))}
+            </Grid>
+          </CardContent>
+        </Card>
+      )}
+
       {/* Generation Process Info */}
       <Card sx={{ mt: 4, bgcolor: 'rgba(102, 126, 234, 0.05)' }}>
         <CardContent>
@@ -303,7 +303,7 @@ const ProfilePage = ({ showNotification }) => {
             <CardContent sx={{ pt: 4 }}>
               <Box sx={{ position: 'relative', display: 'inline-block', mb: 2 }}>
                 <Avatar
-                  src={user?.profilePicture ? getProfilePictureUrl(user.profilePicture) : undefined}
+                  src={user?.profilePicture ? getProfilePictureUrl(user.profilePicture, 256) : undefined}
                   sx={{
                     width: 100,
                     height: 100,
@@ -275,9 +275,11 @@ export const AuthProvider = ({ children }) => {
   };
 
   // Get profile picture URL
-  const getProfilePictureUrl = (filename) => {
+  // size (64 or 256) selects a square thumbnail instead of the uploaded image
+  const getProfilePictureUrl = (filename, size) => {
     if (!filename) return null;
-    return `${API_BASE_URL}/auth/profile-picture/${filename}`;
+    const url = `${API_BASE_URL}/auth/profile-picture/${filename}`;
+    return size ? `${url}?size=${size}` : url;
   };
 
   const value = {